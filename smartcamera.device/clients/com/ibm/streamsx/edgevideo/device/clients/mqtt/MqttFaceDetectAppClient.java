@@ -28,14 +28,31 @@ import org.opencv.core.Mat;
 
 import com.google.gson.JsonObject;
 import com.ibm.streamsx.edgevideo.device.MyPanel;
+import com.ibm.streamsx.edgevideo.device.edgent.BinaryFaceEvent;
+import com.ibm.streamsx.edgevideo.device.edgent.FaceCropCache;
+import com.ibm.streamsx.edgevideo.device.edgent.FaceEventBatch;
+import com.ibm.streamsx.edgevideo.device.edgent.FaceEventLatency;
+import com.ibm.streamsx.edgevideo.device.edgent.FaceMetaEvent;
+import com.ibm.streamsx.edgevideo.device.edgent.FaceStatsEvent;
+import com.ibm.streamsx.edgevideo.device.edgent.FrameEvent;
 import com.ibm.streamsx.edgevideo.device.edgent.JsonFaceEvent;
+import com.ibm.streamsx.edgevideo.device.edgent.PipelineStats;
 
 /**
  * An MQTT ApplicationClient that 
  * subscribes to device events for the EdgentFaceDetect device applications.
  * 
  * <p>The client application receives face-detect events and renders the
- * detected faces.
+ * detected faces.  The JSON "faces" events, the binary
+ * {@link BinaryFaceEvent#EVENT_ID} events and the JSON or gzip
+ * {@link FaceEventBatch#EVENT_ID} events are handled, as are the
+ * {@link FaceCropCache#CROP_EVENT_ID} events.  {@link FaceMetaEvent#EVENT_ID}
+ * events are summarized.  {@link FrameEvent#EVENT_ID} full frames are rebuilt
+ * and rendered.  {@link FaceStatsEvent#EVENT_ID} events are printed, as are the
+ * {@link PipelineStats#EVENT_ID} events.
+ * 
+ * <p>The capture to receive latencies of traced face events are reported
+ * periodically.  See {@link FaceEventLatency}.
  * 
  * <p>This connects to your MQTT server
  * as the Application defined in a application config file.
@@ -50,6 +67,9 @@ public class MqttFaceDetectAppClient {
   private static final String usage = "[--deviceId=<id>] <mqtt-app-cfg-file-path> # see scripts/mqtt-device.cfg";
   
   protected static MyPanel detectedFacesPanel;  // panel for rendering the detected faces
+  protected static MyPanel framesPanel;  // panel for rendering the full frames. Created on the first.
+  protected static FrameEvent.Decoder frameDecoder = new FrameEvent.Decoder();
+  protected static FaceEventLatency faceEventLatency = new FaceEventLatency();
 
   public static void main(String[] args) throws Exception {
     if (args.length == 0)
@@ -92,11 +112,17 @@ public class MqttFaceDetectAppClient {
     
     String evtTopicPattern = getEventTopicPattern(cfgProps, deviceId, null);
     System.out.println("evtTopicPattern: " + evtTopicPattern);
+    String binEvtTopicPattern = BinaryFaceEvent.toBinaryTopic(evtTopicPattern);
+    System.out.println("binEvtTopicPattern: " + binEvtTopicPattern);
+    String gzipEvtTopicPattern = FaceEventBatch.toGzipTopic(evtTopicPattern);
+    System.out.println("gzipEvtTopicPattern: " + gzipEvtTopicPattern);
     
     boolean subscribeToEvents = true;
     if (subscribeToEvents) {
       System.out.println("Subscribing to device events...");
       client.subscribe(evtTopicPattern);
+      client.subscribe(binEvtTopicPattern);
+      client.subscribe(gzipEvtTopicPattern);
       client.setCallback(new MqttCallback() {
 
         @Override
@@ -113,8 +139,30 @@ public class MqttFaceDetectAppClient {
 
         @Override
         public void messageArrived(String topic, MqttMessage msg) throws Exception {
+          long receiveMillis = System.currentTimeMillis();
           if (topic.contains("/faces/")) {
-            handleFaceDetectEvent(msg);
+            handleFaceDetectEvent(getDeviceKey(topic), msg, receiveMillis);
+          }
+          else if (topic.contains("/" + BinaryFaceEvent.EVENT_ID + "/")) {
+            handleBinaryFaceDetectEvent(getDeviceKey(topic), msg, receiveMillis);
+          }
+          else if (topic.contains("/" + FaceEventBatch.EVENT_ID + "/")) {
+            handleFaceDetectBatchEvent(getDeviceKey(topic), topic, msg, receiveMillis);
+          }
+          else if (topic.contains("/" + FaceMetaEvent.EVENT_ID + "/")) {
+            handleFaceMetaEvent(msg);
+          }
+          else if (topic.contains("/" + FaceCropCache.CROP_EVENT_ID + "/")) {
+            handleFaceCropEvent(msg);
+          }
+          else if (topic.contains("/" + FaceStatsEvent.EVENT_ID + "/")) {
+            handleFaceStatsEvent(JsonFunctions.fromBytes().apply(msg.getPayload()));
+          }
+          else if (topic.contains("/" + PipelineStats.EVENT_ID + "/")) {
+            handlePipelineStatsEvent(getDeviceKey(topic), JsonFunctions.fromBytes().apply(msg.getPayload()));
+          }
+          else if (topic.contains("/" + FrameEvent.EVENT_ID + "/")) {
+            handleFrameEvent(JsonFunctions.fromBytes().apply(msg.getPayload()));
           }
           else {
             System.out.println(
@@ -152,12 +200,95 @@ public class MqttFaceDetectAppClient {
     return cmdTopicPattern;
   }
 
-  private static void handleFaceDetectEvent(MqttMessage msg) {
+  /** the event topic up to the event id, identifying the sending device */
+  static String getDeviceKey(String evtTopic) {
+    int i = evtTopic.indexOf("/evt/");
+    return i < 0 ? evtTopic : evtTopic.substring(0, i);
+  }
+
+  private static void handleFaceDetectEvent(String deviceId, MqttMessage msg, long receiveMillis) {
     JsonObject faceEvent = JsonFunctions.fromBytes().apply(msg.getPayload());
     
     //System.out.println("Received face detection event: timestamp=" + JsonFaceEvent.getTimestamp(faceEvent));
     
+    boolean traced = faceEventLatency.record(deviceId, faceEvent, receiveMillis);
+    if (!JsonFaceEvent.hasFace(faceEvent)) {
+      // the device's uplink budget didn't permit the image
+      System.out.println("Received face metadata only event: timestamp=" + JsonFaceEvent.getTimestamp(faceEvent)
+          + " rect=" + faceEvent.get("rect"));
+      return;
+    }
     renderImage(JsonFaceEvent.getFace(faceEvent));
+    if (traced)
+      faceEventLatency.recordRendered(receiveMillis);
+  }
+  
+  private static void handleBinaryFaceDetectEvent(String deviceId, MqttMessage msg, long receiveMillis) {
+    BinaryFaceEvent faceEvent = BinaryFaceEvent.decode(msg.getPayload());
+    
+    //System.out.println("Received binary face detection event: seq=" + faceEvent.seq + " bytes=" + msg.getPayload().length);
+    
+    boolean traced = faceEventLatency.record(deviceId, faceEvent, receiveMillis);
+    renderImage(faceEvent.face);
+    if (traced)
+      faceEventLatency.recordRendered(receiveMillis);
+  }
+  
+  private static void handleFaceDetectBatchEvent(String deviceId, String topic, MqttMessage msg, long receiveMillis) {
+    JsonObject batch = topic.endsWith("/" + FaceEventBatch.GZIP_TOPIC_FORMAT)
+        ? FaceEventBatch.fromGzipBytes(msg.getPayload())
+        : JsonFunctions.fromBytes().apply(msg.getPayload());
+    
+    //System.out.println("Received face detection batch event: count=" + batch.get("count") + " bytes=" + msg.getPayload().length);
+    
+    for (JsonObject faceEvent : FaceEventBatch.getFaceEvents(batch)) {
+      boolean traced = faceEventLatency.record(deviceId, faceEvent, receiveMillis);
+      renderImage(JsonFaceEvent.getFace(faceEvent));
+      if (traced)
+        faceEventLatency.recordRendered(receiveMillis);
+    }
+  }
+  
+  private static void handleFaceMetaEvent(MqttMessage msg) {
+    JsonObject metaEvent = JsonFunctions.fromBytes().apply(msg.getPayload());
+    
+    System.out.println("Received face metadata event: timestamp=" + metaEvent.get("timestamp").getAsString()
+        + " faceIds=" + Arrays.toString(FaceMetaEvent.getIds(metaEvent)));
+  }
+  
+  private static void handleFaceCropEvent(MqttMessage msg) {
+    JsonObject cropEvent = JsonFunctions.fromBytes().apply(msg.getPayload());
+    
+    if (cropEvent.has("missing")) {
+      System.out.println("Face crop not available: id=" + cropEvent.get("id"));
+      return;
+    }
+    renderImage(JsonFaceEvent.getFace(cropEvent));
+  }
+  
+  private static void handleFaceStatsEvent(JsonObject statsEvent) {
+    System.out.println("Received face stats event: " + statsEvent);
+  }
+  
+  private static void handlePipelineStatsEvent(String deviceId, JsonObject statsEvent) {
+    System.out.println("Received pipeline stats event: deviceId=" + deviceId + " " + statsEvent);
+  }
+  
+  private static void handleFrameEvent(JsonObject frameEvent) {
+    Mat frame = frameDecoder.decode(frameEvent);
+    if (frame == null) {
+      // a delta whose keyframe wasn't received
+      System.out.println("Awaiting a keyframe. Skipped frame event: seq=" + frameEvent.get("seq"));
+      return;
+    }
+    if (framesPanel == null) {
+      framesPanel = MyPanel.newFramedPanel("MQTT Frames", 50 + DETECTED_FACES_PANEL_WIDTH + 25, 100,
+          frame.width(), frame.height());
+    }
+    framesPanel.clear();
+    framesPanel.matToBufferedImage(frame);
+    framesPanel.repaint();
+    frame.release();
   }
   
   private static void renderImage(Mat face) {
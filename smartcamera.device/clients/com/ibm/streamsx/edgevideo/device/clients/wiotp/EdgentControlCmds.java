@@ -14,6 +14,10 @@ import org.apache.edgent.topology.services.ApplicationService;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonPrimitive;
+import com.ibm.streamsx.edgevideo.device.edgent.EdgentFaceDetectIotProviderApp.DetectionRegionsControl;
+import com.ibm.streamsx.edgevideo.device.edgent.EdgentFaceDetectIotProviderApp.FaceDetectorControl;
+import com.ibm.streamsx.edgevideo.device.edgent.EdgentFaceDetectIotProviderApp.PipelineStatsControl;
+import com.ibm.streamsx.edgevideo.device.edgent.EdgentFaceDetectIotProviderApp.UplinkBudgetControl;
 
 /**
  * A utility class for composing JsonObject "Edgent Control" commands. 
@@ -55,8 +59,18 @@ public class EdgentControlCmds {
    * @return 
    */
   public static JsonObject mkStartAppCmd(String appName) {
+    return mkStartAppCmd(appName, new JsonObject());  // empty jsonConfig object
+  }
+
+  /** 
+   * Make a command for ApplicationServiceMXBean.submit(applicationName, jsonObjectConfig)
+   * @param appName 
+   * @param config the application's config. e.g., FaceStatsEvent.CONFIG_WINDOW_MSEC
+   * @return 
+   */
+  public static JsonObject mkStartAppCmd(String appName, JsonObject config) {
     JsonArray args = toJsonArray(appName);
-    args.add(new JsonObject());  // empty jsonConfig object
+    args.add(config);
     JsonObject cmd = mkControlCmd(ApplicationServiceMXBean.TYPE, ApplicationService.ALIAS, 
         "submit", args);
     return cmd;
@@ -75,6 +89,118 @@ public class EdgentControlCmds {
         "setPeriod", Long.valueOf(period).toString(), unit.name());
   }
   
+  /**
+   * Make a command for DetectionRegionsMXBean.setRegions(spec)
+   * @param spec - e.g., "roi=rect:0.3,0.1,0.4,0.8;exclude=rect:0.8,0,0.2,0.3"
+   * @return
+   */
+  public static JsonObject mkSetDetectionRegionsCmd(String spec) {
+    return mkControlCmd(DetectionRegionsControl.CONTROL_TYPE, DetectionRegionsControl.ALIAS,
+        "setRegions", spec);
+  }
+  
+  /**
+   * Make a command for DetectionRegionsMXBean.clearRegions()
+   * @return
+   */
+  public static JsonObject mkClearDetectionRegionsCmd() {
+    return mkControlCmd(DetectionRegionsControl.CONTROL_TYPE, DetectionRegionsControl.ALIAS,
+        "clearRegions");
+  }
+  
+  /**
+   * Make a command for a FaceDetectorMXBean setter - e.g., setScaleFactor(1.2)
+   * @param op - e.g., "setScaleFactor"
+   * @param value - e.g., "1.2"
+   * @return
+   */
+  public static JsonObject mkFaceDetectorCmd(String op, String value) {
+    return mkControlCmd(FaceDetectorControl.CONTROL_TYPE, FaceDetectorControl.ALIAS, op, value);
+  }
+  
+  /**
+   * Make a command for FaceDetectorMXBean.setResizeFactor(int)
+   * @param resizeFactor
+   * @return
+   */
+  public static JsonObject mkFaceDetectorSetResizeFactorCmd(int resizeFactor) {
+    return mkFaceDetectorCmd("setResizeFactor", Integer.toString(resizeFactor));
+  }
+  
+  /**
+   * Make a command for FaceDetectorMXBean.setScaleFactor(double)
+   * @param scaleFactor
+   * @return
+   */
+  public static JsonObject mkFaceDetectorSetScaleFactorCmd(double scaleFactor) {
+    return mkFaceDetectorCmd("setScaleFactor", Double.toString(scaleFactor));
+  }
+  
+  /**
+   * Make a command for FaceDetectorMXBean.setMinNeighbors(int)
+   * @param minNeighbors
+   * @return
+   */
+  public static JsonObject mkFaceDetectorSetMinNeighborsCmd(int minNeighbors) {
+    return mkFaceDetectorCmd("setMinNeighbors", Integer.toString(minNeighbors));
+  }
+  
+  /**
+   * Make a command for FaceDetectorMXBean.setMinFaceSize(int)
+   * @param minFaceSize
+   * @return
+   */
+  public static JsonObject mkFaceDetectorSetMinFaceSizeCmd(int minFaceSize) {
+    return mkFaceDetectorCmd("setMinFaceSize", Integer.toString(minFaceSize));
+  }
+  
+  /**
+   * Make a command for FaceDetectorMXBean.setMaxFaceSize(int)
+   * @param maxFaceSize
+   * @return
+   */
+  public static JsonObject mkFaceDetectorSetMaxFaceSizeCmd(int maxFaceSize) {
+    return mkFaceDetectorCmd("setMaxFaceSize", Integer.toString(maxFaceSize));
+  }
+  
+  /**
+   * Make a command for FaceDetectorMXBean.setClassifier(String)
+   * @param path the classifier's path on the device
+   * @return
+   */
+  public static JsonObject mkFaceDetectorSetClassifierCmd(String path) {
+    return mkFaceDetectorCmd("setClassifier", path);
+  }
+  
+  /**
+   * Make a command for UplinkBudgetMXBean.setBudget(spec)
+   * @param spec - e.g., "faces:20000:5"
+   * @return
+   */
+  public static JsonObject mkSetUplinkBudgetCmd(String spec) {
+    return mkControlCmd(UplinkBudgetControl.CONTROL_TYPE, UplinkBudgetControl.ALIAS,
+        "setBudget", spec);
+  }
+  
+  /**
+   * Make a command for UplinkBudgetMXBean.clearBudget(eventId)
+   * @param eventId
+   * @return
+   */
+  public static JsonObject mkClearUplinkBudgetCmd(String eventId) {
+    return mkControlCmd(UplinkBudgetControl.CONTROL_TYPE, UplinkBudgetControl.ALIAS,
+        "clearBudget", eventId);
+  }
+  
+  /**
+   * Make a command for PipelineStatsMXBean.publishStats()
+   * @return
+   */
+  public static JsonObject mkPublishStatsCmd() {
+    return mkControlCmd(PipelineStatsControl.CONTROL_TYPE, PipelineStatsControl.ALIAS,
+        "publishStats");
+  }
+  
   private static JsonArray toJsonArray(String... strings) {
     JsonArray ja = new JsonArray();
     for (String s : strings)
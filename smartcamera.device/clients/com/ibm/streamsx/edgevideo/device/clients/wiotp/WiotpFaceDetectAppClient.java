@@ -23,14 +23,29 @@ import com.ibm.iotf.client.app.Command;
 import com.ibm.iotf.client.app.Event;
 import com.ibm.iotf.client.app.EventCallback;
 import com.ibm.streamsx.edgevideo.device.MyPanel;
+import com.ibm.streamsx.edgevideo.device.edgent.FaceCropCache;
+import com.ibm.streamsx.edgevideo.device.edgent.FaceEventBatch;
+import com.ibm.streamsx.edgevideo.device.edgent.FaceEventLatency;
+import com.ibm.streamsx.edgevideo.device.edgent.FaceMetaEvent;
+import com.ibm.streamsx.edgevideo.device.edgent.FaceStatsEvent;
+import com.ibm.streamsx.edgevideo.device.edgent.FrameEvent;
 import com.ibm.streamsx.edgevideo.device.edgent.JsonFaceEvent;
+import com.ibm.streamsx.edgevideo.device.edgent.PipelineStats;
 
 /**
  * An IBM Watson IoT Platform ApplicationClient that 
  * subscribes to device events for the EdgentFaceDetect device applications.
  * 
  * <p>The client application receives face-detect events and renders the
- * detected faces.
+ * detected faces.  The "faces" events, the
+ * {@link FaceEventBatch#EVENT_ID} events and the {@link FaceCropCache#CROP_EVENT_ID}
+ * events are rendered.  {@link FaceMetaEvent#EVENT_ID} events are summarized.
+ * {@link FrameEvent#EVENT_ID} full frames are rebuilt and rendered.
+ * {@link FaceStatsEvent#EVENT_ID} events are printed, as are the
+ * {@link PipelineStats#EVENT_ID} events.
+ * 
+ * <p>The capture to receive latencies of traced face events are reported
+ * periodically.  See {@link FaceEventLatency}.
  * 
  * <p>This connects to your IBM Watson IoT Platform service
  * as the Application defined in a application config file.
@@ -46,6 +61,9 @@ public class WiotpFaceDetectAppClient {
   private static final String usage = "[--deviceType=<type>] [--deviceId=<id>] <app-cfg-file-path> # see scripts/wiotp-app-client.cfg";
   
   protected static MyPanel detectedFacesPanel;  // panel for rendering the detected faces
+  protected static MyPanel framesPanel;  // panel for rendering the full frames. Created on the first.
+  protected static FrameEvent.Decoder frameDecoder = new FrameEvent.Decoder();
+  protected static FaceEventLatency faceEventLatency = new FaceEventLatency();
 
   public static void main(String[] args) throws Exception {
     if (args.length == 0)
@@ -113,8 +131,33 @@ public class WiotpFaceDetectAppClient {
 
         @Override
         public void processEvent(Event event) {
+          long receiveMillis = System.currentTimeMillis();
           if (event.getEvent().equals("faces")) {
-            handleFaceDetectEvent(event);
+            handleFaceDetectEvent(event, receiveMillis);
+          }
+          else if (event.getEvent().equals(FaceEventBatch.EVENT_ID)) {
+            handleFaceDetectBatchEvent(event, receiveMillis);
+          }
+          else if (event.getEvent().equals(FaceMetaEvent.EVENT_ID)) {
+            handleFaceMetaEvent(event);
+          }
+          else if (event.getEvent().equals(FaceCropCache.CROP_EVENT_ID)) {
+            handleFaceCropEvent(event);
+          }
+          else if (event.getEvent().equals(FaceStatsEvent.EVENT_ID)) {
+            @SuppressWarnings("deprecation")
+            JsonObject statsEvent = JsonFunctions.fromString().apply(event.getPayload());
+            handleFaceStatsEvent(statsEvent);
+          }
+          else if (event.getEvent().equals(PipelineStats.EVENT_ID)) {
+            @SuppressWarnings("deprecation")
+            JsonObject statsEvent = JsonFunctions.fromString().apply(event.getPayload());
+            handlePipelineStatsEvent(event.getDeviceType() + ":" + event.getDeviceId(), statsEvent);
+          }
+          else if (event.getEvent().equals(FrameEvent.EVENT_ID)) {
+            @SuppressWarnings("deprecation")
+            JsonObject frameEvent = JsonFunctions.fromString().apply(event.getPayload());
+            handleFrameEvent(frameEvent);
           }
           else {
             System.out.println(
@@ -131,13 +174,82 @@ public class WiotpFaceDetectAppClient {
     client.disconnect();
   }
   
-  private static void handleFaceDetectEvent(Event event) {
+  private static void handleFaceDetectEvent(Event event, long receiveMillis) {
     @SuppressWarnings("deprecation")
     JsonObject faceEvent = JsonFunctions.fromString().apply(event.getPayload());
+    String deviceId = event.getDeviceType() + ":" + event.getDeviceId();
     
     //System.out.println("Received face detection event: timestamp=" + JsonFaceEvent.getTimestamp(faceEvent));
     
+    boolean traced = faceEventLatency.record(deviceId, faceEvent, receiveMillis);
+    if (!JsonFaceEvent.hasFace(faceEvent)) {
+      // the device's uplink budget didn't permit the image
+      System.out.println("Received face metadata only event: timestamp=" + JsonFaceEvent.getTimestamp(faceEvent)
+          + " rect=" + faceEvent.get("rect"));
+      return;
+    }
     renderImage(JsonFaceEvent.getFace(faceEvent));
+    if (traced)
+      faceEventLatency.recordRendered(receiveMillis);
+  }
+  
+  private static void handleFaceDetectBatchEvent(Event event, long receiveMillis) {
+    @SuppressWarnings("deprecation")
+    JsonObject batch = JsonFunctions.fromString().apply(event.getPayload());
+    String deviceId = event.getDeviceType() + ":" + event.getDeviceId();
+    
+    //System.out.println("Received face detection batch event: count=" + batch.get("count"));
+    
+    for (JsonObject faceEvent : FaceEventBatch.getFaceEvents(batch)) {
+      boolean traced = faceEventLatency.record(deviceId, faceEvent, receiveMillis);
+      renderImage(JsonFaceEvent.getFace(faceEvent));
+      if (traced)
+        faceEventLatency.recordRendered(receiveMillis);
+    }
+  }
+  
+  private static void handleFaceMetaEvent(Event event) {
+    @SuppressWarnings("deprecation")
+    JsonObject metaEvent = JsonFunctions.fromString().apply(event.getPayload());
+    
+    System.out.println("Received face metadata event: timestamp=" + metaEvent.get("timestamp").getAsString()
+        + " faceIds=" + Arrays.toString(FaceMetaEvent.getIds(metaEvent)));
+  }
+  
+  private static void handleFaceCropEvent(Event event) {
+    @SuppressWarnings("deprecation")
+    JsonObject cropEvent = JsonFunctions.fromString().apply(event.getPayload());
+    
+    if (cropEvent.has("missing")) {
+      System.out.println("Face crop not available: id=" + cropEvent.get("id"));
+      return;
+    }
+    renderImage(JsonFaceEvent.getFace(cropEvent));
+  }
+  
+  private static void handleFaceStatsEvent(JsonObject statsEvent) {
+    System.out.println("Received face stats event: " + statsEvent);
+  }
+  
+  private static void handlePipelineStatsEvent(String deviceId, JsonObject statsEvent) {
+    System.out.println("Received pipeline stats event: deviceId=" + deviceId + " " + statsEvent);
+  }
+  
+  private static void handleFrameEvent(JsonObject frameEvent) {
+    Mat frame = frameDecoder.decode(frameEvent);
+    if (frame == null) {
+      // a delta whose keyframe wasn't received
+      System.out.println("Awaiting a keyframe. Skipped frame event: seq=" + frameEvent.get("seq"));
+      return;
+    }
+    if (framesPanel == null) {
+      framesPanel = MyPanel.newFramedPanel("WIoTP Frames", 50 + DETECTED_FACES_PANEL_WIDTH + 25, 100,
+          frame.width(), frame.height());
+    }
+    framesPanel.clear();
+    framesPanel.matToBufferedImage(frame);
+    framesPanel.repaint();
+    frame.release();
   }
   
   private static void renderImage(Mat face) {
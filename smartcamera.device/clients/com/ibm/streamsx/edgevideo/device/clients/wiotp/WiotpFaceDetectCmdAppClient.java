@@ -16,7 +16,12 @@ import org.apache.edgent.topology.TStream;
 
 import com.google.gson.JsonObject;
 import com.ibm.iotf.client.app.ApplicationClient;
+import com.ibm.streamsx.edgevideo.device.edgent.EdgentFaceDetectApp;
 import com.ibm.streamsx.edgevideo.device.edgent.EdgentFaceDetectIotProviderApp;
+import com.ibm.streamsx.edgevideo.device.edgent.FaceCropCache;
+import com.ibm.streamsx.edgevideo.device.edgent.FaceStatsEvent;
+import com.ibm.streamsx.edgevideo.device.edgent.FrameEvent;
+import com.ibm.streamsx.edgevideo.device.edgent.PipelineStats;
 
 /**
  * An IBM Watson IoT Platform ApplicationClient that 
@@ -33,7 +38,7 @@ import com.ibm.streamsx.edgevideo.device.edgent.EdgentFaceDetectIotProviderApp;
  */
 public class WiotpFaceDetectCmdAppClient {
   
-  private static final String usage = "[--deviceType=<type>] [--deviceId=<id>] {stopApp | startApp | setFps=fps | setPollMsec=msec | demoControlEcho=str | demoCmdEcho=str} <app-cfg-file-path> # see scripts/wiotp-app-client.cfg";
+  private static final String usage = "[--deviceType=<type>] [--deviceId=<id>] {stopApp | startApp [faceStats=windowMsec[:slideMsec]] [detectChannels=N] [stats=periodSec] | setFps=fps | setPollMsec=msec | setFramePeriodMsec=msec | setRegions=spec | clearRegions | setResize=N | setScaleFactor=F | setMinNeighbors=N | setMinFaceSize=N | setMaxFaceSize=N | setClassifier=path | setUplinkBudget=eventId:bytesPerSec[:msgsPerSec] | clearUplinkBudget=eventId | publishStats | getFaceCrops=id[,id...] | demoControlEcho=str | demoCmdEcho=str} <app-cfg-file-path> # see scripts/wiotp-app-client.cfg";
 
   private static ApplicationClient client;
   private static String iotpDevType;
@@ -49,6 +54,28 @@ public class WiotpFaceDetectCmdAppClient {
     List<String> argList = Arrays.asList(args);
     boolean stopApp = argList.contains("stopApp");
     boolean startApp = argList.contains("startApp");
+    JsonObject startAppConfig = new JsonObject();
+    for (String s : argList) {
+      if (s.startsWith("faceStats=")) {
+        String[] statsSpec = s.split("=")[1].split(":");
+        startAppConfig.addProperty(FaceStatsEvent.CONFIG_WINDOW_MSEC, Long.valueOf(statsSpec[0]));
+        startAppConfig.addProperty(FaceStatsEvent.CONFIG_SLIDE_MSEC,
+            statsSpec.length > 1 ? Long.valueOf(statsSpec[1]) : 0);
+        break;
+      }
+    }
+    for (String s : argList) {
+      if (s.startsWith("detectChannels=")) {
+        startAppConfig.addProperty(EdgentFaceDetectApp.CONFIG_DETECT_CHANNELS, Integer.valueOf(s.split("=")[1]));
+        break;
+      }
+    }
+    for (String s : argList) {
+      if (s.startsWith("stats=")) {
+        startAppConfig.addProperty(PipelineStats.CONFIG_PERIOD_SEC, Long.valueOf(s.split("=")[1]));
+        break;
+      }
+    }
     Integer setPollMsec = null;
     for (String s : argList) {
       if (s.startsWith("setFps")) {
@@ -63,6 +90,53 @@ public class WiotpFaceDetectCmdAppClient {
         break;
       }
     }
+    Integer setFramePeriodMsec = null;
+    for (String s : argList) {
+      if (s.startsWith("setFramePeriodMsec")) {
+        setFramePeriodMsec = Integer.valueOf(s.split("=")[1]);
+        break;
+      }
+    }
+    String setRegionsSpec = null;
+    for (String s : argList) {
+      if (s.startsWith("setRegions")) {
+        setRegionsSpec = s.split("=", 2)[1];  // the spec contains '='
+        break;
+      }
+    }
+    boolean clearRegions = argList.contains("clearRegions");
+    JsonObject faceDetectorCmd = null;
+    for (String s : argList) {
+      String value = s.contains("=") ? s.split("=", 2)[1] : null;
+      if (s.startsWith("setResize="))
+        faceDetectorCmd = EdgentControlCmds.mkFaceDetectorSetResizeFactorCmd(Integer.valueOf(value));
+      else if (s.startsWith("setScaleFactor="))
+        faceDetectorCmd = EdgentControlCmds.mkFaceDetectorSetScaleFactorCmd(Double.valueOf(value));
+      else if (s.startsWith("setMinNeighbors="))
+        faceDetectorCmd = EdgentControlCmds.mkFaceDetectorSetMinNeighborsCmd(Integer.valueOf(value));
+      else if (s.startsWith("setMinFaceSize="))
+        faceDetectorCmd = EdgentControlCmds.mkFaceDetectorSetMinFaceSizeCmd(Integer.valueOf(value));
+      else if (s.startsWith("setMaxFaceSize="))
+        faceDetectorCmd = EdgentControlCmds.mkFaceDetectorSetMaxFaceSizeCmd(Integer.valueOf(value));
+      else if (s.startsWith("setClassifier="))
+        faceDetectorCmd = EdgentControlCmds.mkFaceDetectorSetClassifierCmd(value);
+    }
+    JsonObject uplinkBudgetCmd = null;
+    for (String s : argList) {
+      String value = s.contains("=") ? s.split("=", 2)[1] : null;
+      if (s.startsWith("setUplinkBudget="))
+        uplinkBudgetCmd = EdgentControlCmds.mkSetUplinkBudgetCmd(value);
+      else if (s.startsWith("clearUplinkBudget="))
+        uplinkBudgetCmd = EdgentControlCmds.mkClearUplinkBudgetCmd(value);
+    }
+    boolean publishStats = argList.contains("publishStats");
+    long[] getFaceCropIds = null;
+    for (String s : argList) {
+      if (s.startsWith("getFaceCrops")) {
+        getFaceCropIds = Arrays.stream(s.split("=")[1].split(",")).mapToLong(Long::valueOf).toArray();
+        break;
+      }
+    }
     String demoControlEchoStr = null;
     for (String s : argList) {
       if (s.startsWith("demoControlEcho")) {
@@ -119,11 +193,33 @@ public class WiotpFaceDetectCmdAppClient {
       stopApp(faceDetectAppName);
     }
     else if (startApp) {
-      startApp(faceDetectAppName);
+      startApp(faceDetectAppName, startAppConfig);
     }
     else if (setPollMsec != null) {
       setStreamPollMsec(faceDetectSensorPollStreamAlias, setPollMsec);
     }
+    else if (setFramePeriodMsec != null) {
+      setStreamPollMsec(FrameEvent.STREAM_ALIAS, setFramePeriodMsec);
+    }
+    else if (setRegionsSpec != null) {
+      setDetectionRegions(setRegionsSpec);
+    }
+    else if (clearRegions) {
+      clearDetectionRegions();
+    }
+    else if (faceDetectorCmd != null) {
+      publishCmd(EDGENT_CONTROL_CMD_ID, faceDetectorCmd);
+    }
+    else if (uplinkBudgetCmd != null) {
+      publishCmd(EDGENT_CONTROL_CMD_ID, uplinkBudgetCmd);
+    }
+    else if (publishStats) {
+      // the device publishes a PipelineStats.EVENT_ID event. The app clients print it.
+      publishCmd(EDGENT_CONTROL_CMD_ID, EdgentControlCmds.mkPublishStatsCmd());
+    }
+    else if (getFaceCropIds != null) {
+      getFaceCrops(getFaceCropIds);
+    }
     else if (demoControlEchoStr != null) {
       demoControlEchoStr(demoControlEchoStr);
     }
@@ -144,8 +240,8 @@ public class WiotpFaceDetectCmdAppClient {
     publishCmd(EDGENT_CONTROL_CMD_ID, cmd);
   }
   
-  private static void startApp(String appName) {
-    JsonObject cmd = EdgentControlCmds.mkStartAppCmd(appName);
+  private static void startApp(String appName, JsonObject config) {
+    JsonObject cmd = EdgentControlCmds.mkStartAppCmd(appName, config);
     publishCmd(EDGENT_CONTROL_CMD_ID, cmd);
   }
   
@@ -155,6 +251,23 @@ public class WiotpFaceDetectCmdAppClient {
     publishCmd(EDGENT_CONTROL_CMD_ID, cmd);
   }
   
+  private static void setDetectionRegions(String spec) {
+    JsonObject cmd = EdgentControlCmds.mkSetDetectionRegionsCmd(spec);
+    publishCmd(EDGENT_CONTROL_CMD_ID, cmd);
+  }
+  
+  private static void clearDetectionRegions() {
+    JsonObject cmd = EdgentControlCmds.mkClearDetectionRegionsCmd();
+    publishCmd(EDGENT_CONTROL_CMD_ID, cmd);
+  }
+  
+  private static void getFaceCrops(long[] ids) {
+    // the device publishes a FaceCropCache.CROP_EVENT_ID event for each id.
+    // The app clients render them.
+    JsonObject cmd = FaceCropCache.mkCmdPayload(ids);
+    publishCmd(FaceCropCache.CMD_ID, cmd);
+  }
+  
   private static void demoControlEchoStr(String str) {
     JsonObject cmd = EdgentControlCmds.mkControlCmd(
         EdgentFaceDetectIotProviderApp.MyDemoControl.CONTROL_TYPE, "demoControl-1", "echo", str);
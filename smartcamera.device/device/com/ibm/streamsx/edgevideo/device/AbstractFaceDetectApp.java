@@ -5,9 +5,8 @@
 package com.ibm.streamsx.edgevideo.device;
 
 import java.io.File;
-import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Date;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 
@@ -27,7 +26,7 @@ import org.opencv.imgproc.Imgproc;
  * and call {@link #run(String[])}.
  * 
  * <p>Of particular interest to implementations will be the 
- * {@link #camera} and {@link #faceDetector} members created by this class,
+ * {@link #frameSource} and {@link #faceDetector} members created by this class,
  * as well as {@link #renderImages(Mat, MatOfRect, List)}.
  * 
  * <p>With appropriate setup, runs on OSX, Raspberry Pi, ...
@@ -38,6 +37,14 @@ import org.opencv.imgproc.Imgproc;
  * sudo modprobe bcm2835-v4l2
  * </pre>
  * 
+ * <p>The {@code --source} option replays frames from a video file,
+ * a directory of images, or a synthetic generator instead of using the camera.
+ * {@code --replay=asap} replays the frames as fast as they're polled,
+ * {@code --replay=recorded} (the default) paces them at their recorded timestamps.
+ * 
+ * <p>The {@code --regions} option limits detection to regions of interest
+ * and excludes masked areas.  See {@link DetectionRegions} for the file format.
+ * 
  * 20170502 - change default resize factor to 3
  * 20170502 - move edgent device app code into com.ibm.streamsx.edgevideo.device.edgent, remove Pipeline variant
  * 20170502 - add setFps=<fps> cmd to cmd clients
@@ -47,15 +54,13 @@ import org.opencv.imgproc.Imgproc;
  * 20170427 - Add camera FPS setting on Pi to avoid frame delay at tgt-FPS < 10.  See Camera.java
  * 
  * TODO - README.md in anticipation of addition to a github repo
- * TODO - Add optional controllable periodic publish of full image to a separate eventId
  * TODO - ability to specify initial poll rate as CLI arg, maybe also as startApp control cmd 
  * TODO - think about ApplicationClient being able to tell the stopped/started status of a topology
  */
 public abstract class AbstractFaceDetectApp {
 
-  protected static String usage = "[-h] [--fps=N | --pollMsec=N] [--resize=N]";
+  protected static String usage = "[-h] [--fps=N | --pollMsec=N] [--resize=N] [--tiles=<R>x<C>] [--motionGate] [--track=N] [--captureThread] [--detectThreads=N] [--regions=<file>] [--source={camera | video:<file> | images:<dir> | synthetic[:<W>x<H>]} [--replay={asap | recorded}] [--loop]]";
 
-  protected static SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
   private static String OPENCV_HOME_DEFAULT = "/usr/local/opt/opencv3/share/OpenCV";
   private static String HAARCASCADE_DIR_NAME = "haarcascades";
   private static String FACE_CLASSIFIER_NAME = "haarcascade_frontalface_alt.xml";
@@ -69,13 +74,27 @@ public abstract class AbstractFaceDetectApp {
   public static int DETECTED_FACES_PANEL_HEIGHT = 200;
   protected boolean renderDetections = false;  // include detectedFacesPanel?
   protected int resizeFactor = -1;
+  protected int tileRows = 1;  // >1 rows or cols for tiled detection
+  protected int tileCols = 1;
+  protected boolean useMotionGate = false;  // skip detection on static scenes
+  protected int trackDetectInterval = 0;  // >0 for detect-then-track
+  protected boolean useCaptureThread = false;  // see Camera.setCaptureThread()
+  protected int detectThreads = 1;  // >1 to use a FaceDetectorPool
+  protected String regionsFile;  // see DetectionRegions
+  protected String frameSourceSpec = "camera";
+  protected ReplayFrameSource.Mode replayMode = ReplayFrameSource.Mode.RECORDED;
+  protected boolean replayLoop = false;
+  public static double REPLAY_NOMINAL_FPS = 30.0;  // for images and synthetic sources
 
   protected long sensorPollValue = 1000/3;   // 3/sec
   protected TimeUnit sensorPollUnit = TimeUnit.MILLISECONDS;
 
   protected Stats stats;
-  protected Camera camera;
+  protected FrameSource frameSource;
+  protected Camera camera;  // null if frameSource isn't the camera
   protected FaceDetector faceDetector;
+  protected FaceDetectorPool faceDetectorPool;  // null unless detectThreads > 1
+  protected FaceTracker faceTracker;  // null unless tracking
 	
 	protected AbstractFaceDetectApp() {
 	  
@@ -95,21 +114,87 @@ public abstract class AbstractFaceDetectApp {
 
 	  initPanels();
         
-    camera = new Camera(getTgtFps());
+    frameSource = newFrameSource();
     faceDetector = new FaceDetector(new File(faceClassifierPath));
     if (resizeFactor >= 0) {
       faceDetector.setResizeFactor(resizeFactor);
     }
+    faceDetector.setTiling(tileRows, tileCols, FaceDetector.DEFAULT_TILE_OVERLAP);
+    if (trackDetectInterval > 0) {
+      faceTracker = new FaceTracker(faceDetector);
+      faceTracker.setDetectInterval(trackDetectInterval);
+    }
+    if (detectThreads > 1) {
+      FaceDetectorPool.configureThreads(detectThreads);
+      faceDetectorPool = new FaceDetectorPool(new File(faceClassifierPath), detectThreads);
+      if (resizeFactor >= 0) {
+        faceDetectorPool.setResizeFactor(resizeFactor);
+      }
+      faceDetectorPool.setTiling(tileRows, tileCols, FaceDetector.DEFAULT_TILE_OVERLAP);
+      FaceDetectorPool pool = faceDetectorPool;
+      Runtime.getRuntime().addShutdownHook(new Thread(() -> pool.close()));
+    }
+    if (regionsFile != null) {
+      setDetectionRegions(DetectionRegions.fromFile(new File(regionsFile)));
+    }
     stats = new Stats();
+    if (useMotionGate) {
+      if (faceDetectorPool != null) {
+        for (MotionGate gate : faceDetectorPool.enableMotionGates()) {
+          stats.addMotionGate(gate);
+        }
+      }
+      else {
+        MotionGate gate = new MotionGate();
+        faceDetector.setMotionGate(gate);
+        stats.addMotionGate(gate);
+      }
+    }
     
     stats.start();
     
     System.out.println(String.format("SensorPoll: %d %s (%.1f fps target)",
         sensorPollValue, sensorPollUnit.toString(), getTgtFps()));
+    System.out.println("FrameSource: " + frameSource);
     
     runFaceDetection();
 	}
 	
+	/**
+	 * Create the FrameSource specified by the {@code --source} option.
+	 * @return the FrameSource
+	 */
+	protected FrameSource newFrameSource() {
+	  String spec = frameSourceSpec;
+	  String type = spec.split(":", 2)[0];
+	  String value = spec.contains(":") ? spec.split(":", 2)[1] : null;
+	  ReplayFrameSource replaySource;
+	  switch (type) {
+	  case "camera":
+	    camera = new Camera(getTgtFps());
+	    camera.setCaptureThread(useCaptureThread);
+	    return camera;
+	  case "video":
+	    replaySource = new VideoFileFrameSource(new File(value), replayMode);
+	    break;
+	  case "images":
+	    replaySource = new ImageDirFrameSource(new File(value), replayMode, REPLAY_NOMINAL_FPS);
+	    break;
+	  case "synthetic":
+	    int width = 640, height = 480;
+	    if (value != null) {
+	      width = Integer.valueOf(value.split("x")[0]);
+	      height = Integer.valueOf(value.split("x")[1]);
+	    }
+	    replaySource = new SyntheticFrameSource(width, height, replayMode, REPLAY_NOMINAL_FPS);
+	    break;
+	  default:
+	    throw new IllegalArgumentException("Unsupported --source: " + spec);
+	  }
+	  replaySource.setLoop(replayLoop);
+	  return replaySource;
+	}
+	
 	/**
 	 * Do the continuous processing.
 	 * 
@@ -119,14 +204,65 @@ public abstract class AbstractFaceDetectApp {
 	 */
 	protected abstract void runFaceDetection() throws Exception;
   
+  /**
+   * Grab a frame from the {@link #frameSource}, timing it and counting
+   * the frames the source dropped.
+   * @return the frame. The source reuses it.
+   */
+  protected CapturedFrame grabFrame() {
+    stats.getFrame.markStart();
+    CapturedFrame frame = frameSource.grabFrame();
+    stats.getFrame.markEnd();
+    stats.countDroppedFrames(frame.droppedFrameCnt);
+    return frame;
+  }
+  
+  /**
+   * Detect faces in a frame using the {@link #faceTracker} if tracking,
+   * otherwise the {@link #faceDetector}.
+   * @param rawRgbFrame the frame to analyze
+   * @return {@link FacesData}
+   */
+  protected FacesData detectFaces(Mat rawRgbFrame) {
+    if (faceTracker != null) {
+      return faceTracker.detectFaces(rawRgbFrame);
+    }
+    return faceDetector.detectFaces(rawRgbFrame);
+  }
+  
+  /**
+   * Change the detection regions of the {@link #faceDetector}
+   * and the {@link #faceDetectorPool}.
+   * @param regions the regions. null to detect in the whole frame.
+   */
+  protected void setDetectionRegions(DetectionRegions regions) {
+    faceDetector.setDetectionRegions(regions);
+    if (faceDetectorPool != null) {
+      faceDetectorPool.setDetectionRegions(regions);
+    }
+    System.out.println("DetectionRegions: " + (regions == null ? "" : regions));
+  }
+  
+  /**
+   * Get all of the app's detectors: the {@link #faceDetector}
+   * and the {@link #faceDetectorPool}'s.
+   * @return the detectors
+   */
+  protected List<FaceDetector> getFaceDetectors() {
+    List<FaceDetector> detectors = new ArrayList<>();
+    detectors.add(faceDetector);
+    if (faceDetectorPool != null) {
+      detectors.addAll(faceDetectorPool.getDetectors());
+    }
+    return detectors;
+  }
+  
   protected double getTgtFps() {
     return (double)1000 / sensorPollUnit.toMillis(sensorPollValue);
   }
 	
 	protected String now() {
-	  synchronized(sdf) {
-	    return sdf.format(new Date(System.currentTimeMillis()));
-	  }
+	  return TimestampFormat.LOCAL.format(System.currentTimeMillis());
 	}
   
   protected void processArgs(String[] args) throws Exception {
@@ -134,6 +270,23 @@ public abstract class AbstractFaceDetectApp {
     if (argList.contains("-h") || argList.contains("--help"))
       throw new Exception("Usage: " + usage);
     
+    for (String s : argList) {
+      if (s.startsWith("--source=")) {
+        frameSourceSpec = s.split("=", 2)[1];
+      }
+    }
+    for (String s : argList) {
+      if (s.startsWith("--replay=")) {
+        replayMode = ReplayFrameSource.Mode.valueOf(s.split("=")[1].toUpperCase());
+        if (replayMode == ReplayFrameSource.Mode.ASAP) {
+          // default to polling as fast as possible too
+          sensorPollValue = 1;
+          sensorPollUnit = TimeUnit.MILLISECONDS;
+        }
+      }
+    }
+    replayLoop = argList.contains("--loop");
+    
     for (String arg : argList) {
       if (arg.startsWith("--fps=")) {
         int fps = Integer.valueOf(arg.split("=")[1]);
@@ -153,6 +306,34 @@ public abstract class AbstractFaceDetectApp {
         resizeFactor = Integer.valueOf(s.split("=")[1]);
       }
     }
+    for (String s : argList) {
+      if (s.startsWith("--tiles=")) {
+        String[] rowsCols = s.split("=")[1].split("x");
+        tileRows = Integer.valueOf(rowsCols[0]);
+        tileCols = Integer.valueOf(rowsCols[1]);
+      }
+    }
+    useCaptureThread = argList.contains("--captureThread");
+    useMotionGate = argList.contains("--motionGate");
+    for (String s : argList) {
+      if (s.startsWith("--detectThreads=")) {
+        detectThreads = Integer.valueOf(s.split("=")[1]);
+      }
+    }
+    for (String s : argList) {
+      if (s.startsWith("--regions=")) {
+        regionsFile = s.split("=", 2)[1];
+      }
+    }
+    for (String s : argList) {
+      if (s.startsWith("--track=")) {
+        trackDetectInterval = Integer.valueOf(s.split("=")[1]);
+      }
+    }
+    if (trackDetectInterval > 0 && detectThreads > 1) {
+      // tracking depends on the previous frame's results
+      throw new Exception("--track can't be combined with --detectThreads");
+    }
   }
   
   protected void initPanels() {
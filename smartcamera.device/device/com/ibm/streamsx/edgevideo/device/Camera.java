@@ -6,19 +6,42 @@ package com.ibm.streamsx.edgevideo.device;
 
 import static org.opencv.videoio.Videoio.CAP_PROP_FPS;
 
-import org.opencv.core.Mat;
 import org.opencv.videoio.VideoCapture;
 
 /**
  * An simple OpenCV based interface to a camera.
+ * 
+ * <p>By default {@link #grabFrame()} reads the device on the caller's thread.
+ * Optionally, see {@link #setCaptureThread(boolean)}, a dedicated thread
+ * continuously drains the device and {@code grabFrame()} returns
+ * the freshest frame without blocking.  That avoids the stale frames
+ * that otherwise accumulate in the driver's buffer when polling at
+ * a low rate (see {@code adjustFpsPi()}).
  */
-public class Camera {
+public class Camera implements FrameSource {
   private int cameraDeviceIndex = 0;
   private VideoCapture camera;
   private volatile boolean initialized;
   private double tgtFps = 0.0;
   private boolean adjustFpsEnabled = true;
   
+  // capture thread mode - a triple buffer of reusable frames.
+  // The capture thread only touches backFrame, grabFrame() only touches frontFrame,
+  // and they exchange frames with readyFrame under the lock.
+  private boolean captureThreadEnabled;
+  private volatile boolean capturing;
+  private Thread captureThread;
+  private final Object lock = new Object();
+  private CapturedFrame backFrame;
+  private CapturedFrame readyFrame;
+  private CapturedFrame frontFrame;
+  private boolean readyFrameFresh;
+  private long droppedSinceGrab;
+  private long droppedFrameCnt;
+  private long frameSeq;  // only touched by the reading thread
+  private final CapturedFrame noFrame = new CapturedFrame();
+  private CapturedFrame grabbedFrame;  // reused when the capture thread isn't enabled
+  
   public Camera() {
   }
   
@@ -28,17 +51,71 @@ public class Camera {
 
   /**
    * Grab a frame from the camera. Calls {@link #open()} if needed.
+   * 
+   * <p>When the capture thread is enabled this doesn't block.
+   * It returns the most recently captured frame or an empty frame if no
+   * frame has been captured since the previous call.
+   * 
+   * <p>The returned frame is reused and is only valid until the next call.
+   * 
    * @return the frame
    */
-  public Mat grabFrame() {
+  @Override
+  public CapturedFrame grabFrame() {
     if (!initialized) {
       open();
     }
-    Mat frame = new Mat();
-    camera.read(frame);
-    return frame;
+    if (captureThreadEnabled) {
+      synchronized(lock) {
+        if (!readyFrameFresh) {
+          return noFrame;
+        }
+        CapturedFrame frame = readyFrame;
+        readyFrame = frontFrame;
+        frontFrame = frame;
+        readyFrameFresh = false;
+        frontFrame.droppedFrameCnt = droppedSinceGrab;
+        droppedSinceGrab = 0;
+        return frontFrame;
+      }
+    }
+    if (grabbedFrame == null) {
+      grabbedFrame = NativeMats.track(new CapturedFrame());
+    }
+    synchronized(camera) {
+      camera.read(grabbedFrame);
+    }
+    grabbedFrame.captureTimestamp = System.currentTimeMillis();
+    grabbedFrame.frameSeq = ++frameSeq;
+    return grabbedFrame;
   }
   
+  /**
+   * Enable or disable the capture thread.  Must be called prior to {@link #open()}.
+   * @param enabled
+   * @return the prior setting
+   */
+  public boolean setCaptureThread(boolean enabled) {
+    if (initialized)
+      throw new IllegalStateException("Camera is already open");
+    boolean prev = this.captureThreadEnabled;
+    this.captureThreadEnabled = enabled;
+    return prev;
+  }
+  
+  /**
+   * Get the number of captured frames that were discarded because 
+   * a newer frame was captured before they were grabbed.
+   * Always 0 when the capture thread isn't enabled.
+   * @return the count
+   */
+  public long getDroppedFrameCnt() {
+    synchronized(lock) {
+      return droppedFrameCnt;
+    }
+  }
+  
+  @Override
   public void open() {
     if (initialized)
       return;
@@ -55,6 +132,74 @@ public class Camera {
     checkOpened();
     
     adjustForFps();
+    
+    if (captureThreadEnabled) {
+      startCaptureThread();
+    }
+  }
+  
+  private void startCaptureThread() {
+    backFrame = NativeMats.track(new CapturedFrame());
+    readyFrame = NativeMats.track(new CapturedFrame());
+    frontFrame = NativeMats.track(new CapturedFrame());
+    capturing = true;
+    captureThread = new Thread(() -> runCapture(), "Camera-capture");
+    captureThread.setDaemon(true);
+    captureThread.start();
+    System.out.println("Camera capture thread started");
+  }
+  
+  private void runCapture() {
+    while (capturing) {
+      boolean ok;
+      synchronized(camera) {
+        if (!capturing)
+          return;  // closed while waiting for the camera
+        ok = camera.read(backFrame);
+      }
+      if (!ok || backFrame.empty()) {
+        sleep(10);
+        continue;
+      }
+      backFrame.captureTimestamp = System.currentTimeMillis();
+      backFrame.frameSeq = ++frameSeq;
+      synchronized(lock) {
+        if (readyFrameFresh) {
+          droppedSinceGrab++;
+          droppedFrameCnt++;
+        }
+        CapturedFrame frame = readyFrame;
+        readyFrame = backFrame;
+        backFrame = frame;
+        readyFrameFresh = true;
+      }
+    }
+  }
+  
+  /**
+   * Wait for the capture thread to exit.  It must no longer be capturing and
+   * the camera must be released so a read can't block.
+   * @return false if interrupted before it exited
+   */
+  private boolean joinCaptureThread() {
+    if (captureThread != null) {
+      try {
+        captureThread.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return false;
+      }
+      captureThread = null;
+    }
+    return true;
+  }
+  
+  private static void sleep(int ms) {
+    try {
+      Thread.sleep(ms);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
   }
   
   private void checkOpened() {
@@ -77,9 +222,30 @@ public class Camera {
     }
   }
   
+  @Override
   public void close() {
-    if (camera != null)
-      camera.release();
+    capturing = false;
+    initialized = false;  // a later grabFrame() reopens
+    if (camera != null) {
+      synchronized(camera) {  // after an in progress read
+        camera.release();
+      }
+    }
+    boolean stopped = joinCaptureThread();
+    synchronized(lock) {
+      if (stopped) {
+        for (CapturedFrame frame : new CapturedFrame[] { backFrame, readyFrame, frontFrame }) {
+          NativeMats.release(frame);
+        }
+        backFrame = readyFrame = frontFrame = null;
+      }
+      else {
+        System.out.println("Camera capture thread didn't exit. Not releasing its frames.");
+      }
+      NativeMats.release(grabbedFrame);
+      grabbedFrame = null;
+      readyFrameFresh = false;
+    }
   }
   
   public void adjustForFps(double tgtFps) {
@@ -111,8 +277,11 @@ public class Camera {
     // e.g., if we initialize for 3fps and we later start polling
     // at 10fps w/o doing another adjustment, the camera will limit
     // us to that 3fps rate.
+    //
+    // With the capture thread the driver's buffer is continuously drained
+    // so the heuristic isn't needed (or wanted).
     
-    if (!adjustFpsEnabled || tgtFps >= 10.0) {
+    if (!adjustFpsEnabled || captureThreadEnabled || tgtFps >= 10.0) {
       setProp(CAP_PROP_FPS, 0); // use default
       System.out.println("Camera FPS reset to " + Math.round(getProp(CAP_PROP_FPS)));
     }
@@ -171,14 +340,25 @@ public class Camera {
   }
   
   public double setProp(int propId, double value) {
-    double was = camera.get(propId);
-    boolean b = camera.set(propId, value);
+    double was;
+    boolean b;
+    synchronized(camera) {
+      was = camera.get(propId);
+      b = camera.set(propId, value);
+    }
     System.out.println(String.format("Camera.setProp(%d, %.2f) (was %.2f) returned %b",
                        propId, value, was, b));
     return was;
   }
   
   public double getProp(int propId) {
-    return camera.get(propId);
+    synchronized(camera) {
+      return camera.get(propId);
+    }
+  }
+  
+  @Override
+  public String toString() {
+    return "camera:" + cameraDeviceIndex;
   }
 }
@@ -0,0 +1,45 @@
+/*
+# Licensed Materials - Property of IBM
+# Copyright IBM Corp. 2017
+ */
+package com.ibm.streamsx.edgevideo.device;
+
+import org.opencv.core.Mat;
+
+/**
+ * A frame grabbed from a {@link Camera}.
+ *
+ * <p>In addition to the frame's pixels, a CapturedFrame records when the
+ * frame was read from the device, its sequence number, and how many frames
+ * the device produced, but nobody grabbed, since the previously grabbed frame.
+ */
+public class CapturedFrame extends Mat {
+  public long captureTimestamp;  // System.currentTimeMillis() when read from the device
+  public long droppedFrameCnt;   // frames discarded since the previously grabbed frame
+  public long frameSeq;          // increases by 1 for each frame read from the device
+
+  public CapturedFrame() {
+    super();
+  }
+
+  /**
+   * Copy the frame, e.g., for another thread while the frame source reuses this one.
+   * @return the copy. Release it with {@link NativeMats#release(Mat)}.
+   */
+  public CapturedFrame copy() {
+    CapturedFrame copy = NativeMats.track(new CapturedFrame());
+    copyTo(copy);
+    copy.captureTimestamp = captureTimestamp;
+    copy.droppedFrameCnt = droppedFrameCnt;
+    copy.frameSeq = frameSeq;
+    return copy;
+  }
+
+  /**
+   * Get the age of the frame.
+   * @return msec since the frame was read from the device
+   */
+  public long getAgeMsec() {
+    return System.currentTimeMillis() - captureTimestamp;
+  }
+}
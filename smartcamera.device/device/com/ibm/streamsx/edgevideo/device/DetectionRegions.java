@@ -0,0 +1,248 @@
+/*
+# Licensed Materials - Property of IBM
+# Copyright IBM Corp. 2017
+ */
+package com.ibm.streamsx.edgevideo.device;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeSet;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * Regions of interest and exclusion masks limiting where faces are detected.
+ *
+ * <p>Shapes are rectangles or polygons in normalized frame coordinates
+ * (0.0 - 1.0) so they're independent of the camera resolution and
+ * the resize factor:
+ * <pre>
+ * rect:x,y,width,height
+ * poly:x1,y1 x2,y2 x3,y3 ...
+ * </pre>
+ *
+ * <p>A regions spec is a ';' separated list of {@code roi=<shape>}
+ * and {@code exclude=<shape>} entries.  A regions config file
+ * is a properties file with {@code roi.<name>=<shape>} and
+ * {@code exclude.<name>=<shape>} entries.  e.g.,
+ * <pre>
+ * roi.door=rect:0.30,0.10,0.40,0.80
+ * exclude.poster=poly:0.35,0.15 0.45,0.15 0.45,0.30 0.35,0.30
+ * </pre>
+ *
+ * <p>With no ROIs the whole frame, less the exclusions, is searched.
+ *
+ * <p>Instances are immutable, other than an internal cache, and thread-safe.
+ * The cache holds a mask for each frame size.  A mask is never released
+ * while the instance is in use, so another thread's different size -
+ * e.g., after a runtime resize factor change - can't free a mask in use.
+ */
+public class DetectionRegions {
+  private final List<double[]> rois;        // each: polygon x1,y1,x2,y2,...
+  private final List<double[]> exclusions;
+  private final String spec;
+  // guarded by cache. By frame size: width << 32 | height.
+  private final Map<Long,Regions> cache = new HashMap<>();
+
+  /** The mask and ROI rects for a frame size. Immutable. */
+  private static class Regions {
+    final Mat mask;
+    final List<Rect> roiRects;
+    Regions(Mat mask, List<Rect> roiRects) {
+      this.mask = mask;
+      this.roiRects = roiRects;
+    }
+  }
+
+  private DetectionRegions(List<double[]> rois, List<double[]> exclusions, String spec) {
+    this.rois = rois;
+    this.exclusions = exclusions;
+    this.spec = spec;
+  }
+
+  /**
+   * Create from a regions spec.
+   * @param spec e.g., {@code roi=rect:0.3,0.1,0.4,0.8;exclude=rect:0.8,0,0.2,0.3}
+   * @return the regions
+   */
+  public static DetectionRegions fromSpec(String spec) {
+    List<double[]> rois = new ArrayList<>();
+    List<double[]> exclusions = new ArrayList<>();
+    List<String> entries = new ArrayList<>();
+    for (String entry : spec.split(";")) {
+      entry = entry.trim();
+      if (entry.isEmpty())
+        continue;
+      String[] kindShape = entry.split("=", 2);
+      if (kindShape.length != 2)
+        throw new IllegalArgumentException("Malformed regions entry: " + entry);
+      String kind = kindShape[0].trim();
+      double[] polygon = parseShape(kindShape[1].trim());
+      if (kind.equals("roi"))
+        rois.add(polygon);
+      else if (kind.equals("exclude"))
+        exclusions.add(polygon);
+      else
+        throw new IllegalArgumentException("Unknown regions entry kind: " + entry);
+      entries.add(kind + "=" + kindShape[1].trim());
+    }
+    return new DetectionRegions(rois, exclusions, String.join(";", entries));
+  }
+
+  /**
+   * Create from a regions config file.
+   * @param file the properties file
+   * @return the regions
+   * @throws IOException
+   */
+  public static DetectionRegions fromFile(File file) throws IOException {
+    Properties props = new Properties();
+    try (Reader reader = new FileReader(file)) {
+      props.load(reader);
+    }
+    List<String> entries = new ArrayList<>();
+    for (String key : new TreeSet<>(props.stringPropertyNames())) {
+      String kind = key.split("\\.", 2)[0];
+      entries.add(kind + "=" + props.getProperty(key).trim());
+    }
+    return fromSpec(String.join(";", entries));
+  }
+
+  private static double[] parseShape(String shape) {
+    String[] typeCoords = shape.split(":", 2);
+    if (typeCoords.length != 2)
+      throw new IllegalArgumentException("Malformed shape: " + shape);
+    String[] values = typeCoords[1].trim().split("[\\s,]+");
+    double[] v = new double[values.length];
+    for (int i = 0; i < values.length; i++) {
+      v[i] = Double.valueOf(values[i]);
+    }
+    switch (typeCoords[0].trim()) {
+    case "rect":
+      if (v.length != 4)
+        throw new IllegalArgumentException("rect requires x,y,width,height: " + shape);
+      return new double[] { v[0], v[1], v[0] + v[2], v[1], v[0] + v[2], v[1] + v[3], v[0], v[1] + v[3] };
+    case "poly":
+      if (v.length < 6 || v.length % 2 != 0)
+        throw new IllegalArgumentException("poly requires at least 3 x,y points: " + shape);
+      return v;
+    default:
+      throw new IllegalArgumentException("Unknown shape type: " + shape);
+    }
+  }
+
+  public boolean hasRois() {
+    return !rois.isEmpty();
+  }
+
+  public boolean isEmpty() {
+    return rois.isEmpty() && exclusions.isEmpty();
+  }
+
+  /**
+   * Get the bounding rectangles of the ROIs.
+   * @param width frame width
+   * @param height frame height
+   * @return the rectangles in frame coordinates.  Empty if there are no ROIs.
+   */
+  public List<Rect> getRoiRects(int width, int height) {
+    return getRegions(width, height).roiRects;
+  }
+
+  /**
+   * Get the detection mask.
+   * @param width frame width
+   * @param height frame height
+   * @return a CV_8U mask, non-zero where faces may be detected. Must not be modified.
+   */
+  public Mat getMask(int width, int height) {
+    return getRegions(width, height).mask;
+  }
+
+  /**
+   * Zero the pixels of a grayscale frame that are outside of the ROIs
+   * or in an exclusion.
+   * @param grayFrame the frame to mask, modified in place
+   */
+  public void applyMask(Mat grayFrame) {
+    Mat mask = getMask(grayFrame.width(), grayFrame.height());
+    Core.bitwise_and(grayFrame, mask, grayFrame);
+  }
+
+  /**
+   * Test if a detection is in a permitted area.
+   * @param rect the detected face
+   * @param width frame width
+   * @param height frame height
+   * @return true if the center of {@code rect} is permitted
+   */
+  public boolean isPermitted(Rect rect, int width, int height) {
+    Mat mask = getMask(width, height);
+    int cx = Math.min(width - 1, rect.x + rect.width / 2);
+    int cy = Math.min(height - 1, rect.y + rect.height / 2);
+    double[] v = mask.get(cy, cx);
+    return v != null && v[0] != 0;
+  }
+
+  private Regions getRegions(int width, int height) {
+    Long key = (long) width << 32 | height;
+    synchronized(cache) {
+      Regions regions = cache.get(key);
+      if (regions == null) {
+        regions = newRegions(width, height);
+        cache.put(key, regions);
+      }
+      return regions;
+    }
+  }
+
+  private Regions newRegions(int width, int height) {
+    Mat mask = new Mat(height, width, CvType.CV_8UC1, new Scalar(rois.isEmpty() ? 255 : 0));
+    List<Rect> rects = new ArrayList<>();
+    Rect bounds = new Rect(0, 0, width, height);
+    for (double[] roi : rois) {
+      MatOfPoint points = toPoints(roi, width, height);
+      Imgproc.fillPoly(mask, Collections.singletonList(points), new Scalar(255));
+      rects.add(Rects.clip(Imgproc.boundingRect(points), bounds));
+      points.release();
+    }
+    for (double[] exclusion : exclusions) {
+      MatOfPoint points = toPoints(exclusion, width, height);
+      Imgproc.fillPoly(mask, Collections.singletonList(points), new Scalar(0));
+      points.release();
+    }
+    return new Regions(mask, Collections.unmodifiableList(rects));
+  }
+
+  private static MatOfPoint toPoints(double[] polygon, int width, int height) {
+    Point[] points = new Point[polygon.length / 2];
+    for (int i = 0; i < points.length; i++) {
+      points[i] = new Point(Math.round(polygon[2 * i] * width), Math.round(polygon[2 * i + 1] * height));
+    }
+    return new MatOfPoint(points);
+  }
+
+  /**
+   * @return the regions spec
+   */
+  @Override
+  public String toString() {
+    return spec;
+  }
+
+}
@@ -7,7 +7,14 @@ package com.ibm.streamsx.edgevideo.device;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Consumer;
 
 import org.opencv.core.Mat;
 import org.opencv.core.MatOfRect;
@@ -18,12 +25,76 @@ import org.opencv.objdetect.CascadeClassifier;
 
 /**
  * A simple OpenCV based Face Detector
+ * 
+ * <p>Optionally, see {@link #setTiling(int, int, double)}, face detection
+ * within a frame can be split into overlapping tiles that are processed
+ * in parallel.  That enables detecting at a lower resize factor
+ * (i.e., detecting smaller / more distant faces) while keeping
+ * the per-frame latency down.
+ * 
+ * <p>Optionally, see {@link #setMotionGate(MotionGate)}, detection
+ * is skipped for frames without motion and limited to the regions
+ * that changed for frames with motion.
+ * 
+ * <p>Optionally, see {@link #setDetectionRegions(DetectionRegions)}, detection
+ * is limited to regions of interest and excluded from masked areas.
+ * 
+ * <p>The cascade parameters and the classifier may be changed while
+ * detection is in progress.  Changes take effect with the next frame.
+ * 
+ * <p>The grayscale and other scratch buffers are reused for every frame
+ * of the same size, as are the resized frames once the {@link FacesData}
+ * holding them is {@link FacesData#close() closed}.  Hence an instance
+ * must not be used to detect faces in multiple frames concurrently.
  */
 public class FaceDetector {
-  private CascadeClassifier faceClassifier;
+  private volatile CascadeClassifier faceClassifier;
+  private volatile File faceClassifierPath;  // null if constructed with a CascadeClassifier
 //  public static int DEFAULT_RESIZE_FACTOR = 4; // my MBP sees ~7 images/sec with the /2 and 21 with the /4
   public static int DEFAULT_RESIZE_FACTOR = 3; // better with the 8MP Pi Camera V2
-  int resizeFactor = DEFAULT_RESIZE_FACTOR;
+  volatile int resizeFactor = DEFAULT_RESIZE_FACTOR;
+  
+  // detectMultiScale() parameters.  Face sizes are in resized frame pixels.
+  public static double DEFAULT_SCALE_FACTOR = 1.1;
+  public static int DEFAULT_MIN_NEIGHBORS = 3;
+  private volatile double scaleFactor = DEFAULT_SCALE_FACTOR;
+  private volatile int minNeighbors = DEFAULT_MIN_NEIGHBORS;
+  private volatile int minFaceSize = 0;  // 0 for no limit
+  private volatile int maxFaceSize = 0;  // 0 for no limit
+  
+  // tiled detection
+  public static double DEFAULT_TILE_OVERLAP = 0.25;
+  public static double TILE_NMS_MAX_OVERLAP = 0.5;
+  private static TilePool tilePool;  // shared by all instances. guarded by FaceDetector.class
+  private static int tileParallelism = Runtime.getRuntime().availableProcessors();
+  private static final int MAX_TILE_CLASSIFIERS_PER_THREAD = 2;
+  private int tileRows = 1;
+  private int tileCols = 1;
+  private double tileOverlap = DEFAULT_TILE_OVERLAP;
+  // CascadeClassifier isn't thread-safe.  Each tile worker thread gets its own,
+  // by classifier path, shared by all instances.  The least recently used are dropped.
+  private static final ThreadLocal<Map<File,CascadeClassifier>> tileClassifiers =
+      ThreadLocal.withInitial(() -> new LinkedHashMap<File,CascadeClassifier>(4, 0.75f, true) {
+          private static final long serialVersionUID = 1L;
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<File,CascadeClassifier> eldest) {
+            return size() > MAX_TILE_CLASSIFIERS_PER_THREAD;
+          }
+        });
+  
+  // motion gated detection
+  public static double MAX_REGIONS_AREA_FRACTION = 0.5;  // else just detect in the whole frame
+  private MotionGate motionGate;
+  
+  // regions of interest / exclusions
+  private volatile DetectionRegions detectionRegions;
+  
+  // reusable buffers
+  public static int MAX_FREE_FRAMES = 4;
+  private final Queue<Mat> freeFrames = new ConcurrentLinkedQueue<>();  // closed FacesData rgbFrames
+  final Consumer<Mat> rgbFrameRecycler = frame -> recycleFrame(frame);
+  private final Mat grayScratch = NativeMats.track(new Mat());
+  private final MatOfRect regionFacesScratch = NativeMats.track(new MatOfRect());
   
   /**
    * Create a new instance using the specified {@link CascadeClassifier}.
@@ -31,12 +102,7 @@ public class FaceDetector {
    * @throws IOException 
    */
   public FaceDetector(File faceClassifierPath) throws IOException {
-    CascadeClassifier faceClassifier = new CascadeClassifier();
-    boolean loaded = faceClassifier.load(faceClassifierPath.toString());
-    if (!loaded) {
-        throw new IOException("Error loading face classifier path: "+faceClassifierPath);
-    }
-    this.faceClassifier = faceClassifier;
+    setClassifier(faceClassifierPath);
   }
   
   /**
@@ -47,6 +113,26 @@ public class FaceDetector {
     this.faceClassifier = faceClassifier;
   }
   
+  /**
+   * Create a new instance with this one's classifier and settings,
+   * e.g., to detect in another thread.  The {@link MotionGate} isn't shared.
+   * @return the new detector
+   * @throws IOException
+   */
+  public FaceDetector copy() throws IOException {
+    if (faceClassifierPath == null)
+      throw new IllegalStateException("copy requires a FaceDetector created with a faceClassifierPath");
+    FaceDetector detector = new FaceDetector(faceClassifierPath);
+    detector.setResizeFactor(resizeFactor);
+    detector.setTiling(tileRows, tileCols, tileOverlap);
+    detector.setDetectionRegions(detectionRegions);
+    detector.setScaleFactor(scaleFactor);
+    detector.setMinNeighbors(minNeighbors);
+    detector.setMinFaceSize(minFaceSize);
+    detector.setMaxFaceSize(maxFaceSize);
+    return detector;
+  }
+  
   /**
    * Detect faces present in {@code rawRgbFrame}.
    * 
@@ -55,6 +141,14 @@ public class FaceDetector {
    * rawRgbFrame -> {@link #resize(Mat) resize} -> {@link #toGrayscale(Mat) toGrayscale} 
    *  -> {@link #detectFaceRects(Mat) detectFaceRects} -> {@link #extractFaces(Mat, MatOfRect) extractFaces}
    * 
+   * <p>With detection regions, the grayscale frame is masked and the
+   * search is limited to the regions of interest.  The results are
+   * in {@code rgbFrame} coordinates.
+   * 
+   * <p>With a motion gate, the gate is checked following the resize.
+   * If there's no motion the remaining steps are skipped and 
+   * {@code data.detectSkipped} is true.
+   * 
    * <p>The detection results are returned in a {@link FacesData}.
    * Specifically, {@code data.rgbFrame} contains the rgb frame from
    * which faces were detected, {@code data.faceRects} are rectangles
@@ -66,65 +160,546 @@ public class FaceDetector {
    */
   public FacesData detectFaces(Mat rawRgbFrame) {
     // rawRgbFrame -> resize -> toGrayscale -> detectFaceRects -> extractFaces
+    long startNanos = System.nanoTime();
     
     // resize
     Mat rgbFrame = resize(rawRgbFrame);
+    
+    FacesData data = detectFacesResized(rgbFrame);
+    data.detectNanos = System.nanoTime() - startNanos;
+    data.setCapturedFrame(rawRgbFrame);
+    return data;
+  }
+  
+  /**
+   * Like {@link #detectFaces(Mat)} for a frame that has already been resized.
+   * @param rgbFrame the frame to analyze, from {@link #resize(Mat)}.
+   *        It becomes {@code data.rgbFrame} and is reused once {@code data} is closed.
+   * @return {@link FacesData}
+   */
+  public FacesData detectFacesResized(Mat rgbFrame) {
+    
+    // motion gate
+    List<Rect> motionRegions = null;
+    if (motionGate != null) {
+      motionRegions = motionGate.check(rgbFrame);
+      if (motionRegions.isEmpty()) {
+        FacesData data = new FacesData(new ArrayList<>());
+        data.rgbFrame = rgbFrame;
+        data.rgbFrameRecycler = rgbFrameRecycler;
+        data.faceRects = NativeMats.track(new MatOfRect());
+        data.detectSkipped = true;
+        return data;
+      }
+    }
+    long detectStartNanos = System.nanoTime();
 
     // to grayscale
-    Mat grayFrame = toGrayscale(rgbFrame);
+    Mat grayFrame = toGrayscale(rgbFrame, grayScratch);
 
     // detect faces
-    MatOfRect faceRects = detectFaceRects(grayFrame);
+    DetectionRegions regions = detectionRegions;
+    List<Rect> searchRegions = motionRegions;
+    if (regions != null && regions.hasRois()) {
+      searchRegions = restrictToRois(searchRegions,
+          regions.getRoiRects(grayFrame.width(), grayFrame.height()));
+    }
+    MatOfRect faceRects = searchRegions == null
+        ? detectFaceRects(grayFrame) : detectFaceRects(grayFrame, searchRegions);
+    if (regions != null) {
+      faceRects = removeExcluded(faceRects, regions, rgbFrame.width(), rgbFrame.height());
+    }
 
     // extract faces
     List<Mat> faces = extractFaces(rgbFrame, faceRects);
     
     FacesData data = new FacesData(faces);
     data.rgbFrame = rgbFrame;
+    data.rgbFrameRecycler = rgbFrameRecycler;
     data.faceRects = faceRects;
     
+    if (motionGate != null) {
+      motionGate.recordDetectNanos(System.nanoTime() - detectStartNanos);
+    }
+    
     return data;
   }
   
+  /**
+   * Resize a frame by the resize factor.
+   * <p>The result is a recycled frame if one is available.
+   * @param frame
+   * @return the resized frame
+   */
   public Mat resize(Mat frame) {
-    Mat resized = new Mat();
+    Mat resized = freeFrames.poll();
+    if (resized == null) {
+      resized = NativeMats.track(new Mat());
+    }
     Imgproc.resize(frame, resized, 
         new Size(frame.width()/resizeFactor, frame.height()/resizeFactor));
     return resized;
   }
+  
+  private void recycleFrame(Mat frame) {
+    if (freeFrames.size() < MAX_FREE_FRAMES) {
+      freeFrames.offer(frame);
+    }
+    else {
+      NativeMats.release(frame);
+    }
+  }
 
+  /**
+   * Convert to an equalized grayscale frame.
+   * <p>With detection regions, the pixels outside of the ROIs
+   * and in the exclusions are zeroed.
+   * @param rgbFrame
+   * @return the grayscale frame
+   */
   public Mat toGrayscale(Mat rgbFrame) {
-    Mat grayFrame = new Mat();
+    return toGrayscale(rgbFrame, new Mat());
+  }
+  
+  /**
+   * Like {@link #toGrayscale(Mat)} but into this detector's scratch buffer.
+   * @param rgbFrame
+   * @return the grayscale frame. Only valid until the next call.
+   */
+  Mat toGrayscaleScratch(Mat rgbFrame) {
+    return toGrayscale(rgbFrame, grayScratch);
+  }
+  
+  private Mat toGrayscale(Mat rgbFrame, Mat grayFrame) {
     Imgproc.cvtColor(rgbFrame, grayFrame, Imgproc.COLOR_BGRA2GRAY);
     Imgproc.equalizeHist(grayFrame, grayFrame);
+    DetectionRegions regions = detectionRegions;
+    if (regions != null) {
+      regions.applyMask(grayFrame);
+    }
     return grayFrame;
   }
   
+  /** limit the (motion) search regions to the ROIs */
+  private static List<Rect> restrictToRois(List<Rect> searchRegions, List<Rect> roiRects) {
+    if (searchRegions == null) {
+      return roiRects;
+    }
+    List<Rect> restricted = new ArrayList<>();
+    for (Rect region : searchRegions) {
+      for (Rect roi : roiRects) {
+        Rect r = Rects.clip(region, roi);
+        if (r.width > 0 && r.height > 0)
+          restricted.add(r);
+      }
+    }
+    return restricted;
+  }
+  
+  /**
+   * Like the detections' exclusion in {@link #detectFaces(Mat)}, e.g., for a
+   * {@link FaceTracker}'s search around its tracks.
+   * @param faceRects rectangles in {@code rgbFrame} coordinates. Released if any are removed.
+   * @return the permitted faceRects
+   */
+  MatOfRect removeExcluded(MatOfRect faceRects, int width, int height) {
+    DetectionRegions regions = detectionRegions;
+    return regions == null ? faceRects : removeExcluded(faceRects, regions, width, height);
+  }
+  
+  /** drop detections centered in a masked area - e.g., straddling an exclusion boundary */
+  private static MatOfRect removeExcluded(MatOfRect faceRects, DetectionRegions regions, int width, int height) {
+    List<Rect> kept = new ArrayList<>();
+    Rect[] rects = faceRects.toArray();
+    for (Rect r : rects) {
+      if (regions.isPermitted(r, width, height))
+        kept.add(r);
+    }
+    if (kept.size() == rects.length)
+      return faceRects;
+    NativeMats.release(faceRects);
+    return NativeMats.track(new MatOfRect(kept.toArray(new Rect[kept.size()])));
+  }
+  
   public MatOfRect detectFaceRects(Mat frame) {
-    MatOfRect faces = new MatOfRect();
-    faceClassifier.detectMultiScale(frame, faces);
+    if (isTiling()) {
+      return detectFaceRectsTiled(frame);
+    }
+    MatOfRect faces = NativeMats.track(new MatOfRect());
+    detectMultiScale(faceClassifier, frame, faces);
     return faces;
   }
   
+  private void detectMultiScale(CascadeClassifier classifier, Mat frame, MatOfRect faces) {
+    int minFaceSize = this.minFaceSize;
+    int maxFaceSize = this.maxFaceSize;
+    classifier.detectMultiScale(frame, faces, scaleFactor, minNeighbors, 0,
+        new Size(minFaceSize, minFaceSize), new Size(maxFaceSize, maxFaceSize));
+  }
+  
+  /**
+   * Detect faces only within the specified regions of {@code frame}.
+   * 
+   * <p>If the regions cover a large part of the frame the whole
+   * frame is processed instead.
+   * 
+   * @param frame the grayscale frame
+   * @param regions regions of {@code frame}
+   * @return rectangles in {@code frame} bounding the detected faces
+   */
+  public MatOfRect detectFaceRects(Mat frame, List<Rect> regions) {
+    double regionsArea = 0;
+    for (Rect region : regions) {
+      regionsArea += region.area();
+    }
+    if (regionsArea >= MAX_REGIONS_AREA_FRACTION * frame.width() * frame.height()) {
+      return detectFaceRects(frame);
+    }
+    List<Rect> rects = new ArrayList<>();
+    for (Rect region : regions) {
+      rects.addAll(detectFaceRectsIn(frame, region));
+    }
+    List<Rect> merged = Rects.nonMaxSuppression(rects, TILE_NMS_MAX_OVERLAP);
+    return NativeMats.track(new MatOfRect(merged.toArray(new Rect[merged.size()])));
+  }
+  
+  /**
+   * Detect faces within a region of {@code frame}.
+   * @param frame the grayscale frame
+   * @param region region of {@code frame}
+   * @return rectangles in {@code frame} bounding the detected faces
+   */
+  public List<Rect> detectFaceRectsIn(Mat frame, Rect region) {
+    List<Rect> rects = new ArrayList<>();
+    if (region.width <= 0 || region.height <= 0)
+      return rects;
+    Mat regionFrame = frame.submat(region);  // a header, no copy
+    detectMultiScale(faceClassifier, regionFrame, regionFacesScratch);
+    for (Rect r : regionFacesScratch.toArray()) {
+      rects.add(Rects.offset(r, region.x, region.y));
+    }
+    regionFrame.release();
+    return rects;
+  }
+  
+  /**
+   * Detect faces in overlapping tiles of {@code frame} in parallel.
+   * 
+   * <p>The per-tile results are translated back to {@code frame} coordinates
+   * and merged with non-maximum suppression to eliminate the duplicates from
+   * the overlapping regions.
+   * 
+   * @param frame the grayscale frame
+   * @return rectangles in {@code frame} bounding the detected faces
+   */
+  public MatOfRect detectFaceRectsTiled(Mat frame) {
+    List<Rect> tiles = getTiles(frame.width(), frame.height());
+    TilePool pool = acquireTilePool();
+    List<Rect> rects;
+    try {
+      rects = pool.pool.invoke(new TileTask(frame, tiles, 0, tiles.size()));
+    }
+    finally {
+      releaseTilePool(pool);
+    }
+    List<Rect> merged = Rects.nonMaxSuppression(rects, TILE_NMS_MAX_OVERLAP);
+    return NativeMats.track(new MatOfRect(merged.toArray(new Rect[merged.size()])));
+  }
+  
+  /**
+   * Get the overlapping tiles covering a frame.
+   * @param width frame width
+   * @param height frame height
+   * @return the tiles
+   */
+  public List<Rect> getTiles(int width, int height) {
+    Rect bounds = new Rect(0, 0, width, height);
+    int tileWidth = (width + tileCols - 1) / tileCols;
+    int tileHeight = (height + tileRows - 1) / tileRows;
+    // overlap by enough to fully contain faces straddling a tile boundary
+    int margin = (int) Math.round(Math.min(tileWidth, tileHeight) * tileOverlap);
+    List<Rect> tiles = new ArrayList<>();
+    for (int row = 0; row < tileRows; row++) {
+      for (int col = 0; col < tileCols; col++) {
+        Rect tile = new Rect(col * tileWidth - margin, row * tileHeight - margin,
+            tileWidth + 2 * margin, tileHeight + 2 * margin);
+        tiles.add(Rects.clip(tile, bounds));
+      }
+    }
+    return tiles;
+  }
+  
+  /**
+   * A fork/join task that detects faces in a range of tiles.
+   */
+  private class TileTask extends RecursiveTask<List<Rect>> {
+    private static final long serialVersionUID = 1L;
+    private final Mat frame;
+    private final List<Rect> tiles;
+    private final int from;
+    private final int to;
+    
+    TileTask(Mat frame, List<Rect> tiles, int from, int to) {
+      this.frame = frame;
+      this.tiles = tiles;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    protected List<Rect> compute() {
+      if (to - from == 1) {
+        return detectInTile(frame, tiles.get(from));
+      }
+      int mid = (from + to) / 2;
+      TileTask left = new TileTask(frame, tiles, from, mid);
+      left.fork();
+      List<Rect> rects = new TileTask(frame, tiles, mid, to).compute();
+      rects.addAll(left.join());
+      return rects;
+    }
+  }
+  
+  private List<Rect> detectInTile(Mat frame, Rect tile) {
+    List<Rect> rects = new ArrayList<>();
+    if (tile.width <= 0 || tile.height <= 0) {
+      return rects;
+    }
+    Mat tileFrame = new Mat(frame, tile);
+    MatOfRect faces = new MatOfRect();
+    detectMultiScale(getTileClassifier(), tileFrame, faces);
+    for (Rect r : faces.toArray()) {
+      rects.add(Rects.offset(r, tile.x, tile.y));
+    }
+    faces.release();
+    tileFrame.release();
+    return rects;
+  }
+  
+  private CascadeClassifier getTileClassifier() {
+    File path = faceClassifierPath;
+    Map<File,CascadeClassifier> classifiers = tileClassifiers.get();
+    CascadeClassifier classifier = classifiers.get(path);
+    if (classifier == null) {
+      // first use by this thread, or the classifier was changed.
+      // A stale one is dropped, and its native memory freed, once unused.
+      classifier = new CascadeClassifier();
+      if (!classifier.load(path.toString())) {
+        throw new IllegalStateException("Error loading face classifier path: "+path);
+      }
+      classifiers.put(path, classifier);
+    }
+    return classifier;
+  }
+  
+  /**
+   * The tile ForkJoinPool and its users.  A pool replaced by
+   * {@link #setTileParallelism(int)} is shut down once its last user is done.
+   */
+  private static class TilePool {
+    final ForkJoinPool pool;
+    int users;
+    boolean retired;
+    
+    TilePool(int parallelism) {
+      pool = new ForkJoinPool(parallelism);
+    }
+  }
+  
+  private static synchronized TilePool acquireTilePool() {
+    if (tilePool == null) {
+      tilePool = new TilePool(tileParallelism);
+    }
+    tilePool.users++;
+    return tilePool;
+  }
+  
+  private static synchronized void releaseTilePool(TilePool pool) {
+    if (--pool.users == 0 && pool.retired) {
+      pool.pool.shutdown();
+    }
+  }
+  
+  /**
+   * Set the number of tiles, across all instances, detected concurrently.
+   * 
+   * <p>The default is the number of cores, for a single detector using
+   * all of them.  With concurrent detectors, e.g., a {@link FaceDetectorPool},
+   * use the detectors' share of the cores so tiling doesn't oversubscribe them.
+   * See {@link FaceDetectorPool#configureThreads(int)}.
+   * @param parallelism
+   */
+  public static synchronized void setTileParallelism(int parallelism) {
+    if (parallelism < 1)
+      throw new IllegalArgumentException("parallelism " + parallelism);
+    if (parallelism == tileParallelism)
+      return;
+    tileParallelism = parallelism;
+    if (tilePool != null) {
+      // the next detection gets a new pool. Current users finish with this one.
+      tilePool.retired = true;
+      if (tilePool.users == 0) {
+        tilePool.pool.shutdown();
+      }
+      tilePool = null;
+    }
+  }
+  
+  /**
+   * Enable or disable tiled detection.
+   * 
+   * <p>Tiled detection requires the FaceDetector be constructed 
+   * with a classifier path.
+   * 
+   * @param rows number of tile rows. 1 row and 1 col disables tiling.
+   * @param cols number of tile columns.
+   * @param overlap tile overlap as a fraction of the tile size - e.g., {@link #DEFAULT_TILE_OVERLAP}
+   */
+  public void setTiling(int rows, int cols, double overlap) {
+    if (rows < 1 || cols < 1 || overlap < 0.0)
+      throw new IllegalArgumentException(String.format("rows=%d cols=%d overlap=%.2f", rows, cols, overlap));
+    if ((rows > 1 || cols > 1) && faceClassifierPath == null)
+      throw new IllegalStateException("Tiling requires a FaceDetector created with a faceClassifierPath");
+    this.tileRows = rows;
+    this.tileCols = cols;
+    this.tileOverlap = overlap;
+  }
+  
+  public boolean isTiling() {
+    return tileRows > 1 || tileCols > 1;
+  }
+  
+  /**
+   * Set the motion gate.
+   * @param motionGate the gate. null to disable gating.
+   */
+  public void setMotionGate(MotionGate motionGate) {
+    this.motionGate = motionGate;
+  }
+  
+  public MotionGate getMotionGate() {
+    return motionGate;
+  }
+  
+  /**
+   * Set the detection regions.
+   * <p>May be changed while detection is in progress; it takes
+   * effect with the next frame.
+   * @param detectionRegions the regions. null to detect in the whole frame.
+   */
+  public void setDetectionRegions(DetectionRegions detectionRegions) {
+    this.detectionRegions = detectionRegions == null || detectionRegions.isEmpty()
+        ? null : detectionRegions;
+  }
+  
+  public DetectionRegions getDetectionRegions() {
+    return detectionRegions;
+  }
+  
   public List<Mat> extractFaces(Mat rgbFrame, MatOfRect faceRects) {
     List<Mat> faces = new ArrayList<>();
     for (Rect faceRect : faceRects.toArray()) {
       Mat rgbFaceFrame = new Mat(rgbFrame, faceRect);
-      rgbFaceFrame = rgbFaceFrame.clone(); // don't inherit subsequent changes to rgbFrame
-      faces.add(rgbFaceFrame);
+      faces.add(NativeMats.track(rgbFaceFrame.clone())); // don't inherit subsequent changes to rgbFrame
+      rgbFaceFrame.release();
     }
     return faces;
   }
   
+  /**
+   * Change the classifier.
+   * @param faceClassifierPath path to the classifier - e.g. haarcascade_frontalface_alt.xml
+   * @throws IOException if the classifier can't be loaded.  The current classifier is retained.
+   */
+  public void setClassifier(File faceClassifierPath) throws IOException {
+    CascadeClassifier faceClassifier = new CascadeClassifier();
+    boolean loaded = faceClassifier.load(faceClassifierPath.toString());
+    if (!loaded) {
+        throw new IOException("Error loading face classifier path: "+faceClassifierPath);
+    }
+    this.faceClassifier = faceClassifier;
+    this.faceClassifierPath = faceClassifierPath;
+  }
+  
+  public File getClassifierPath() {
+    return faceClassifierPath;
+  }
+  
+  /**
+   * Set the detectMultiScale() scale factor.
+   * <p>Smaller values detect more faces and are slower.
+   * @param scaleFactor &gt; 1.0 - e.g., {@link #DEFAULT_SCALE_FACTOR}
+   */
+  public void setScaleFactor(double scaleFactor) {
+    if (scaleFactor <= 1.0)
+      throw new IllegalArgumentException("scaleFactor " + scaleFactor);
+    this.scaleFactor = scaleFactor;
+  }
+  
+  public double getScaleFactor() {
+    return scaleFactor;
+  }
+  
+  /**
+   * Set the detectMultiScale() minNeighbors.
+   * <p>Larger values yield fewer false detections and miss more faces.
+   * @param minNeighbors &gt;= 0 - e.g., {@link #DEFAULT_MIN_NEIGHBORS}
+   */
+  public void setMinNeighbors(int minNeighbors) {
+    if (minNeighbors < 0)
+      throw new IllegalArgumentException("minNeighbors " + minNeighbors);
+    this.minNeighbors = minNeighbors;
+  }
+  
+  public int getMinNeighbors() {
+    return minNeighbors;
+  }
+  
+  /**
+   * Set the minimum size of a detected face.
+   * <p>Larger values are faster.
+   * @param minFaceSize in resized frame pixels.  0 for no limit.
+   */
+  public void setMinFaceSize(int minFaceSize) {
+    if (minFaceSize < 0)
+      throw new IllegalArgumentException("minFaceSize " + minFaceSize);
+    this.minFaceSize = minFaceSize;
+  }
+  
+  public int getMinFaceSize() {
+    return minFaceSize;
+  }
+  
+  /**
+   * Set the maximum size of a detected face.
+   * <p>Smaller values are faster.
+   * @param maxFaceSize in resized frame pixels.  0 for no limit.
+   */
+  public void setMaxFaceSize(int maxFaceSize) {
+    if (maxFaceSize < 0)
+      throw new IllegalArgumentException("maxFaceSize " + maxFaceSize);
+    this.maxFaceSize = maxFaceSize;
+  }
+  
+  public int getMaxFaceSize() {
+    return maxFaceSize;
+  }
+  
   /**
    * Change the resize factor.
    * @param resizeFactor
    * @return the prior resizeFactor
    */
   public int setResizeFactor(int resizeFactor) {
+    if (resizeFactor < 1)
+      throw new IllegalArgumentException("resizeFactor " + resizeFactor);
     int old = this.resizeFactor;
     this.resizeFactor = resizeFactor;
     return old;
   }
+  
+  public int getResizeFactor() {
+    return resizeFactor;
+  }
 
 }
@@ -0,0 +1,329 @@
+/*
+# Licensed Materials - Property of IBM
+# Copyright IBM Corp. 2017
+ */
+package com.ibm.streamsx.edgevideo.device;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+
+/**
+ * A pool of {@link FaceDetector} instances for detecting faces
+ * in consecutive frames in parallel.
+ *
+ * <p>An OpenCV {@code CascadeClassifier} isn't thread-safe so each
+ * worker thread gets its own FaceDetector, all loaded from the same
+ * classifier file.
+ *
+ * <p>Frames are {@link #submit(Mat) submitted} in capture order and the resulting
+ * {@link FacesData} are delivered to the {@link #setConsumer(Consumer) consumer},
+ * on the pool's release thread, in that same order.
+ * {@code submit()} blocks when too many frames are in progress.
+ *
+ * <p>See {@link #configureThreads(int)} for avoiding oversubscribing the cores.
+ * 
+ * <p>The consumer owns the delivered FacesData and should
+ * {@link FacesData#close() close} it when done with it.
+ * The results not yet delivered are closed when the pool is {@link #close() closed}.
+ */
+public class FaceDetectorPool implements AutoCloseable {
+  private final int workerCnt;
+  private final List<FaceDetector> detectors = new ArrayList<>();
+  private final BlockingQueue<FaceDetector> idleDetectors;
+  private final BlockingQueue<Future<FacesData>> inProgress;  // in submit order
+  private final ExecutorService workers;
+  private final Thread releaseThread;
+  private volatile Consumer<FacesData> consumer;
+  private volatile boolean closed;
+
+  /** a submitted frame's detection. The frame is released when it's done or cancelled. */
+  private static class DetectTask extends FutureTask<FacesData> {
+    final Mat frame;
+
+    DetectTask(Callable<FacesData> detect, Mat frame) {
+      super(detect);
+      this.frame = frame;
+    }
+  }
+
+  /**
+   * Create a new pool.
+   * @param faceClassifierPath path to the classifier - e.g. haarcascade_frontalface_alt.xml
+   * @param workerCnt number of worker threads and FaceDetectors
+   * @throws IOException
+   */
+  public FaceDetectorPool(File faceClassifierPath, int workerCnt) throws IOException {
+    if (workerCnt < 1)
+      throw new IllegalArgumentException("workerCnt " + workerCnt);
+    this.workerCnt = workerCnt;
+    idleDetectors = new ArrayBlockingQueue<>(workerCnt);
+    for (int i = 0; i < workerCnt; i++) {
+      FaceDetector detector = new FaceDetector(faceClassifierPath);
+      detectors.add(detector);
+      idleDetectors.add(detector);
+    }
+    inProgress = new ArrayBlockingQueue<>(2 * workerCnt);
+
+    AtomicInteger threadCnt = new AtomicInteger();
+    workers = Executors.newFixedThreadPool(workerCnt, runnable -> {
+      Thread t = new Thread(runnable, "FaceDetectorPool-worker-" + threadCnt.incrementAndGet());
+      t.setDaemon(true);
+      return t;
+    });
+
+    releaseThread = new Thread(() -> runRelease(), "FaceDetectorPool-release");
+    releaseThread.setDaemon(true);
+    releaseThread.start();
+  }
+
+  /**
+   * Configure OpenCV's own thread count so that it and {@code workerCnt}
+   * pool workers don't oversubscribe the available cores.
+   * The shared {@link FaceDetector#setTileParallelism(int) tile} parallelism
+   * gets the same budget.
+   * @param workerCnt number of pool workers
+   * @return the number of threads OpenCV may use per worker
+   */
+  public static int configureThreads(int workerCnt) {
+    int cores = Runtime.getRuntime().availableProcessors();
+    int opencvThreads = Math.max(1, cores / Math.max(1, workerCnt));
+    int tileThreads = Math.max(1, cores / opencvThreads);
+    Core.setNumThreads(opencvThreads);
+    FaceDetector.setTileParallelism(tileThreads);
+    System.out.println(String.format("FaceDetectorPool: cores=%d workers=%d opencvThreadsPerWorker=%d tileThreads=%d",
+        cores, workerCnt, opencvThreads, tileThreads));
+    return opencvThreads;
+  }
+
+  public int getWorkerCnt() {
+    return workerCnt;
+  }
+
+  /**
+   * Get the pool's detectors, e.g., to change their parameters.
+   * See {@link FaceDetector} for the settings that may be changed while
+   * detection is in progress.
+   * @return the detectors
+   */
+  public List<FaceDetector> getDetectors() {
+    return Collections.unmodifiableList(detectors);
+  }
+
+  /**
+   * Change the resize factor of all of the pool's detectors.
+   * @param resizeFactor
+   * @return the prior resizeFactor
+   */
+  public int setResizeFactor(int resizeFactor) {
+    int old = -1;
+    for (FaceDetector detector : detectors) {
+      old = detector.setResizeFactor(resizeFactor);
+    }
+    return old;
+  }
+
+  /**
+   * Change the tiling of all of the pool's detectors.
+   * See {@link FaceDetector#setTiling(int, int, double)}.
+   * @param rows
+   * @param cols
+   * @param overlap
+   */
+  public void setTiling(int rows, int cols, double overlap) {
+    for (FaceDetector detector : detectors) {
+      detector.setTiling(rows, cols, overlap);
+    }
+  }
+
+  /**
+   * Change the detection regions of all of the pool's detectors.
+   * See {@link FaceDetector#setDetectionRegions(DetectionRegions)}.
+   * @param detectionRegions
+   */
+  public void setDetectionRegions(DetectionRegions detectionRegions) {
+    for (FaceDetector detector : detectors) {
+      detector.setDetectionRegions(detectionRegions);
+    }
+  }
+
+  /**
+   * Give each of the pool's detectors its own {@link MotionGate}.
+   * @return the gates
+   */
+  public List<MotionGate> enableMotionGates() {
+    List<MotionGate> gates = new ArrayList<>();
+    for (FaceDetector detector : detectors) {
+      MotionGate gate = new MotionGate();
+      detector.setMotionGate(gate);
+      gates.add(gate);
+    }
+    return gates;
+  }
+
+  /**
+   * Set the consumer of the detection results.
+   *
+   * <p>Results that are ready before a consumer is set are discarded (closed).
+   * @param consumer the consumer. It owns the delivered FacesData.
+   */
+  public void setConsumer(Consumer<FacesData> consumer) {
+    this.consumer = consumer;
+  }
+
+  /**
+   * Submit a frame for face detection.
+   *
+   * <p>The frame is copied so the caller may reuse it upon return.
+   * Blocks while the maximum number of frames are already in progress.
+   *
+   * @param rawRgbFrame the frame to analyze
+   * @return false if the pool is closed or the caller was interrupted
+   */
+  public boolean submit(Mat rawRgbFrame) {
+    if (closed)
+      return false;
+    Mat frame = rawRgbFrame instanceof CapturedFrame
+        ? ((CapturedFrame) rawRgbFrame).copy() : NativeMats.track(rawRgbFrame.clone());
+    // set by the task or the abandoning submitter, whichever is first.
+    // The second one closes the result.
+    AtomicBoolean abandoned = new AtomicBoolean();
+    DetectTask result = new DetectTask(() -> {
+        FacesData facesData = detectFaces(frame);
+        if (abandoned.getAndSet(true)) {
+          facesData.close();
+          return null;
+        }
+        return facesData;
+      }, frame);
+    try {
+      workers.execute(result);
+    } catch (RejectedExecutionException e) {
+      NativeMats.release(frame);  // closed
+      return false;
+    }
+    try {
+      inProgress.put(result);
+      if (closed) {
+        closeInProgress();  // in case close() already drained it
+      }
+      return true;
+    } catch (InterruptedException e) {
+      if (result.cancel(false)) {
+        NativeMats.release(frame);  // the task never ran
+      }
+      else if (abandoned.getAndSet(true)) {
+        closeResult(result);  // the task completed first
+      }
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+  private static void closeResult(Future<FacesData> result) {
+    try {
+      FacesData facesData = result.get();
+      if (facesData != null)
+        facesData.close();
+    } catch (InterruptedException | ExecutionException | CancellationException e) {
+      // nothing to close
+    }
+  }
+
+  private void closeInProgress() {
+    Future<FacesData> result;
+    while ((result = inProgress.poll()) != null) {
+      closeResult(result);
+    }
+  }
+
+  private FacesData detectFaces(Mat frame) throws InterruptedException {
+    FaceDetector detector = null;
+    try {
+      detector = idleDetectors.take();
+      return detector.detectFaces(frame);
+    }
+    finally {
+      if (detector != null)
+        idleDetectors.add(detector);
+      NativeMats.release(frame);
+    }
+  }
+
+  private void runRelease() {
+    while (!closed) {
+      Future<FacesData> result;
+      try {
+        result = inProgress.take();
+      } catch (InterruptedException e) {
+        break;
+      }
+      FacesData facesData;
+      try {
+        facesData = result.get();
+      } catch (InterruptedException e) {
+        closeResult(result);  // once the worker is done with it
+        break;
+      } catch (CancellationException e) {
+        continue;  // closed before it ran
+      } catch (ExecutionException e) {
+        System.err.println("FaceDetectorPool: face detection failed: " + e.getCause());
+        continue;
+      }
+      Consumer<FacesData> consumer = this.consumer;
+      if (consumer == null) {
+        facesData.close();
+        continue;
+      }
+      try {
+        consumer.accept(facesData);
+      } catch (Exception e) {
+        facesData.close();
+        System.err.println("FaceDetectorPool: consumer failed: " + e);
+      }
+    }
+  }
+
+  /**
+   * Stop detecting.  The frames not yet detected are released and
+   * the results not yet delivered are closed.
+   */
+  @Override
+  public synchronized void close() {
+    if (closed)
+      return;
+    closed = true;
+    for (Runnable task : workers.shutdownNow()) {
+      DetectTask never = (DetectTask) task;
+      if (never.cancel(false)) {
+        NativeMats.release(never.frame);
+      }
+    }
+    releaseThread.interrupt();
+    try {
+      releaseThread.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    closeInProgress();
+  }
+
+}
@@ -0,0 +1,220 @@
+/*
+# Licensed Materials - Property of IBM
+# Copyright IBM Corp. 2017
+ */
+package com.ibm.streamsx.edgevideo.device;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfRect;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * A detect-then-track layer around a {@link FaceDetector}.
+ *
+ * <p>A full frame face detection is only performed every N frames,
+ * or sooner if cued by a scene change or a lost track.
+ * In between, the search is limited to enlarged windows around
+ * the previously found faces.
+ *
+ * <p>Each face is assigned a stable track id, see {@link FacesData#trackIds}.
+ *
+ * <p>Not thread-safe.  Frames must be supplied in capture order.
+ */
+public class FaceTracker {
+  public static int DEFAULT_DETECT_INTERVAL = 10;
+  private static int SCENE_WIDTH = 32;  // width of the scene change analysis frame
+  private final FaceDetector faceDetector;
+  private int detectInterval = DEFAULT_DETECT_INTERVAL;
+  private double searchWindowFactor = 2.0;  // search window size relative to the face
+  private double minMatchIou = 0.2;  // to continue a track
+  private int maxMisses = 2;  // consecutive frames a track may go unfound
+  private double sceneChangeThreshold = 20.0;  // mean gray level change
+  private final List<Track> tracks = new ArrayList<>();
+  private long nextTrackId = 1;
+  private int framesSinceDetect = Integer.MAX_VALUE;
+  private boolean cueDetect;
+  private final Mat sceneSmall = new Mat();
+  private final Mat sceneGray = new Mat();
+  private final Mat prevSceneGray = new Mat();
+  private final Mat sceneDiff = new Mat();
+  private long fullDetectCnt;
+  private long trackedCnt;
+
+  private static class Track {
+    final long id;
+    Rect rect;
+    int misses;
+
+    Track(long id, Rect rect) {
+      this.id = id;
+      this.rect = rect;
+    }
+  }
+
+  public FaceTracker(FaceDetector faceDetector) {
+    this.faceDetector = faceDetector;
+  }
+
+  /**
+   * Set the full detection interval.
+   * @param frames perform a full detection at least every {@code frames} frames.
+   */
+  public void setDetectInterval(int frames) {
+    if (frames < 1)
+      throw new IllegalArgumentException("frames " + frames);
+    this.detectInterval = frames;
+  }
+
+  /**
+   * Detect faces present in {@code rawRgbFrame}.
+   *
+   * <p>The result is the same as {@link FaceDetector#detectFaces(Mat)}
+   * plus {@code data.trackIds}.
+   *
+   * @param rawRgbFrame the frame to analyze
+   * @return {@link FacesData}
+   */
+  public FacesData detectFaces(Mat rawRgbFrame) {
+    long startNanos = System.nanoTime();
+    Mat rgbFrame = faceDetector.resize(rawRgbFrame);
+    boolean sceneChanged = isSceneChange(rgbFrame);
+
+    FacesData data;
+    if (sceneChanged || cueDetect || framesSinceDetect >= detectInterval - 1) {
+      data = fullDetect(rgbFrame);
+    }
+    else {
+      data = trackedDetect(rgbFrame);
+    }
+    data.detectNanos = System.nanoTime() - startNanos;
+    data.setCapturedFrame(rawRgbFrame);
+    return data;
+  }
+
+  private FacesData fullDetect(Mat rgbFrame) {
+    FacesData data = faceDetector.detectFacesResized(rgbFrame);
+    if (data.detectSkipped) {
+      // The motion gate found a still scene so there was no full detection
+      // to confirm or drop the tracks.  Look for them where they were.
+      searchTracks(data);
+      return data;
+    }
+    fullDetectCnt++;
+    framesSinceDetect = 0;
+    cueDetect = false;
+    data.trackIds = updateTracks(data.faceRects.toArray(), true);
+    return data;
+  }
+
+  private FacesData trackedDetect(Mat rgbFrame) {
+    FacesData data = new FacesData(new ArrayList<>());
+    data.rgbFrame = rgbFrame;
+    data.rgbFrameRecycler = faceDetector.rgbFrameRecycler;
+    searchTracks(data);
+    return data;
+  }
+
+  /**
+   * Search for the tracked faces in enlarged windows around their last
+   * locations in {@code data.rgbFrame}, setting {@code data}'s faces.
+   */
+  private void searchTracks(FacesData data) {
+    trackedCnt++;
+    framesSinceDetect++;
+    Mat rgbFrame = data.rgbFrame;
+    Rect bounds = new Rect(0, 0, rgbFrame.width(), rgbFrame.height());
+    List<Rect> found = new ArrayList<>();
+    if (!tracks.isEmpty()) {
+      Mat grayFrame = faceDetector.toGrayscaleScratch(rgbFrame);
+      for (Track track : tracks) {
+        Rect window = Rects.enlarge(track.rect, searchWindowFactor, bounds);
+        found.addAll(faceDetector.detectFaceRectsIn(grayFrame, window));
+      }
+      // neighboring windows can find the same face
+      found = Rects.nonMaxSuppression(found, FaceDetector.TILE_NMS_MAX_OVERLAP);
+    }
+    MatOfRect faceRects = NativeMats.track(new MatOfRect(found.toArray(new Rect[found.size()])));
+    faceRects = faceDetector.removeExcluded(faceRects, rgbFrame.width(), rgbFrame.height());
+
+    if (data.faceRects != null) {
+      NativeMats.release(data.faceRects);
+    }
+    data.faceRects = faceRects;
+    data.faces = faceDetector.extractFaces(rgbFrame, faceRects);
+    data.trackIds = updateTracks(faceRects.toArray(), false);
+  }
+
+  /**
+   * Match the detections to the existing tracks by IoU,
+   * start new tracks for the unmatched detections and age out lost tracks.
+   * @return the track ids parallel to {@code rects}
+   */
+  private List<Long> updateTracks(Rect[] rects, boolean fullDetect) {
+    List<Long> ids = new ArrayList<>();
+    List<Track> unmatched = new ArrayList<>(tracks);
+    for (Rect rect : rects) {
+      Track best = null;
+      double bestIou = minMatchIou;
+      for (Track track : unmatched) {
+        double iou = Rects.iou(rect, track.rect);
+        if (iou >= bestIou) {
+          best = track;
+          bestIou = iou;
+        }
+      }
+      if (best != null) {
+        unmatched.remove(best);
+        best.rect = rect;
+        best.misses = 0;
+      }
+      else {
+        best = new Track(nextTrackId++, rect);
+        tracks.add(best);
+      }
+      ids.add(best.id);
+    }
+    for (Iterator<Track> it = tracks.iterator(); it.hasNext(); ) {
+      Track track = it.next();
+      if (unmatched.contains(track)) {
+        track.misses++;
+        // a full detection is authoritative
+        if (fullDetect || track.misses > maxMisses) {
+          it.remove();
+          cueDetect |= !fullDetect;  // lost a track, look for it in the whole frame
+        }
+      }
+    }
+    return ids;
+  }
+
+  /** cheap scene change score: mean gray level change at a very low resolution */
+  private boolean isSceneChange(Mat rgbFrame) {
+    double scale = (double) SCENE_WIDTH / rgbFrame.width();
+    Imgproc.resize(rgbFrame, sceneSmall, new Size(SCENE_WIDTH, Math.max(1, Math.round(rgbFrame.height() * scale))),
+        0, 0, Imgproc.INTER_AREA);
+    Imgproc.cvtColor(sceneSmall, sceneGray, Imgproc.COLOR_BGR2GRAY);
+    boolean changed = true;
+    if (!prevSceneGray.empty() && prevSceneGray.size().equals(sceneGray.size())) {
+      Core.absdiff(sceneGray, prevSceneGray, sceneDiff);
+      changed = Core.mean(sceneDiff).val[0] > sceneChangeThreshold;
+    }
+    sceneGray.copyTo(prevSceneGray);
+    return changed;
+  }
+
+  public long getFullDetectCnt() {
+    return fullDetectCnt;
+  }
+
+  public long getTrackedCnt() {
+    return trackedCnt;
+  }
+
+}
@@ -5,6 +5,7 @@
 package com.ibm.streamsx.edgevideo.device;
 
 import java.util.List;
+import java.util.function.Consumer;
 
 import org.opencv.core.Mat;
 import org.opencv.core.MatOfRect;
@@ -13,14 +14,76 @@ import com.ibm.streamsx.edgevideo.device.wipRecognition.FaceRecognizer.Predictio
 
 /**
  * A class for holding face detection processing info.
+ *
+ * <p>{@link #close()} releases the native memory of the Mats once
+ * the last processing stage is done with them.  A stage on another thread
+ * {@link #retain() retains} the FacesData and closes it when it's done,
+ * so the Mats are released when the last reference is closed.
  */
-public class FacesData {
+public class FacesData implements AutoCloseable {
   public FacesData(List<Mat> faces) {
     this.faces = faces;
   }
-  public long timestamp = System.currentTimeMillis();
+  public long timestamp = System.currentTimeMillis();  // when detection completed
+  public long captureTimestamp;  // when the frame was captured. See CapturedFrame.
+  public long frameSeq;          // the frame's CapturedFrame.frameSeq. 0 if unknown.
   public Mat rgbFrame;         // frame to detect faces in
   public MatOfRect faceRects;  // rectangles in rgbFrame of detected faces
   public List<Mat> faces;      // individual cropped faces
   public List<Prediction> predictions; // WIP info parallel to faces
-}
\ No newline at end of file
+  public boolean detectSkipped;  // true if a MotionGate skipped detection
+  public List<Long> trackIds;  // FaceTracker track ids parallel to faces. null if not tracking.
+  public long detectNanos;     // time spent detecting, including resizing the frame
+  Consumer<Mat> rgbFrameRecycler;  // reuses rgbFrame instead of releasing it
+  private int refCnt = 1;
+  private boolean closed;
+
+  /**
+   * Note the capture time and sequence number of the frame the faces were detected in.
+   * @param rawRgbFrame the frame. If it isn't a CapturedFrame, the capture time is the detection time.
+   */
+  void setCapturedFrame(Mat rawRgbFrame) {
+    if (rawRgbFrame instanceof CapturedFrame) {
+      CapturedFrame frame = (CapturedFrame) rawRgbFrame;
+      captureTimestamp = frame.captureTimestamp;
+      frameSeq = frame.frameSeq;
+    }
+    else {
+      captureTimestamp = timestamp;
+    }
+  }
+
+  /**
+   * Add a reference.  Each reference is released by a {@link #close()}.
+   * @return this
+   */
+  public synchronized FacesData retain() {
+    if (closed)
+      throw new IllegalStateException("closed");
+    refCnt++;
+    return this;
+  }
+
+  /**
+   * Release a reference.  Once all are released, release rgbFrame, faceRects and faces.
+   * They must not be used afterwards.
+   */
+  @Override
+  public synchronized void close() {
+    if (closed || --refCnt > 0)
+      return;
+    closed = true;
+    if (rgbFrame != null) {
+      if (rgbFrameRecycler != null)
+        rgbFrameRecycler.accept(rgbFrame);
+      else
+        NativeMats.release(rgbFrame);
+    }
+    NativeMats.release(faceRects);
+    if (faces != null) {
+      for (Mat face : faces) {
+        NativeMats.release(face);
+      }
+    }
+  }
+}
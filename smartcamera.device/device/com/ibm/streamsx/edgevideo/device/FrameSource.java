@@ -0,0 +1,37 @@
+/*
+# Licensed Materials - Property of IBM
+# Copyright IBM Corp. 2017
+ */
+package com.ibm.streamsx.edgevideo.device;
+
+/**
+ * A source of frames to perform face detection on.
+ * 
+ * <p>{@link Camera} is the live source.  The {@link ReplayFrameSource}
+ * implementations supply recorded or generated frames, enabling the 
+ * processing pipeline to be run, and measured, without a camera.
+ */
+public interface FrameSource {
+  
+  /**
+   * Open the source.  {@link #grabFrame()} calls this if needed.
+   */
+  void open();
+  
+  /**
+   * Grab a frame.
+   * 
+   * <p>An empty frame is returned if no frame is currently available.
+   * The returned frame may be reused by the source and is only valid
+   * until the next call.
+   * 
+   * @return the frame
+   */
+  CapturedFrame grabFrame();
+  
+  /**
+   * Close the source.
+   */
+  void close();
+
+}
@@ -0,0 +1,87 @@
+/*
+# Licensed Materials - Property of IBM
+# Copyright IBM Corp. 2017
+ */
+package com.ibm.streamsx.edgevideo.device;
+
+import java.io.File;
+import java.util.Arrays;
+
+import org.opencv.core.Mat;
+import org.opencv.imgcodecs.Imgcodecs;
+
+/**
+ * A {@link FrameSource} that replays the image files in a directory.
+ * 
+ * <p>The images are replayed in file name order.
+ * Their recorded timestamps are at a nominal frames per second rate.
+ */
+public class ImageDirFrameSource extends ReplayFrameSource {
+  private static final String[] IMAGE_SUFFIXES = { ".jpg", ".jpeg", ".png", ".bmp", ".ppm", ".pgm", ".tif", ".tiff" };
+  private final File dir;
+  private final double fps;
+  private File[] imageFiles;
+  private int index;
+  
+  public ImageDirFrameSource(File dir, Mode mode, double fps) {
+    super(mode);
+    this.dir = dir;
+    this.fps = fps;
+  }
+
+  @Override
+  protected void openSequence() {
+    imageFiles = dir.listFiles(file -> isImageFile(file));
+    if (imageFiles == null || imageFiles.length == 0) {
+      throw new RuntimeException("No image files in directory: " + dir);
+    }
+    Arrays.sort(imageFiles);
+    index = 0;
+  }
+  
+  private static boolean isImageFile(File file) {
+    String name = file.getName().toLowerCase();
+    for (String suffix : IMAGE_SUFFIXES) {
+      if (name.endsWith(suffix))
+        return file.isFile();
+    }
+    return false;
+  }
+
+  @Override
+  protected boolean readFrame(Mat frame) {
+    while (index < imageFiles.length) {
+      File file = imageFiles[index++];
+      Mat image = Imgcodecs.imread(file.toString(), Imgcodecs.IMREAD_COLOR);
+      if (image.empty()) {
+        System.out.println("Skipping unreadable image file: " + file);
+        continue;
+      }
+      image.copyTo(frame);
+      image.release();
+      return true;
+    }
+    return false;
+  }
+
+  @Override
+  protected long getFrameOffsetMsec() {
+    return Math.round((index - 1) * 1000 / fps);
+  }
+
+  @Override
+  protected void rewind() {
+    index = 0;
+  }
+
+  @Override
+  protected void closeSequence() {
+    imageFiles = null;
+  }
+  
+  @Override
+  public String toString() {
+    return "images:" + dir;
+  }
+
+}
@@ -0,0 +1,154 @@
+/*
+# Licensed Materials - Property of IBM
+# Copyright IBM Corp. 2017
+ */
+package com.ibm.streamsx.edgevideo.device;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free, log-bucketed histogram of nanosecond latencies.
+ *
+ * <p>Like an HDR histogram, each power of 2 range is divided into
+ * {@value #SUB_BUCKETS} linear sub-buckets, so a recorded value is known
+ * to within 12.5% over the whole {@code long} range in under 500 buckets.
+ * {@link #record(long)} is a couple of atomic increments and may be
+ * called from any number of threads.
+ *
+ * <p>The counts are cumulative.  A {@link #snapshot()} is an immutable copy
+ * and the difference of two snapshots, see {@link Snapshot#minus(Snapshot)},
+ * covers the interval between them.
+ */
+public class LatencyHistogram {
+  private static final int SUB_BUCKET_BITS = 3;
+  static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+  private static final int BUCKET_CNT = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKET_CNT);
+  private final AtomicLong totalNanos = new AtomicLong();
+  private final AtomicLong maxNanos = new AtomicLong();
+
+  /**
+   * Record a latency.
+   * @param nanos the latency. Negative values are recorded as 0.
+   */
+  public void record(long nanos) {
+    if (nanos < 0)
+      nanos = 0;
+    counts.incrementAndGet(bucketIndex(nanos));
+    totalNanos.addAndGet(nanos);
+    long max;
+    while (nanos > (max = maxNanos.get()) && !maxNanos.compareAndSet(max, nanos))
+      ;
+  }
+
+  /** @return a copy of the counts so far */
+  public Snapshot snapshot() {
+    long[] copy = new long[BUCKET_CNT];
+    for (int i = 0; i < BUCKET_CNT; i++) {
+      copy[i] = counts.get(i);
+    }
+    return new Snapshot(copy, totalNanos.get(), maxNanos.get());
+  }
+
+  static int bucketIndex(long nanos) {
+    if (nanos < SUB_BUCKETS)
+      return (int) nanos;
+    int exp = 63 - Long.numberOfLeadingZeros(nanos);
+    int sub = (int) (nanos >>> (exp - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+    return (exp - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+  }
+
+  /** @return the largest value in the bucket */
+  static long bucketUpperBound(int index) {
+    if (index < SUB_BUCKETS)
+      return index;
+    int exp = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+    long sub = index % SUB_BUCKETS;
+    long lower = (SUB_BUCKETS + sub) << (exp - SUB_BUCKET_BITS);
+    return lower + (1L << (exp - SUB_BUCKET_BITS)) - 1;
+  }
+
+  /**
+   * An immutable copy of a histogram's counts.
+   */
+  public static class Snapshot {
+    private final long[] counts;
+    private final long count;
+    private final long totalNanos;
+    private final long maxNanos;
+
+    Snapshot(long[] counts, long totalNanos, long maxNanos) {
+      this.counts = counts;
+      long n = 0;
+      for (long c : counts) {
+        n += c;
+      }
+      this.count = n;
+      this.totalNanos = totalNanos;
+      this.maxNanos = maxNanos;
+    }
+
+    /**
+     * The values recorded since an earlier snapshot.
+     *
+     * <p>The interval's max is estimated from its highest bucket.
+     * @param earlier an earlier snapshot of the same histogram
+     * @return the interval's snapshot
+     */
+    public Snapshot minus(Snapshot earlier) {
+      long[] diff = new long[counts.length];
+      int highest = -1;
+      for (int i = 0; i < counts.length; i++) {
+        diff[i] = counts[i] - earlier.counts[i];
+        if (diff[i] > 0)
+          highest = i;
+      }
+      long max = highest < 0 ? 0 : Math.min(maxNanos, bucketUpperBound(highest));
+      return new Snapshot(diff, totalNanos - earlier.totalNanos, max);
+    }
+
+    /** @return the number of recorded values */
+    public long getCount() {
+      return count;
+    }
+
+    /** @return the largest recorded value */
+    public long getMaxNanos() {
+      return maxNanos;
+    }
+
+    /** @return the mean recorded value. 0 if none. */
+    public long getMeanNanos() {
+      return count == 0 ? 0 : totalNanos / count;
+    }
+
+    /**
+     * @param percentile 0.0 - 100.0
+     * @return the value that percentile of the recorded values are at or below,
+     *    to the histogram's precision, capped at the max. 0 if none.
+     */
+    public long getPercentileNanos(double percentile) {
+      if (count == 0)
+        return 0;
+      long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * count));
+      long seen = 0;
+      for (int i = 0; i < counts.length; i++) {
+        seen += counts[i];
+        if (seen >= rank)
+          return Math.min(maxNanos, bucketUpperBound(i));
+      }
+      return maxNanos;
+    }
+
+    /** @return count and p50/p95/p99/max msec */
+    @Override
+    public String toString() {
+      return String.format("n: %d p50: %.1f p95: %.1f p99: %.1f max: %.1f",
+          count, getPercentileNanos(50) / 1e6, getPercentileNanos(95) / 1e6,
+          getPercentileNanos(99) / 1e6, maxNanos / 1e6);
+    }
+  }
+
+}
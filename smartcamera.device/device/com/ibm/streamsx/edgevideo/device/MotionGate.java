@@ -0,0 +1,194 @@
+/*
+# Licensed Materials - Property of IBM
+# Copyright IBM Corp. 2017
+ */
+package com.ibm.streamsx.edgevideo.device;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.MatOfPoint;
+import org.opencv.core.Rect;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * A cheap motion detector for gating face detection.
+ *
+ * <p>Each frame is compared, at a very low resolution, to a running
+ * background.  If nothing has changed the (expensive) face detection
+ * can be skipped entirely.  Otherwise the bounding regions of the changes
+ * are returned so detection can be limited to them.
+ *
+ * <p>N.B. a face that stays perfectly still eventually becomes part of
+ * the background.  {@link #setLearningRate(double)} controls how quickly.
+ *
+ * <p>Not thread-safe, other than the counters.
+ */
+public class MotionGate {
+  public static int DEFAULT_GATE_WIDTH = 80;  // width of the analysis frame
+  private int gateWidth = DEFAULT_GATE_WIDTH;
+  private double learningRate = 0.05;  // background update weight
+  private double pixelThreshold = 25;  // gray level change to count a pixel as changed
+  private double minChangedFraction = 0.002;  // fraction of changed pixels to count as motion
+  private double regionMargin = 0.5;  // grow regions by this fraction to encompass whole faces
+
+  // scratch Mats - reused for frames of the same size
+  private final Mat small = new Mat();
+  private final Mat gray = new Mat();
+  private final Mat background = new Mat();  // CV_32F running average
+  private final Mat background8u = new Mat();
+  private final Mat diff = new Mat();
+  private final Mat mask = new Mat();
+  private final Mat hierarchy = new Mat();
+  private final Mat kernel = Imgproc.getStructuringElement(Imgproc.MORPH_RECT, new Size(3, 3));
+
+  private final AtomicLong checkedCnt = new AtomicLong();
+  private final AtomicLong skippedCnt = new AtomicLong();
+  private final AtomicLong gateNanos = new AtomicLong();  // time spent in check()
+  private final AtomicLong detectedCnt = new AtomicLong();
+  private final AtomicLong detectNanos = new AtomicLong();  // time spent detecting gated-through frames
+
+  /**
+   * Check a frame for motion.
+   * @param rgbFrame the frame
+   * @return bounding regions, in {@code rgbFrame} coordinates, of the changes.
+   *         Empty if there was no motion.
+   */
+  public List<Rect> check(Mat rgbFrame) {
+    long startNanos = System.nanoTime();
+    checkedCnt.incrementAndGet();
+    List<Rect> regions = new ArrayList<>();
+    Rect frameBounds = new Rect(0, 0, rgbFrame.width(), rgbFrame.height());
+
+    double scale = (double) Math.min(gateWidth, rgbFrame.width()) / rgbFrame.width();
+    Imgproc.resize(rgbFrame, small, new Size(Math.round(rgbFrame.width() * scale), Math.round(rgbFrame.height() * scale)),
+        0, 0, Imgproc.INTER_AREA);
+    Imgproc.cvtColor(small, gray, Imgproc.COLOR_BGR2GRAY);
+    Imgproc.GaussianBlur(gray, gray, new Size(5, 5), 0);
+
+    if (background.empty() || background.width() != gray.width() || background.height() != gray.height()) {
+      // first frame, or the frame size changed
+      gray.convertTo(background, CvType.CV_32F);
+      regions.add(frameBounds);
+      gateNanos.addAndGet(System.nanoTime() - startNanos);
+      return regions;
+    }
+
+    background.convertTo(background8u, CvType.CV_8U);
+    Core.absdiff(gray, background8u, diff);
+    Imgproc.threshold(diff, mask, pixelThreshold, 255, Imgproc.THRESH_BINARY);
+    Imgproc.accumulateWeighted(gray, background, learningRate);
+
+    int changed = Core.countNonZero(mask);
+    if (changed < minChangedFraction * mask.total()) {
+      skippedCnt.incrementAndGet();
+      gateNanos.addAndGet(System.nanoTime() - startNanos);
+      return regions;
+    }
+
+    Imgproc.dilate(mask, mask, kernel);
+    List<MatOfPoint> contours = new ArrayList<>();
+    Imgproc.findContours(mask, contours, hierarchy, Imgproc.RETR_EXTERNAL, Imgproc.CHAIN_APPROX_SIMPLE);
+    List<Rect> changedRects = new ArrayList<>();
+    for (MatOfPoint contour : contours) {
+      Rect r = Rects.scale(Imgproc.boundingRect(contour), 1.0 / scale);
+      changedRects.add(Rects.enlarge(r, 1.0 + 2 * regionMargin, frameBounds));
+      contour.release();
+    }
+    regions.addAll(merge(changedRects));
+    gateNanos.addAndGet(System.nanoTime() - startNanos);
+    return regions;
+  }
+
+  /** merge intersecting regions so faces aren't split across them */
+  private static List<Rect> merge(List<Rect> rects) {
+    List<Rect> merged = new ArrayList<>(rects);
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      outer:
+      for (int i = 0; i < merged.size(); i++) {
+        for (int j = i + 1; j < merged.size(); j++) {
+          Rect a = merged.get(i), b = merged.get(j);
+          if (Rects.intersectionArea(a, b) > 0) {
+            int x0 = Math.min(a.x, b.x), y0 = Math.min(a.y, b.y);
+            int x1 = Math.max(a.x + a.width, b.x + b.width), y1 = Math.max(a.y + a.height, b.y + b.height);
+            merged.set(i, new Rect(x0, y0, x1 - x0, y1 - y0));
+            merged.remove(j);
+            changed = true;
+            break outer;
+          }
+        }
+      }
+    }
+    return merged;
+  }
+
+  /**
+   * Record the time spent detecting faces in a frame that passed the gate.
+   * Used to estimate the time saved by skipping frames.
+   * @param nanos
+   */
+  public void recordDetectNanos(long nanos) {
+    detectedCnt.incrementAndGet();
+    detectNanos.addAndGet(nanos);
+  }
+
+  public long getCheckedCnt() {
+    return checkedCnt.get();
+  }
+
+  public long getSkippedCnt() {
+    return skippedCnt.get();
+  }
+
+  public long getGateNanos() {
+    return gateNanos.get();
+  }
+
+  public long getDetectedCnt() {
+    return detectedCnt.get();
+  }
+
+  public long getDetectNanos() {
+    return detectNanos.get();
+  }
+
+  /**
+   * Set the background learning rate.
+   * @param learningRate 0.0 to 1.0.  Higher adapts to changes more quickly.
+   */
+  public void setLearningRate(double learningRate) {
+    this.learningRate = learningRate;
+  }
+
+  /**
+   * Set the per-pixel change threshold.
+   * @param pixelThreshold gray level difference, 0-255
+   */
+  public void setPixelThreshold(double pixelThreshold) {
+    this.pixelThreshold = pixelThreshold;
+  }
+
+  /**
+   * Set the fraction of changed pixels needed to count as motion.
+   * @param minChangedFraction 0.0 to 1.0
+   */
+  public void setMinChangedFraction(double minChangedFraction) {
+    this.minChangedFraction = minChangedFraction;
+  }
+
+  /**
+   * Set the width of the low resolution frame used for the comparison.
+   * @param gateWidth pixels
+   */
+  public void setGateWidth(int gateWidth) {
+    this.gateWidth = gateWidth;
+  }
+
+}
@@ -0,0 +1,64 @@
+/*
+# Licensed Materials - Property of IBM
+# Copyright IBM Corp. 2017
+ */
+package com.ibm.streamsx.edgevideo.device;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opencv.core.Mat;
+
+/**
+ * Accounting for the native memory held by the processing path's Mats.
+ *
+ * <p>A Mat's native memory is otherwise only reclaimed when its
+ * Java finalizer runs.  The processing path {@link #track(Mat) tracks}
+ * the Mats it allocates and {@link #release(Mat) releases} them
+ * as soon as they're no longer needed, e.g., via {@link FacesData#close()}.
+ * A steady {@link #getLiveCnt() live count} under sustained load
+ * confirms that nothing is being left to the finalizers.
+ */
+public class NativeMats {
+  private static final AtomicLong liveCnt = new AtomicLong();
+  private static final AtomicLong allocatedCnt = new AtomicLong();
+
+  private NativeMats() {
+  }
+
+  /**
+   * Count a newly allocated Mat as live.
+   * @param mat the Mat
+   * @return {@code mat}
+   */
+  public static <T extends Mat> T track(T mat) {
+    liveCnt.incrementAndGet();
+    allocatedCnt.incrementAndGet();
+    return mat;
+  }
+
+  /**
+   * Release a {@link #track(Mat) tracked} Mat's native memory.
+   * @param mat the Mat. May be null.
+   */
+  public static void release(Mat mat) {
+    if (mat != null) {
+      mat.release();
+      liveCnt.decrementAndGet();
+    }
+  }
+
+  /**
+   * @return the number of tracked Mats that haven't been released
+   */
+  public static long getLiveCnt() {
+    return liveCnt.get();
+  }
+
+  /**
+   * @return the number of Mats that have been tracked
+   */
+  public static long getAllocatedCnt() {
+    return allocatedCnt.get();
+  }
+
+}
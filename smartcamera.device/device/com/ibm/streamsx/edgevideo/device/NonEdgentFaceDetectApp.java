@@ -43,18 +43,21 @@ public class NonEdgentFaceDetectApp extends AbstractFaceDetectApp {
 	@Override
 	protected void runFaceDetection() throws Exception {
 	  
+	  if (faceDetectorPool != null) {
+	    runPooledFaceDetection();
+	    return;
+	  }
+	  
     while (true) {
       
       // Grab a frame
-      stats.getFrame.markStart();
-      Mat rawRgbFrame = camera.grabFrame();
-      stats.getFrame.markEnd();
+      Mat rawRgbFrame = grabFrame();
       
       // Process it
       if (!rawRgbFrame.empty()) {
         
         stats.imgProcess.markStart();
-        FacesData facesData = faceDetector.detectFaces(rawRgbFrame);
+        FacesData facesData = detectFaces(rawRgbFrame);
         stats.imgProcess.markEnd();
     
         //System.out.println(now()+" - Detected faces : "+data.faces.size());
@@ -65,6 +68,8 @@ public class NonEdgentFaceDetectApp extends AbstractFaceDetectApp {
         stats.render.markEnd();
         
         // Note: lacks publish data to Enterprise IoT hub
+        
+        facesData.close();
       }
       
       stats.reportFrameProcessed();
@@ -74,6 +79,41 @@ public class NonEdgentFaceDetectApp extends AbstractFaceDetectApp {
       Thread.sleep(TimeUnit.MILLISECONDS.convert(sensorPollValue, sensorPollUnit));
     }
     
+  }
+	
+	/**
+	 * Like {@link #runFaceDetection()} but with the face detection
+	 * of consecutive frames done in parallel by the {@link FaceDetectorPool}.
+	 * The detection results are rendered, in frame order,
+	 * on the pool's release thread.
+	 * @throws Exception
+	 */
+	protected void runPooledFaceDetection() throws Exception {
+	  
+	  faceDetectorPool.setConsumer(facesData -> {
+        // render images
+        stats.render.markStart();
+        renderImages(facesData);
+        stats.render.markEnd();
+        
+        facesData.close();
+        
+        stats.reportFrameProcessed();
+	    });
+	  
+    while (true) {
+      
+      // Grab a frame
+      Mat rawRgbFrame = grabFrame();
+      
+      // Hand it off for processing
+      if (!rawRgbFrame.empty()) {
+        faceDetectorPool.submit(rawRgbFrame);
+      }
+      
+      Thread.sleep(TimeUnit.MILLISECONDS.convert(sensorPollValue, sensorPollUnit));
+    }
+    
   }
 	
 }
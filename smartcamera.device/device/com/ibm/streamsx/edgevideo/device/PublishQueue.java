@@ -0,0 +1,242 @@
+/*
+# Licensed Materials - Property of IBM
+# Copyright IBM Corp. 2017
+ */
+package com.ibm.streamsx.edgevideo.device;
+
+import java.util.ArrayDeque;
+import java.util.function.Consumer;
+
+/**
+ * A bounded queue that decouples publishing events from their producer.
+ *
+ * <p>The producer (e.g., the detection stream) {@link #offer(Object, Object) offers}
+ * events and a separate thread {@link #startDraining(Consumer) drains} them to the publisher.
+ * A slow publisher then doesn't stall the producer, subject to the {@link Policy}
+ * applied when the queue is full.
+ *
+ * <p>Counters for the queue's depth, drops, coalesced events and the publish latency,
+ * from offer() until the publisher returns, are maintained.
+ *
+ * <p>{@link #stopDraining()} when the publisher goes away, e.g., its topology is closed.
+ *
+ * @param <T> the event type
+ */
+public class PublishQueue<T> {
+
+  public enum Policy {
+    /** block the producer until there's room */
+    BLOCK,
+    /** discard the oldest queued event to make room */
+    DROP_OLDEST,
+    /** discard the offered event */
+    DROP_NEWEST,
+    /**
+     * replace a queued event of the same track with the newer one.
+     * Otherwise, or without a track, DROP_OLDEST.
+     */
+    COALESCE_PER_TRACK
+  }
+
+  private static class Entry<T> {
+    T event;
+    final Object trackKey;
+    long offerNanos;
+    Entry(T event, Object trackKey, long offerNanos) {
+      this.event = event;
+      this.trackKey = trackKey;
+      this.offerNanos = offerNanos;
+    }
+  }
+
+  private final String name;
+  private final int capacity;
+  private final Policy policy;
+  private final ArrayDeque<Entry<T>> queue = new ArrayDeque<>();
+  // guarded by this
+  private Thread drainThread;
+  private boolean stopped;
+  private long offeredCnt;
+  private long publishedCnt;
+  private long droppedCnt;
+  private long coalescedCnt;
+  private int maxDepth;
+  private long latencyCnt;      // interval
+  private long latencyTotNanos; // interval
+  private long latencyMaxNanos; // interval
+
+  /**
+   * @param name for the drain thread and the report
+   * @param capacity max queued events
+   * @param policy what to do when full
+   */
+  public PublishQueue(String name, int capacity, Policy policy) {
+    if (capacity < 1)
+      throw new IllegalArgumentException("capacity " + capacity);
+    this.name = name;
+    this.capacity = capacity;
+    this.policy = policy;
+  }
+
+  /**
+   * Queue an event for publishing.
+   * @param event
+   * @param trackKey the event's track for {@link Policy#COALESCE_PER_TRACK}. May be null.
+   */
+  public synchronized void offer(T event, Object trackKey) {
+    offeredCnt++;
+    long now = System.nanoTime();
+    if (policy == Policy.COALESCE_PER_TRACK && trackKey != null) {
+      for (Entry<T> entry : queue) {
+        if (trackKey.equals(entry.trackKey)) {
+          // keep its place in line but publish the newest
+          entry.event = event;
+          entry.offerNanos = now;
+          coalescedCnt++;
+          return;
+        }
+      }
+    }
+    if (queue.size() >= capacity) {
+      switch (policy) {
+      case BLOCK:
+        while (queue.size() >= capacity) {
+          if (stopped) {
+            droppedCnt++;
+            return;
+          }
+          try {
+            wait();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            droppedCnt++;
+            return;
+          }
+        }
+        break;
+      case DROP_NEWEST:
+        droppedCnt++;
+        return;
+      case DROP_OLDEST:
+      case COALESCE_PER_TRACK:
+        queue.removeFirst();
+        droppedCnt++;
+        break;
+      }
+    }
+    queue.addLast(new Entry<>(event, trackKey, now));
+    maxDepth = Math.max(maxDepth, queue.size());
+    notifyAll();
+  }
+
+  /**
+   * Start a daemon thread that publishes the queued events, in order.
+   * @param publisher the publisher. It returns once the event is published.
+   * @return the thread
+   */
+  public synchronized Thread startDraining(Consumer<T> publisher) {
+    if (drainThread != null || stopped)
+      throw new IllegalStateException(this + " already draining or stopped");
+    drainThread = new Thread(() -> drain(publisher), "PublishQueue-" + name);
+    drainThread.setDaemon(true);
+    drainThread.start();
+    return drainThread;
+  }
+
+  /**
+   * Stop the drain thread, if any.  Queued events are discarded and
+   * a producer blocked in offer() returns.
+   */
+  public void stopDraining() {
+    Thread thread;
+    synchronized(this) {
+      stopped = true;
+      thread = drainThread;
+      notifyAll();
+    }
+    if (thread != null) {
+      thread.interrupt();
+    }
+  }
+
+  private void drain(Consumer<T> publisher) {
+    while (!Thread.currentThread().isInterrupted()) {
+      Entry<T> entry;
+      synchronized(this) {
+        while (queue.isEmpty() || stopped) {
+          if (stopped)
+            return;
+          try {
+            wait();
+          } catch (InterruptedException e) {
+            return;
+          }
+        }
+        entry = queue.removeFirst();
+        notifyAll();
+      }
+      try {
+        publisher.accept(entry.event);
+      } catch (RuntimeException e) {
+        System.out.println("PublishQueue-" + name + " publish failed: " + e);
+        continue;
+      }
+      long latencyNanos = System.nanoTime() - entry.offerNanos;
+      synchronized(this) {
+        publishedCnt++;
+        latencyCnt++;
+        latencyTotNanos += latencyNanos;
+        latencyMaxNanos = Math.max(latencyMaxNanos, latencyNanos);
+      }
+    }
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public synchronized int getDepth() {
+    return queue.size();
+  }
+
+  public synchronized int getMaxDepth() {
+    return maxDepth;
+  }
+
+  public synchronized long getOfferedCnt() {
+    return offeredCnt;
+  }
+
+  public synchronized long getPublishedCnt() {
+    return publishedCnt;
+  }
+
+  public synchronized long getDroppedCnt() {
+    return droppedCnt;
+  }
+
+  public synchronized long getCoalescedCnt() {
+    return coalescedCnt;
+  }
+
+  /**
+   * Report the counters, and the publish latency since the previous report.
+   * @return the report
+   */
+  public synchronized String report() {
+    String s = String.format("  (publishQueue %s %s depth: %d/%d maxDepth: %d offered: %d published: %d dropped: %d coalesced: %d latencyMsec avg: %d max: %d)",
+        name, policy, queue.size(), capacity, maxDepth, offeredCnt, publishedCnt, droppedCnt, coalescedCnt,
+        latencyCnt == 0 ? -1 : latencyTotNanos / latencyCnt / 1_000_000,
+        latencyCnt == 0 ? -1 : latencyMaxNanos / 1_000_000);
+    latencyCnt = 0;
+    latencyTotNanos = 0;
+    latencyMaxNanos = 0;
+    return s;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("PublishQueue %s capacity=%d policy=%s", name, capacity, policy);
+  }
+
+}
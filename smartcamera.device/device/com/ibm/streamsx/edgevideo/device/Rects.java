@@ -0,0 +1,141 @@
+/*
+# Licensed Materials - Property of IBM
+# Copyright IBM Corp. 2017
+ */
+package com.ibm.streamsx.edgevideo.device;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.opencv.core.Rect;
+
+/**
+ * OpenCV Rect utilities.
+ */
+public class Rects {
+
+  private Rects() {
+  }
+
+  /**
+   * Get the area of the intersection of two rectangles.
+   * @param a
+   * @param b
+   * @return the area, 0 if they don't intersect
+   */
+  public static int intersectionArea(Rect a, Rect b) {
+    int w = Math.min(a.x + a.width, b.x + b.width) - Math.max(a.x, b.x);
+    int h = Math.min(a.y + a.height, b.y + b.height) - Math.max(a.y, b.y);
+    return (w <= 0 || h <= 0) ? 0 : w * h;
+  }
+
+  /**
+   * Get the intersection over union of two rectangles.
+   * @param a
+   * @param b
+   * @return the IoU, 0.0 to 1.0
+   */
+  public static double iou(Rect a, Rect b) {
+    int inter = intersectionArea(a, b);
+    if (inter == 0)
+      return 0.0;
+    return (double) inter / (a.area() + b.area() - inter);
+  }
+
+  /**
+   * Get the fraction of the smaller rectangle covered by the larger one.
+   * @param a
+   * @param b
+   * @return the overlap, 0.0 to 1.0
+   */
+  public static double overlap(Rect a, Rect b) {
+    int inter = intersectionArea(a, b);
+    if (inter == 0)
+      return 0.0;
+    return inter / Math.min(a.area(), b.area());
+  }
+
+  /**
+   * Create a rectangle translated by dx,dy.
+   * @param r
+   * @param dx
+   * @param dy
+   * @return the new Rect
+   */
+  public static Rect offset(Rect r, int dx, int dy) {
+    return new Rect(r.x + dx, r.y + dy, r.width, r.height);
+  }
+
+  /**
+   * Create a rectangle grown by {@code factor} around its center
+   * and clipped to {@code bounds}.
+   * @param r
+   * @param factor e.g., 2.0 doubles the width and height
+   * @param bounds
+   * @return the new Rect
+   */
+  public static Rect enlarge(Rect r, double factor, Rect bounds) {
+    int w = (int) Math.round(r.width * factor);
+    int h = (int) Math.round(r.height * factor);
+    Rect grown = new Rect(r.x - (w - r.width) / 2, r.y - (h - r.height) / 2, w, h);
+    return clip(grown, bounds);
+  }
+
+  /**
+   * Create a rectangle clipped to {@code bounds}.
+   * @param r
+   * @param bounds
+   * @return the new Rect, zero sized if there's no intersection
+   */
+  public static Rect clip(Rect r, Rect bounds) {
+    int x0 = Math.max(r.x, bounds.x);
+    int y0 = Math.max(r.y, bounds.y);
+    int x1 = Math.min(r.x + r.width, bounds.x + bounds.width);
+    int y1 = Math.min(r.y + r.height, bounds.y + bounds.height);
+    return new Rect(x0, y0, Math.max(0, x1 - x0), Math.max(0, y1 - y0));
+  }
+
+  /**
+   * Create a rectangle scaled by {@code scale}.
+   * @param r
+   * @param scale
+   * @return the new Rect
+   */
+  public static Rect scale(Rect r, double scale) {
+    return new Rect((int) Math.round(r.x * scale), (int) Math.round(r.y * scale),
+        (int) Math.round(r.width * scale), (int) Math.round(r.height * scale));
+  }
+
+  /**
+   * Non-maximum suppression of detections.
+   *
+   * <p>Cascade detections have no score so larger rectangles win.
+   * A rectangle is suppressed if a winner covers more than {@code maxOverlap}
+   * of the smaller of the two (see {@link #overlap(Rect, Rect)}).
+   * That also suppresses a face that was only partially
+   * detected at the edge of a tile.
+   *
+   * @param rects the detections
+   * @param maxOverlap e.g., 0.5
+   * @return the surviving rectangles
+   */
+  public static List<Rect> nonMaxSuppression(List<Rect> rects, double maxOverlap) {
+    List<Rect> sorted = new ArrayList<>(rects);
+    Collections.sort(sorted, (a, b) -> Double.compare(b.area(), a.area()));
+    List<Rect> kept = new ArrayList<>();
+    for (Rect r : sorted) {
+      boolean suppressed = false;
+      for (Rect k : kept) {
+        if (overlap(r, k) > maxOverlap) {
+          suppressed = true;
+          break;
+        }
+      }
+      if (!suppressed)
+        kept.add(r);
+    }
+    return kept;
+  }
+
+}
@@ -0,0 +1,187 @@
+/*
+# Licensed Materials - Property of IBM
+# Copyright IBM Corp. 2017
+ */
+package com.ibm.streamsx.edgevideo.device;
+
+import org.opencv.core.Mat;
+
+/**
+ * Base class for {@link FrameSource} implementations that replay
+ * a sequence of recorded or generated frames.
+ * 
+ * <p>The replay {@link Mode} determines which frame {@link #grabFrame()} returns:
+ * <ul>
+ * <li>{@code ASAP} - the next frame in the sequence, as fast as it's called.</li>
+ * <li>{@code RECORDED} - the frames are paced at their recorded timestamps.
+ *     Like a live camera, a grab returns the most recent frame that is "due",
+ *     frames that became due since the previous grab are dropped, and an empty
+ *     frame is returned if no new frame is due yet.</li>
+ * </ul>
+ * 
+ * <p>Once the sequence is exhausted empty frames are returned
+ * unless {@link #setLoop(boolean) looping} is enabled.
+ */
+public abstract class ReplayFrameSource implements FrameSource {
+  
+  public enum Mode { ASAP, RECORDED }
+  
+  protected final Mode mode;
+  private boolean loop;
+  private boolean opened;
+  private boolean exhausted;
+  private long replayStartMillis;
+  private long frameCnt;
+  private long rewindCnt;  // --loop restarts of the sequence
+  private long droppedFrameCnt;
+  private CapturedFrame frame = new CapturedFrame();
+  private CapturedFrame pendingFrame = new CapturedFrame();  // RECORDED: read but not yet due
+  private boolean pendingValid;
+  private long pendingOffsetMsec;
+  private final CapturedFrame noFrame = new CapturedFrame();
+  
+  protected ReplayFrameSource(Mode mode) {
+    this.mode = mode;
+  }
+  
+  /**
+   * Enable or disable restarting the sequence once it's exhausted.
+   * @param enabled
+   * @return the prior setting
+   */
+  public boolean setLoop(boolean enabled) {
+    boolean prev = loop;
+    loop = enabled;
+    return prev;
+  }
+  
+  /**
+   * Read the next frame in the sequence.
+   * @param frame the Mat to read the frame into
+   * @return false if the sequence is exhausted
+   */
+  protected abstract boolean readFrame(Mat frame);
+  
+  /**
+   * Get the recorded timestamp of the most recently read frame.
+   * @return msec relative to the start of the sequence
+   */
+  protected abstract long getFrameOffsetMsec();
+  
+  /**
+   * Restart the sequence from its first frame.
+   */
+  protected abstract void rewind();
+  
+  /**
+   * Open the underlying sequence.
+   */
+  protected abstract void openSequence();
+  
+  /**
+   * Close the underlying sequence.
+   */
+  protected abstract void closeSequence();
+  
+  @Override
+  public void open() {
+    if (opened)
+      return;
+    openSequence();
+    opened = true;
+    replayStartMillis = System.currentTimeMillis();
+    System.out.println("Replaying " + this + " mode=" + mode + " loop=" + loop);
+  }
+  
+  @Override
+  public CapturedFrame grabFrame() {
+    if (!opened) {
+      open();
+    }
+    if (exhausted) {
+      return noFrame;
+    }
+    if (mode == Mode.ASAP) {
+      if (!readNext(frame)) {
+        return noFrame;
+      }
+      frame.captureTimestamp = System.currentTimeMillis();
+      frame.droppedFrameCnt = 0;
+      frame.frameSeq = frameCnt;
+      return frame;
+    }
+    
+    // RECORDED: advance to the most recent frame that's due
+    long elapsedMsec = System.currentTimeMillis() - replayStartMillis;
+    boolean haveFrame = false;
+    long dropped = 0;
+    long offsetMsec = 0;
+    long startMillis = replayStartMillis;  // of the returned frame's sequence
+    while (true) {
+      if (!pendingValid) {
+        long rewinds = rewindCnt;
+        if (!readNext(pendingFrame)) {
+          break;
+        }
+        if (rewindCnt != rewinds) {
+          // --loop restarted the sequence; its offsets are from the new start
+          elapsedMsec = System.currentTimeMillis() - replayStartMillis;
+        }
+        pendingFrame.frameSeq = frameCnt;
+        pendingValid = true;
+        pendingOffsetMsec = getFrameOffsetMsec();
+      }
+      if (pendingOffsetMsec > elapsedMsec) {
+        break;
+      }
+      if (haveFrame) {
+        dropped++;
+      }
+      CapturedFrame tmp = frame;
+      frame = pendingFrame;
+      pendingFrame = tmp;
+      pendingValid = false;
+      offsetMsec = pendingOffsetMsec;
+      startMillis = replayStartMillis;
+      haveFrame = true;
+    }
+    if (!haveFrame) {
+      return noFrame;
+    }
+    droppedFrameCnt += dropped;
+    frame.captureTimestamp = startMillis + offsetMsec;
+    frame.droppedFrameCnt = dropped;
+    return frame;
+  }
+  
+  private boolean readNext(Mat mat) {
+    if (readFrame(mat)) {
+      frameCnt++;
+      return true;
+    }
+    if (loop && frameCnt > 0) {
+      rewind();
+      rewindCnt++;
+      replayStartMillis = System.currentTimeMillis();
+      if (readFrame(mat)) {
+        frameCnt++;
+        return true;
+      }
+    }
+    exhausted = true;
+    System.out.println(String.format("Replay of %s complete: frameCnt=%d droppedFrameCnt=%d elapsedMsec=%d",
+        this, frameCnt, droppedFrameCnt, System.currentTimeMillis() - replayStartMillis));
+    return false;
+  }
+  
+  @Override
+  public void close() {
+    if (opened) {
+      closeSequence();
+      opened = false;
+    }
+    frame.release();
+    pendingFrame.release();
+  }
+  
+}
@@ -4,78 +4,342 @@
  */
 package com.ibm.streamsx.edgevideo.device;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Processing statistics: the frame rate, the frames dropped and each
+ * stage's latency distribution.
+ *
+ * <p>The counters and the stages' {@link LatencyHistogram}s are lock-free
+ * and may be updated from any thread.  {@link #reportFrameProcessed()} prints
+ * a report, for the preceding interval, about once a second.
+ * {@link #snapshot()} provides the same information programmatically.
+ */
 public class Stats {
-  private long startMillis;
-  private long lastReportMillis;
-  private long frameProcessedCnt;
-  public Timer getFrame = new Timer();
-  public Timer imgProcess = new Timer();;
-  public Timer render = new Timer();;
-  public Timer publish = new Timer();;
+  private static final long REPORT_INTERVAL_NANOS = 1_000_000_000L;
+  private long startNanos;
+  private final AtomicLong lastReportNanos = new AtomicLong();
+  private final AtomicLong frameProcessedCnt = new AtomicLong();
+  private final AtomicLong droppedFrameCnt = new AtomicLong();
+  private Snapshot lastReport;  // only touched by the reporting thread
+  public Timer getFrame = new Timer("getFrame");
+  public Timer imgProcess = new Timer("imgProc");
+  public Timer render = new Timer("render");
+  public Timer publish = new Timer("publish");
+  private final List<Timer> timers = new CopyOnWriteArrayList<>(
+      new Timer[] { getFrame, imgProcess, render, publish });
+  private List<MotionGate> motionGates = new CopyOnWriteArrayList<>();
+  private List<PublishQueue<?>> publishQueues = new CopyOnWriteArrayList<>();
+  private volatile UplinkBudgets uplinkBudgets;
+  private long lastGateCheckedCnt;
+  private long lastGateSkippedCnt;
+  private long lastGateSavedNanos;
   
+  /**
+   * A stage's latency.
+   *
+   * <p>Either {@link #markStart()} and {@link #markEnd()} on the same thread,
+   * or {@link #record(long)} a measured latency.
+   */
   public static class Timer {
-    public long cnt;
-    public long totMsec;
-    public long startTime;
+    private final String name;
+    private final LatencyHistogram histogram = new LatencyHistogram();
+    private final ThreadLocal<long[]> startNanos = ThreadLocal.withInitial(() -> new long[1]);
+    
+    public Timer(String name) {
+      this.name = name;
+    }
     
-    public void reset() {
-      cnt = 0;
-      totMsec = 0;
-      startTime = 0;
+    public String getName() {
+      return name;
     }
     
     public void markStart() {
-      startTime = System.currentTimeMillis();
+      startNanos.get()[0] = System.nanoTime();
     }
     
     public void markEnd() {
-      cnt++;
-      if (startTime != 0) {
-        totMsec += System.currentTimeMillis() - startTime;
-        startTime = 0;
+      long[] start = startNanos.get();
+      if (start[0] != 0) {
+        record(System.nanoTime() - start[0]);
+        start[0] = 0;
+      }
+    }
+    
+    /**
+     * Record a latency.
+     * @param nanos
+     */
+    public void record(long nanos) {
+      histogram.record(nanos);
+    }
+    
+    /** @return the latencies so far */
+    public LatencyHistogram.Snapshot snapshot() {
+      return histogram.snapshot();
+    }
+  }
+  
+  /**
+   * An immutable copy of the statistics.
+   *
+   * <p>The difference of two snapshots, see {@link #minus(Snapshot)},
+   * covers the interval between them.
+   */
+  public static class Snapshot {
+    public final long elapsedNanos;
+    public final long frameProcessedCnt;
+    public final long droppedFrameCnt;
+    /** the stages' latencies, by {@link Timer#getName() timer name}. Stages without values are omitted. */
+    public final Map<String,LatencyHistogram.Snapshot> stages;
+    
+    Snapshot(long elapsedNanos, long frameProcessedCnt, long droppedFrameCnt,
+        Map<String,LatencyHistogram.Snapshot> stages) {
+      this.elapsedNanos = elapsedNanos;
+      this.frameProcessedCnt = frameProcessedCnt;
+      this.droppedFrameCnt = droppedFrameCnt;
+      this.stages = Collections.unmodifiableMap(stages);
+    }
+    
+    /**
+     * The statistics since an earlier snapshot.
+     * @param earlier an earlier snapshot of the same Stats
+     * @return the interval's snapshot
+     */
+    public Snapshot minus(Snapshot earlier) {
+      Map<String,LatencyHistogram.Snapshot> diff = new LinkedHashMap<>();
+      for (Map.Entry<String,LatencyHistogram.Snapshot> e : stages.entrySet()) {
+        LatencyHistogram.Snapshot earlierStage = earlier.stages.get(e.getKey());
+        LatencyHistogram.Snapshot stage = earlierStage == null ? e.getValue() : e.getValue().minus(earlierStage);
+        if (stage.getCount() > 0)
+          diff.put(e.getKey(), stage);
       }
+      return new Snapshot(elapsedNanos - earlier.elapsedNanos, frameProcessedCnt - earlier.frameProcessedCnt,
+          droppedFrameCnt - earlier.droppedFrameCnt, diff);
     }
     
-    public long getAvgMsec() {
-      if (cnt > 0)
-        return totMsec / cnt;
-      return -1;
+    /** @return the processed frames per second */
+    public double getFps() {
+      return elapsedNanos <= 0 ? 0.0 : frameProcessedCnt * 1e9 / elapsedNanos;
+    }
+    
+    /**
+     * @param stage a timer name
+     * @return the stage's values per second. 0 if none.
+     */
+    public double getRate(String stage) {
+      LatencyHistogram.Snapshot latencies = stages.get(stage);
+      return latencies == null || elapsedNanos <= 0 ? 0.0 : latencies.getCount() * 1e9 / elapsedNanos;
+    }
+  }
+  
+  /**
+   * Include another stage's latency in the report.
+   * @param name the stage's name
+   * @return the stage's timer
+   */
+  public Timer addTimer(String name) {
+    Timer timer = new Timer(name);
+    timers.add(timer);
+    return timer;
+  }
+  
+  /**
+   * Count frames that were dropped rather than processed, e.g.,
+   * by the frame source or a stage shedding load.
+   * @param cnt
+   */
+  public void countDroppedFrames(long cnt) {
+    if (cnt > 0)
+      droppedFrameCnt.addAndGet(cnt);
+  }
+  
+  /**
+   * Get the statistics since {@link #start()}.
+   * @return the snapshot
+   */
+  public Snapshot snapshot() {
+    Map<String,LatencyHistogram.Snapshot> stages = new LinkedHashMap<>();
+    for (Timer timer : timers) {
+      LatencyHistogram.Snapshot latencies = timer.snapshot();
+      if (latencies.getCount() > 0)
+        stages.put(timer.getName(), latencies);
+    }
+    return new Snapshot(System.nanoTime() - startNanos, frameProcessedCnt.get(),
+        droppedFrameCnt.get(), stages);
+  }
+  
+  /**
+   * Include a MotionGate's hit rate and the detection time it saved in the report.
+   * @param gate
+   * @return this
+   */
+  public Stats addMotionGate(MotionGate gate) {
+    motionGates.add(gate);
+    return this;
+  }
+  
+  /**
+   * Include a PublishQueue's depth, drops and publish latency in the report.
+   * It replaces the queue of the same name from an earlier topology.
+   * @param queue
+   * @return this
+   */
+  public synchronized Stats addPublishQueue(PublishQueue<?> queue) {
+    publishQueues.removeIf(q -> q.getName().equals(queue.getName()));
+    publishQueues.add(queue);
+    return this;
+  }
+  
+  /** @return the publish queues */
+  public List<PublishQueue<?>> getPublishQueues() {
+    return Collections.unmodifiableList(publishQueues);
+  }
+  
+  /**
+   * Report the publish queues.
+   * @return the report, one line per queue
+   */
+  public String reportPublishQueues() {
+    StringBuilder sb = new StringBuilder();
+    for (PublishQueue<?> queue : publishQueues) {
+      if (sb.length() > 0)
+        sb.append("\n");
+      sb.append(queue.report());
+    }
+    return sb.toString();
+  }
+  
+  /**
+   * Include the uplink budgets' event counts and sent bytes/sec in the report.
+   * @param budgets
+   * @return this
+   */
+  public Stats setUplinkBudgets(UplinkBudgets budgets) {
+    uplinkBudgets = budgets;
+    return this;
+  }
+  
+  /**
+   * Estimate the detection time saved by the gates:
+   * skipped frames * avg detection time for passed frames - time spent gating.
+   */
+  private long getGateSavedNanos() {
+    long saved = 0;
+    for (MotionGate gate : motionGates) {
+      long detectedCnt = gate.getDetectedCnt();
+      if (detectedCnt > 0) {
+        saved += gate.getSkippedCnt() * (gate.getDetectNanos() / detectedCnt);
+      }
+      saved -= gate.getGateNanos();
+    }
+    return saved;
+  }
+  
+  private String reportMotionGates() {
+    long checkedCnt = 0, skippedCnt = 0;
+    for (MotionGate gate : motionGates) {
+      checkedCnt += gate.getCheckedCnt();
+      skippedCnt += gate.getSkippedCnt();
     }
+    long savedNanos = getGateSavedNanos();
+    long intervalChecked = checkedCnt - lastGateCheckedCnt;
+    long intervalSkipped = skippedCnt - lastGateSkippedCnt;
+    long intervalSavedNanos = savedNanos - lastGateSavedNanos;
+    lastGateCheckedCnt = checkedCnt;
+    lastGateSkippedCnt = skippedCnt;
+    lastGateSavedNanos = savedNanos;
+    double hitPct = intervalChecked == 0 ? 0.0 : 100.0 * intervalSkipped / intervalChecked;
+    return String.format("  (motionGate hit%%: %3.0f skipped: %d/%d savedMsec: %d totSkipped: %d totSavedMsec: %d)",
+        hitPct, intervalSkipped, intervalChecked, intervalSavedNanos / 1_000_000,
+        skippedCnt, savedNanos / 1_000_000);
+  }
+  
+  private String reportNativeMemory() {
+    return String.format("  (nativeMats live: %d allocated: %d rssKB: %d)",
+        NativeMats.getLiveCnt(), NativeMats.getAllocatedCnt(), getRssKB());
+  }
+  
+  /** @return the process's resident set size. -1 if unknown (not Linux). */
+  private static long getRssKB() {
+    try {
+      for (String line : Files.readAllLines(Paths.get("/proc/self/status"))) {
+        if (line.startsWith("VmRSS:")) {
+          return Long.valueOf(line.replaceAll("[^0-9]", ""));
+        }
+      }
+    } catch (IOException | NumberFormatException e) {
+      // fall through
+    }
+    return -1;
   }
   
   public Stats start() {
-    startMillis = System.currentTimeMillis();
-    lastReportMillis = startMillis;
+    startNanos = System.nanoTime();
+    lastReportNanos.set(startNanos);
+    lastReport = snapshot();
     return this;
   }
   
   public long getFrameProcessedCnt() {
-    return frameProcessedCnt;
+    return frameProcessedCnt.get();
   }
   
+  /**
+   * Count a processed frame without reporting.  May be called from any thread.
+   * @return this
+   */
+  public Stats countFrameProcessed() {
+    frameProcessedCnt.incrementAndGet();
+    return this;
+  }
+  
+  /**
+   * Count a processed frame and, about once a second, print a report
+   * of the preceding interval.  May be called from any thread.
+   * @return this
+   */
   public Stats reportFrameProcessed() {
-    frameProcessedCnt++;
-    long now = System.currentTimeMillis();
-    if (now - lastReportMillis > 1000) {
-      long elapsedSec = (now - startMillis) / 1000;
-      double intervalFps = -1.0;
-      if (getFrame.cnt != 0) {
-        intervalFps = getFrame.cnt / ((double) (now - lastReportMillis) / 1000); 
-      }
-      double fps = (double) frameProcessedCnt / elapsedSec;
-      lastReportMillis = now;
-      System.out.println(String.format(
-        "# elapsedSec: %2d frameCnt: %2d fps: %2.0f intervalFps: %2.0f  (avgMsec getFrame: %2d imgProc: %2d render: %d publish: %2d)", 
-        elapsedSec, frameProcessedCnt, fps, intervalFps,
-        getFrame.getAvgMsec(), imgProcess.getAvgMsec(), render.getAvgMsec(), publish.getAvgMsec()));
-      
-      getFrame.reset();
-      imgProcess.reset();
-      render.reset();
-      publish.reset();
+    countFrameProcessed();
+    long now = System.nanoTime();
+    long last = lastReportNanos.get();
+    if (now - last > REPORT_INTERVAL_NANOS && lastReportNanos.compareAndSet(last, now)) {
+      report();
     }
     return this;
-
+  }
+  
+  private synchronized void report() {
+    Snapshot total = snapshot();
+    Snapshot interval = total.minus(lastReport);
+    lastReport = total;
+    System.out.println(String.format(
+      "# elapsedSec: %2d frameCnt: %2d fps: %2.0f intervalFps: %2.0f droppedFrames: %d intervalDroppedFrames: %d", 
+      total.elapsedNanos / 1_000_000_000L, total.frameProcessedCnt, total.getFps(), interval.getFps(),
+      total.droppedFrameCnt, interval.droppedFrameCnt));
+    for (Map.Entry<String,LatencyHistogram.Snapshot> e : interval.stages.entrySet()) {
+      System.out.println(String.format("  (%-8s rate: %3.0f/s msec %s)",
+          e.getKey(), interval.getRate(e.getKey()), e.getValue()));
+    }
+    if (!motionGates.isEmpty()) {
+      System.out.println(reportMotionGates());
+    }
+    if (!publishQueues.isEmpty()) {
+      System.out.println(reportPublishQueues());
+    }
+    String budgetsReport = uplinkBudgets == null ? "" : uplinkBudgets.report();
+    if (!budgetsReport.isEmpty()) {
+      System.out.println(budgetsReport);
+    }
+    System.out.println(reportNativeMemory());
   }
 
 }
@@ -0,0 +1,75 @@
+/*
+# Licensed Materials - Property of IBM
+# Copyright IBM Corp. 2017
+ */
+package com.ibm.streamsx.edgevideo.device;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Scalar;
+import org.opencv.imgproc.Imgproc;
+
+/**
+ * A {@link FrameSource} that generates an endless sequence of frames.
+ * 
+ * <p>Each frame contains a few shapes that move deterministically
+ * from frame to frame, so runs are repeatable.
+ * The frames' recorded timestamps are at a nominal frames per second rate.
+ */
+public class SyntheticFrameSource extends ReplayFrameSource {
+  private static final Scalar BACKGROUND = new Scalar(96, 96, 96);
+  private static final int SHAPE_CNT = 4;
+  private final int width;
+  private final int height;
+  private final double fps;
+  private long index;
+  
+  public SyntheticFrameSource(int width, int height, Mode mode, double fps) {
+    super(mode);
+    this.width = width;
+    this.height = height;
+    this.fps = fps;
+  }
+
+  @Override
+  protected void openSequence() {
+    index = 0;
+  }
+
+  @Override
+  protected boolean readFrame(Mat frame) {
+    frame.create(height, width, CvType.CV_8UC3);
+    frame.setTo(BACKGROUND);
+    int size = Math.max(8, Math.min(width, height) / 6);
+    for (int i = 0; i < SHAPE_CNT; i++) {
+      int x = (int) ((index * (3 + 2 * i) + i * width / SHAPE_CNT) % Math.max(1, width - size));
+      int y = (int) ((index * (1 + i) + i * height / SHAPE_CNT) % Math.max(1, height - size));
+      int shade = 40 + 50 * i;
+      Imgproc.rectangle(frame, new Point(x, y), new Point(x + size, y + size),
+          new Scalar(shade, 255 - shade, (shade * 3) % 256), -1);
+    }
+    index++;
+    return true;
+  }
+
+  @Override
+  protected long getFrameOffsetMsec() {
+    return Math.round((index - 1) * 1000 / fps);
+  }
+
+  @Override
+  protected void rewind() {
+    index = 0;
+  }
+
+  @Override
+  protected void closeSequence() {
+  }
+  
+  @Override
+  public String toString() {
+    return String.format("synthetic:%dx%d", width, height);
+  }
+
+}
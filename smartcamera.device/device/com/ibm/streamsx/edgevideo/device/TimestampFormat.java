@@ -0,0 +1,164 @@
+/*
+# Licensed Materials - Property of IBM
+# Copyright IBM Corp. 2017
+ */
+package com.ibm.streamsx.edgevideo.device;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Thread safe, lock free, msec timestamp formatting and parsing.
+ *
+ * <p>A replacement for a shared {@code synchronized SimpleDateFormat}.
+ * The "yyyy-MM-ddTHH:mm:ss." prefix of the most recent second is cached
+ * in an immutable holder in a volatile field, so formatting a timestamp
+ * in the same second only appends the msec (and zone) to it.
+ * {@link #format(long, byte[], int)} does that without any allocation.
+ * The prefix of a new second is formatted with {@code java.time}.
+ *
+ * <p>See {@code TimestampFormatBenchmark}.
+ */
+public class TimestampFormat {
+  /** "yyyy-MM-dd'T'HH:mm:ss.SSS'Z'" - the FaceEvent timestamp format */
+  public static final TimestampFormat ISO8601_UTC =
+      new TimestampFormat(DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss."), ZoneOffset.UTC, "Z");
+  /** "yyyy-MM-dd HH:mm:ss.SSS" in the local time zone - for log messages */
+  public static final TimestampFormat LOCAL =
+      new TimestampFormat(DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss."), ZoneId.systemDefault(), "");
+
+  private static final class Second {
+    final long epochSecond;
+    final byte[] prefix;  // ASCII
+    Second(long epochSecond, byte[] prefix) {
+      this.epochSecond = epochSecond;
+      this.prefix = prefix;
+    }
+  }
+
+  private final DateTimeFormatter prefixFormatter;
+  private final ZoneId zone;
+  private final byte[] suffix;
+  private final String suffixStr;
+  private final int length;
+  private volatile Second cached;
+
+  private TimestampFormat(DateTimeFormatter prefixFormatter, ZoneId zone, String suffix) {
+    this.prefixFormatter = prefixFormatter.withZone(zone);
+    this.zone = zone;
+    this.suffix = suffix.getBytes(StandardCharsets.US_ASCII);
+    this.suffixStr = suffix;
+    this.cached = newSecond(0);
+    this.length = cached.prefix.length + 3 + this.suffix.length;
+  }
+
+  /**
+   * @return the length of a formatted timestamp
+   */
+  public int length() {
+    return length;
+  }
+
+  /**
+   * Format a timestamp.
+   * @param timestamp msec since the epoch
+   * @return the formatted timestamp
+   */
+  public String format(long timestamp) {
+    byte[] bytes = new byte[length];
+    format(timestamp, bytes, 0);
+    return new String(bytes, StandardCharsets.US_ASCII);
+  }
+
+  /**
+   * Format a timestamp into a buffer without allocating.
+   * @param timestamp msec since the epoch
+   * @param buf the buffer. Must have {@link #length()} bytes available at {@code offset}.
+   * @param offset
+   * @return the offset following the formatted timestamp
+   */
+  public int format(long timestamp, byte[] buf, int offset) {
+    long epochSecond = Math.floorDiv(timestamp, 1000);
+    int msec = (int) Math.floorMod(timestamp, 1000);
+    Second second = cached;
+    if (second.epochSecond != epochSecond) {
+      second = newSecond(epochSecond);
+      cached = second;  // racing threads just each format it
+    }
+    System.arraycopy(second.prefix, 0, buf, offset, second.prefix.length);
+    offset += second.prefix.length;
+    buf[offset++] = (byte) ('0' + msec / 100);
+    buf[offset++] = (byte) ('0' + msec / 10 % 10);
+    buf[offset++] = (byte) ('0' + msec % 10);
+    System.arraycopy(suffix, 0, buf, offset, suffix.length);
+    return offset + suffix.length;
+  }
+
+  /**
+   * Parse a timestamp.
+   * <p>A timestamp in the most recently formatted or parsed second
+   * is parsed without allocation.  Otherwise, or if {@code s} isn't
+   * exactly in this format, it's parsed with {@code java.time}.
+   * @param s the formatted timestamp
+   * @return msec since the epoch
+   * @throws java.time.format.DateTimeParseException if {@code s} can't be parsed
+   */
+  public long parse(String s) {
+    Second second = cached;
+    if (matches(s, second)) {
+      return second.epochSecond * 1000 + parseMsec(s, second.prefix.length);
+    }
+    int prefixLength = length - 3 - suffix.length;
+    if (s.length() == length && s.endsWith(suffixStr) && isMsec(s, prefixLength)) {
+      LocalDateTime ldt = LocalDateTime.parse(s.substring(0, prefixLength), prefixFormatter);
+      long epochSecond = ldt.atZone(zone).toEpochSecond();
+      second = newSecond(epochSecond);
+      if (matches(s, second)) {
+        cached = second;
+      }
+      return epochSecond * 1000 + parseMsec(s, prefixLength);
+    }
+    // some other ISO-8601 form - e.g., from another producer
+    return ZonedDateTime.parse(s, DateTimeFormatter.ISO_DATE_TIME.withZone(zone)).toInstant().toEpochMilli();
+  }
+
+  private boolean matches(String s, Second second) {
+    if (s.length() != length)
+      return false;
+    byte[] prefix = second.prefix;
+    for (int i = 0; i < prefix.length; i++) {
+      if (s.charAt(i) != prefix[i])
+        return false;
+    }
+    for (int i = 0; i < suffix.length; i++) {
+      if (s.charAt(length - suffix.length + i) != suffix[i])
+        return false;
+    }
+    return isMsec(s, prefix.length);
+  }
+
+  private static boolean isMsec(String s, int offset) {
+    for (int i = offset; i < offset + 3; i++) {
+      if (s.charAt(i) < '0' || s.charAt(i) > '9')
+        return false;
+    }
+    return true;
+  }
+
+  private static int parseMsec(String s, int offset) {
+    return (s.charAt(offset) - '0') * 100
+        + (s.charAt(offset + 1) - '0') * 10
+        + (s.charAt(offset + 2) - '0');
+  }
+
+  private Second newSecond(long epochSecond) {
+    String prefix = prefixFormatter.format(Instant.ofEpochSecond(epochSecond));
+    return new Second(epochSecond, prefix.getBytes(StandardCharsets.US_ASCII));
+  }
+
+}
@@ -0,0 +1,107 @@
+/*
+# Licensed Materials - Property of IBM
+# Copyright IBM Corp. 2017
+ */
+package com.ibm.streamsx.edgevideo.device;
+
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.LongToIntFunction;
+
+/**
+ * Compare {@link TimestampFormat} with the synchronized SimpleDateFormat it replaced.
+ *
+ * <p>Each of N threads formats timestamps, advancing 1 msec per call
+ * as a camera's events do, for a number of iterations.
+ * <pre>
+ * java ... TimestampFormatBenchmark [threads [iterations]]
+ * </pre>
+ */
+public class TimestampFormatBenchmark {
+  private static final DateFormat sdf = newIso8601Formatter();
+
+  public static void main(String[] args) throws Exception {
+    int maxThreads = args.length > 0 ? Integer.valueOf(args[0]) : 4;
+    int iterations = args.length > 1 ? Integer.valueOf(args[1]) : 2_000_000;
+    long base = System.currentTimeMillis();
+
+    // sanity check: identical output and round trip
+    for (long ts = base; ts < base + 5000; ts += 7) {
+      String expected = sdfFormat(ts);
+      String actual = TimestampFormat.ISO8601_UTC.format(ts);
+      if (!expected.equals(actual) || TimestampFormat.ISO8601_UTC.parse(actual) != ts)
+        throw new IllegalStateException("mismatch for " + ts + ": " + expected + " " + actual);
+    }
+
+    ThreadLocal<byte[]> bufs = ThreadLocal.withInitial(() -> new byte[TimestampFormat.ISO8601_UTC.length()]);
+    for (int round = 0; round < 2; round++) {  // the first round is warmup
+      System.out.println(round == 0 ? "warmup:" : "results:");
+      for (int threads = 1; threads <= maxThreads; threads *= 2) {
+        run("SimpleDateFormat (synchronized)", threads, iterations,
+            ts -> sdfFormat(ts).length());
+        run("TimestampFormat.format(long)", threads, iterations,
+            ts -> TimestampFormat.ISO8601_UTC.format(ts).length());
+        run("TimestampFormat.format(long, byte[], int)", threads, iterations,
+            ts -> TimestampFormat.ISO8601_UTC.format(ts, bufs.get(), 0));
+        run("TimestampFormat.parse(String)", threads, iterations,
+            new LongToIntFunction() {
+              String s = TimestampFormat.ISO8601_UTC.format(base);
+              public int applyAsInt(long ts) {
+                return (int) TimestampFormat.ISO8601_UTC.parse(s);
+              }
+            });
+      }
+    }
+  }
+
+  private static void run(String name, int threads, int iterations, LongToIntFunction fn) throws Exception {
+    long base = System.currentTimeMillis();
+    CountDownLatch start = new CountDownLatch(1);
+    List<Thread> workers = new ArrayList<>();
+    long[] sinks = new long[threads];
+    for (int t = 0; t < threads; t++) {
+      int id = t;
+      Thread thread = new Thread(() -> {
+        try {
+          start.await();
+        } catch (InterruptedException e) {
+          return;
+        }
+        long sink = 0;
+        for (int i = 0; i < iterations; i++) {
+          sink += fn.applyAsInt(base + i);
+        }
+        sinks[id] = sink;
+      });
+      thread.start();
+      workers.add(thread);
+    }
+    long startNanos = System.nanoTime();
+    start.countDown();
+    for (Thread thread : workers) {
+      thread.join();
+    }
+    long elapsedNanos = System.nanoTime() - startNanos;
+    // ns/op is the per thread latency of a call
+    System.out.println(String.format("  %-45s threads=%d  %8.1f ns/op  %,12.0f ops/sec",
+        name, threads, (double) elapsedNanos / iterations,
+        (double) threads * iterations * 1e9 / elapsedNanos));
+  }
+
+  private static String sdfFormat(long timestamp) {
+    synchronized(sdf) {
+      return sdf.format(timestamp);
+    }
+  }
+
+  private static DateFormat newIso8601Formatter() {
+    DateFormat df = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSXXX");
+    df.setTimeZone(TimeZone.getTimeZone("UTC"));
+    return df;
+  }
+
+}
@@ -0,0 +1,65 @@
+/*
+# Licensed Materials - Property of IBM
+# Copyright IBM Corp. 2017
+ */
+package com.ibm.streamsx.edgevideo.device;
+
+/**
+ * A token bucket rate limiter.
+ *
+ * <p>Tokens accrue at {@code ratePerSec} up to {@code capacity},
+ * the largest burst.  The bucket starts full.
+ *
+ * <p>Not thread safe.
+ */
+public class TokenBucket {
+  private final double ratePerSec;
+  private final double capacity;
+  private double tokens;
+  private long lastNanos;
+
+  /**
+   * @param ratePerSec
+   * @param capacity max accrued tokens
+   */
+  public TokenBucket(double ratePerSec, double capacity) {
+    if (ratePerSec <= 0 || capacity <= 0)
+      throw new IllegalArgumentException("ratePerSec " + ratePerSec + " capacity " + capacity);
+    this.ratePerSec = ratePerSec;
+    this.capacity = capacity;
+    this.tokens = capacity;
+    this.lastNanos = System.nanoTime();
+  }
+
+  /**
+   * @param n
+   * @return true if n tokens are available
+   */
+  public boolean has(double n) {
+    refill();
+    return tokens >= n;
+  }
+
+  /**
+   * Take n tokens if they're available.
+   * @param n
+   * @return true if taken
+   */
+  public boolean tryTake(double n) {
+    if (!has(n))
+      return false;
+    tokens -= n;
+    return true;
+  }
+
+  public double getRatePerSec() {
+    return ratePerSec;
+  }
+
+  private void refill() {
+    long now = System.nanoTime();
+    tokens = Math.min(capacity, tokens + (now - lastNanos) * ratePerSec / 1e9);
+    lastNanos = now;
+  }
+
+}
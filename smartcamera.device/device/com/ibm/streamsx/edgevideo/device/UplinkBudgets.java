@@ -0,0 +1,180 @@
+/*
+# Licensed Materials - Property of IBM
+# Copyright IBM Corp. 2017
+ */
+package com.ibm.streamsx.edgevideo.device;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Per event id bytes/sec and messages/sec uplink budgets.
+ *
+ * <p>Each budget is a pair of {@link TokenBucket}s with a one second burst.
+ * The publisher asks to {@link #tryAcquire(String, int, Level) acquire}
+ * an event's bytes at successively lower {@link Level}s, creating a smaller
+ * event for each, until one fits.  When none fits, or the messages
+ * budget is exhausted, the event is {@link Level#SAMPLED dropped}.
+ *
+ * <p>A budget spec is {@code <eventId>:<bytesPerSec>[:<msgsPerSec>]}.
+ * 0 or an omitted rate is unlimited.  e.g., "faces:20000:5"
+ */
+public class UplinkBudgets {
+  private static final double BURST_SEC = 1.0;
+
+  /** the fidelity an event was sent at */
+  public enum Level {
+    /** as configured */
+    FULL,
+    /** a lower quality image */
+    REDUCED,
+    /** metadata only, no image */
+    META,
+    /** not sent */
+    SAMPLED
+  }
+
+  private static class Budget {
+    final double bytesPerSec;
+    final double msgsPerSec;
+    final TokenBucket bytes;  // null if unlimited
+    final TokenBucket msgs;   // null if unlimited
+    final long[] levelCnts = new long[Level.values().length];
+    long sentBytes;
+    long lastReportSentBytes;
+
+    Budget(double bytesPerSec, double msgsPerSec) {
+      this.bytesPerSec = bytesPerSec;
+      this.msgsPerSec = msgsPerSec;
+      bytes = bytesPerSec <= 0 ? null : new TokenBucket(bytesPerSec, bytesPerSec * BURST_SEC);
+      msgs = msgsPerSec <= 0 ? null : new TokenBucket(msgsPerSec, Math.max(1, msgsPerSec * BURST_SEC));
+    }
+
+    @Override
+    public String toString() {
+      return String.format("%.0f:%.0f", bytesPerSec, msgsPerSec);
+    }
+  }
+
+  private final Map<String,Budget> budgets = new LinkedHashMap<>();
+  private long lastReportNanos = System.nanoTime();
+
+  /**
+   * Set, or replace, budgets.
+   * @param spec one or more comma separated budget specs
+   */
+  public void setBudgets(String spec) {
+    for (String budgetSpec : spec.split(",")) {
+      String[] parts = budgetSpec.trim().split(":");
+      if (parts.length < 2 || parts.length > 3 || parts[0].isEmpty())
+        throw new IllegalArgumentException("Malformed budget spec: " + budgetSpec);
+      setBudget(parts[0], Double.valueOf(parts[1]),
+          parts.length > 2 ? Double.valueOf(parts[2]) : 0);
+    }
+  }
+
+  /**
+   * Set, or replace, an event's budget.
+   * @param eventId
+   * @param bytesPerSec 0 for unlimited
+   * @param msgsPerSec 0 for unlimited
+   */
+  public synchronized void setBudget(String eventId, double bytesPerSec, double msgsPerSec) {
+    budgets.put(eventId, new Budget(bytesPerSec, msgsPerSec));
+  }
+
+  /**
+   * Remove an event's budget.
+   * @param eventId
+   */
+  public synchronized void clearBudget(String eventId) {
+    budgets.remove(eventId);
+  }
+
+  /** @return the budget specs. "" if none. */
+  public synchronized String getBudgets() {
+    StringBuilder sb = new StringBuilder();
+    for (Map.Entry<String,Budget> e : budgets.entrySet()) {
+      if (sb.length() > 0)
+        sb.append(",");
+      sb.append(e.getKey()).append(":").append(e.getValue());
+    }
+    return sb.toString();
+  }
+
+  /**
+   * @param eventId
+   * @return true if the event has a budget
+   */
+  public synchronized boolean hasBudget(String eventId) {
+    return budgets.containsKey(eventId);
+  }
+
+  /**
+   * @param eventId
+   * @return true if the event's messages budget permits sending one now.
+   *    Otherwise no Level will fit.
+   */
+  public synchronized boolean canSend(String eventId) {
+    Budget budget = budgets.get(eventId);
+    return budget == null || budget.msgs == null || budget.msgs.has(1);
+  }
+
+  /**
+   * Acquire the budget to send an event now.
+   * @param eventId
+   * @param bytes the event's size
+   * @param level the event's fidelity
+   * @return true if acquired. The event may be sent.
+   */
+  public synchronized boolean tryAcquire(String eventId, int bytes, Level level) {
+    Budget budget = budgets.get(eventId);
+    if (budget == null)
+      return true;
+    if ((budget.msgs != null && !budget.msgs.has(1))
+        || (budget.bytes != null && !budget.bytes.has(bytes)))
+      return false;
+    if (budget.msgs != null)
+      budget.msgs.tryTake(1);
+    if (budget.bytes != null)
+      budget.bytes.tryTake(bytes);
+    budget.levelCnts[level.ordinal()]++;
+    budget.sentBytes += bytes;
+    return true;
+  }
+
+  /**
+   * Count an event that wasn't sent for lack of budget.
+   * @param eventId
+   */
+  public synchronized void countSampled(String eventId) {
+    Budget budget = budgets.get(eventId);
+    if (budget != null)
+      budget.levelCnts[Level.SAMPLED.ordinal()]++;
+  }
+
+  /**
+   * Report each budget's event counts by Level and its sent bytes/sec since the previous report.
+   * @return the report, one line per budget. "" if none.
+   */
+  public synchronized String report() {
+    long now = System.nanoTime();
+    double intervalSec = Math.max(1e-3, (now - lastReportNanos) / 1e9);
+    lastReportNanos = now;
+    StringBuilder sb = new StringBuilder();
+    for (Map.Entry<String,Budget> e : budgets.entrySet()) {
+      Budget budget = e.getValue();
+      if (sb.length() > 0)
+        sb.append("\n");
+      sb.append(String.format("  (uplinkBudget %s bytesPerSec: %.0f/%.0f msgsPerSec: %.0f full: %d reduced: %d meta: %d sampled: %d sentBytes: %d)",
+          e.getKey(), (budget.sentBytes - budget.lastReportSentBytes) / intervalSec,
+          budget.bytesPerSec, budget.msgsPerSec,
+          budget.levelCnts[Level.FULL.ordinal()], budget.levelCnts[Level.REDUCED.ordinal()],
+          budget.levelCnts[Level.META.ordinal()], budget.levelCnts[Level.SAMPLED.ordinal()],
+          budget.sentBytes));
+      budget.lastReportSentBytes = budget.sentBytes;
+    }
+    return sb.toString();
+  }
+
+}
@@ -0,0 +1,86 @@
+/*
+# Licensed Materials - Property of IBM
+# Copyright IBM Corp. 2017
+ */
+package com.ibm.streamsx.edgevideo.device;
+
+import static org.opencv.videoio.Videoio.CAP_PROP_FPS;
+import static org.opencv.videoio.Videoio.CAP_PROP_POS_FRAMES;
+import static org.opencv.videoio.Videoio.CAP_PROP_POS_MSEC;
+
+import java.io.File;
+
+import org.opencv.core.Mat;
+import org.opencv.videoio.VideoCapture;
+
+/**
+ * A {@link FrameSource} that replays a video file.
+ * 
+ * <p>The frame timestamps are those recorded in the file.
+ */
+public class VideoFileFrameSource extends ReplayFrameSource {
+  private final File videoPath;
+  private VideoCapture video;
+  private double fileFps;
+  private long frameIndex;
+  private long offsetMsec;
+  
+  public VideoFileFrameSource(File videoPath, Mode mode) {
+    super(mode);
+    this.videoPath = videoPath;
+  }
+
+  @Override
+  protected void openSequence() {
+    video = new VideoCapture();
+    if (!video.open(videoPath.toString()) || !video.isOpened()) {
+      throw new RuntimeException("Unable to open video file: " + videoPath);
+    }
+    fileFps = video.get(CAP_PROP_FPS);
+    if (fileFps <= 0) {
+      fileFps = 30.0;
+    }
+  }
+
+  @Override
+  protected boolean readFrame(Mat frame) {
+    if (!video.read(frame) || frame.empty()) {
+      return false;
+    }
+    // Some backends don't report positions.  Fall back to the nominal rate.
+    double posMsec = video.get(CAP_PROP_POS_MSEC);
+    if (posMsec > 0 || frameIndex == 0) {
+      offsetMsec = Math.round(posMsec);
+    }
+    else {
+      offsetMsec = Math.round(frameIndex * 1000 / fileFps);
+    }
+    frameIndex++;
+    return true;
+  }
+
+  @Override
+  protected long getFrameOffsetMsec() {
+    return offsetMsec;
+  }
+
+  @Override
+  protected void rewind() {
+    if (!video.set(CAP_PROP_POS_FRAMES, 0)) {
+      video.release();
+      openSequence();
+    }
+    frameIndex = 0;
+  }
+
+  @Override
+  protected void closeSequence() {
+    video.release();
+  }
+  
+  @Override
+  public String toString() {
+    return "video:" + videoPath;
+  }
+
+}
@@ -0,0 +1,138 @@
+/*
+# Licensed Materials - Property of IBM
+# Copyright IBM Corp. 2017
+ */
+package com.ibm.streamsx.edgevideo.device.edgent;
+
+import java.nio.ByteBuffer;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Rect;
+
+import com.ibm.streamsx.edgevideo.device.FacesData;
+import com.ibm.streamsx.edgevideo.device.edgent.JsonMat.Codec;
+import com.ibm.streamsx.edgevideo.device.edgent.JsonMat.EncodedImage;
+
+/**
+ * Face detection event info to/from a compact binary payload.
+ *
+ * <p>The alternative to {@link JsonFaceEvent} for MQTT.  There's no
+ * text encoding: the image bytes are carried as-is.
+ * The event id is {@link #EVENT_ID} and the topic's format is
+ * {@link #TOPIC_FORMAT} rather than "json".
+ *
+ * <p>Version 2 format, big-endian:
+ * <pre>
+ * magic         2 bytes  'F' 'E'
+ * version       1 byte   2
+ * codec         1 byte   {@link Codec} ordinal
+ * timestamp     8 bytes  msec since the epoch
+ * seq           8 bytes  the device's face event sequence number
+ * frameSeq      8 bytes  the frame's sequence number
+ * captureTimestamp  8 bytes  msec since the epoch
+ * publishTimestamp  8 bytes  msec since the epoch
+ * rect x,y,w,h  4x4 bytes  the face in the (resized) frame
+ * width,height  2x4 bytes  of the image
+ * type          4 bytes  OpenCV Mat type. Needed for RAW.
+ * quality       1 byte   -1 if not applicable
+ * length        4 bytes  of the image bytes
+ * image         length bytes
+ * </pre>
+ *
+ * <p>Version 1 lacks frameSeq and the capture and publish timestamps.
+ * A decoder must reject a version it doesn't know.
+ */
+@SuppressWarnings("javadoc")
+public class BinaryFaceEvent {
+  public static final String EVENT_ID = "facesBin";
+  public static final String TOPIC_FORMAT = "bin";
+  public static final int VERSION = 2;
+  private static final byte MAGIC_0 = 'F';
+  private static final byte MAGIC_1 = 'E';
+  private static final int V1_HEADER_SIZE = 2 + 1 + 1 + 8 + 8 + 4*4 + 2*4 + 4 + 1 + 4;
+  private static final int HEADER_SIZE = V1_HEADER_SIZE + 3*8;
+
+  public long timestamp;
+  public long seq;
+  public long frameSeq;          // 0 if version 1
+  public long captureTimestamp;  // 0 if version 1
+  public long publishTimestamp;  // 0 if version 1
+  public Rect rect;
+  public Codec codec;
+  public int quality;
+  public int imageBytes;
+  public Mat face;
+
+  /** Create a binary FaceEvent, with the frame's trace, for a frame's i'th face */
+  public static byte[] encode(FacesData facesData, int i, long seq, JsonMat.Encoding faceEncoding) {
+    return encode(facesData.timestamp, seq, facesData.frameSeq, facesData.captureTimestamp,
+        facesData.faceRects.toArray()[i], facesData.faces.get(i), faceEncoding);
+  }
+
+  /** Create a binary FaceEvent */
+  public static byte[] encode(long timestamp, long seq, long frameSeq, long captureTimestamp,
+      Rect rect, Mat face, JsonMat.Encoding faceEncoding) {
+    EncodedImage image = JsonMat.encode(face, faceEncoding);
+
+    ByteBuffer bb = ByteBuffer.allocate(HEADER_SIZE + image.bytes.length);
+    bb.put(MAGIC_0).put(MAGIC_1);
+    bb.put((byte) VERSION);
+    bb.put((byte) image.codec.ordinal());
+    bb.putLong(timestamp);
+    bb.putLong(seq);
+    bb.putLong(frameSeq);
+    bb.putLong(captureTimestamp);
+    bb.putLong(System.currentTimeMillis());
+    bb.putInt(rect.x).putInt(rect.y).putInt(rect.width).putInt(rect.height);
+    bb.putInt(image.width).putInt(image.height);
+    bb.putInt(image.type);
+    bb.put((byte) image.quality);
+    bb.putInt(image.bytes.length);
+    bb.put(image.bytes);
+    return bb.array();
+  }
+
+  /** Decode a binary FaceEvent */
+  public static BinaryFaceEvent decode(byte[] payload) {
+    ByteBuffer bb = ByteBuffer.wrap(payload);
+    if (payload.length < V1_HEADER_SIZE || bb.get() != MAGIC_0 || bb.get() != MAGIC_1)
+      throw new IllegalArgumentException("Not a binary face event");
+    int version = bb.get();
+    if (version != 1 && version != VERSION)
+      throw new IllegalArgumentException("Unsupported binary face event version " + version);
+    if (version == VERSION && payload.length < HEADER_SIZE)
+      throw new IllegalArgumentException("Truncated binary face event");
+
+    BinaryFaceEvent event = new BinaryFaceEvent();
+    event.codec = Codec.values()[bb.get()];
+    event.timestamp = bb.getLong();
+    event.seq = bb.getLong();
+    if (version >= 2) {
+      event.frameSeq = bb.getLong();
+      event.captureTimestamp = bb.getLong();
+      event.publishTimestamp = bb.getLong();
+    }
+    event.rect = new Rect(bb.getInt(), bb.getInt(), bb.getInt(), bb.getInt());
+    int width = bb.getInt();
+    int height = bb.getInt();
+    int type = bb.getInt();
+    event.quality = bb.get();
+    event.imageBytes = bb.getInt();
+    byte[] image = new byte[event.imageBytes];
+    bb.get(image);
+    event.face = JsonMat.decode(event.codec, image, width, height, type);
+    return event;
+  }
+
+  /**
+   * Convert a device's JSON event topic to the binary format topic.
+   * @param jsonTopic e.g., "id/device-1/evt/facesBin/fmt/json"
+   * @return the topic - e.g., "id/device-1/evt/facesBin/fmt/bin"
+   */
+  public static String toBinaryTopic(String jsonTopic) {
+    if (!jsonTopic.endsWith("/fmt/json"))
+      throw new IllegalArgumentException("Event topic doesn't end with /fmt/json: " + jsonTopic);
+    return jsonTopic.substring(0, jsonTopic.length() - "json".length()) + TOPIC_FORMAT;
+  }
+
+}
@@ -7,25 +7,46 @@ package com.ibm.streamsx.edgevideo.device.edgent;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Properties;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
 
 import org.apache.edgent.connectors.iot.IotDevice;
 import org.apache.edgent.connectors.iot.QoS;
 import org.apache.edgent.connectors.iotp.IotpDevice;
 import org.apache.edgent.connectors.mqtt.iot.MqttDevice;
 import org.apache.edgent.execution.mbeans.PeriodMXBean;
+import org.apache.edgent.execution.services.ServiceContainer;
+import org.apache.edgent.metrics.Metrics;
+import org.apache.edgent.metrics.MetricsSetup;
 import org.apache.edgent.providers.direct.DirectProvider;
 import org.apache.edgent.topology.TStream;
 import org.apache.edgent.topology.Topology;
+import org.apache.edgent.topology.plumbing.PlumbingStreams;
 import org.opencv.core.Mat;
+import org.opencv.core.Rect;
 
+import com.codahale.metrics.MetricRegistry;
 import com.google.gson.JsonObject;
 import com.ibm.streamsx.edgevideo.device.AbstractFaceDetectApp;
+import com.ibm.streamsx.edgevideo.device.CapturedFrame;
+import com.ibm.streamsx.edgevideo.device.DetectionRegions;
+import com.ibm.streamsx.edgevideo.device.FaceDetector;
+import com.ibm.streamsx.edgevideo.device.FaceDetectorPool;
 import com.ibm.streamsx.edgevideo.device.FacesData;
+import com.ibm.streamsx.edgevideo.device.MotionGate;
+import com.ibm.streamsx.edgevideo.device.NativeMats;
+import com.ibm.streamsx.edgevideo.device.PublishQueue;
+import com.ibm.streamsx.edgevideo.device.UplinkBudgets;
 
 /**
  * An Edgent version of FaceDetectDemo that uses a DirectProvider and IotpDevice.
@@ -35,7 +56,7 @@ import com.ibm.streamsx.edgevideo.device.FacesData;
  */
 public class EdgentFaceDetectApp extends AbstractFaceDetectApp {
   
-  protected static String usage = "[-h] [--fps=N | --pollMsec=N] [--resize=N] {--quickstart | [--mqtt] iot-device-cfg-file}  # see scripts/wiotp-device.cfg";
+  protected static String usage = "[-h] [--fps=N | --pollMsec=N] [--resize=N] [--tiles=<R>x<C>] [--motionGate] [--track=N] [--captureThread] [--detectThreads=N] [--detectChannels=N] [--isolate=N] [--regions=<file>] [--source={camera | video:<file> | images:<dir> | synthetic[:<W>x<H>]} [--replay={asap | recorded}] [--loop]] [--faceCodec={jpeg | png | webp | raw}[:<quality>]] [--faceBytes=N] [--faceFormat={json | bin | both | meta}] [--faceBatch={frame | window:<msec>[:<maxBytes>]}] [--cropCacheBytes=N] [--publishQueue={block | drop_oldest | drop_newest | coalesce_per_track}[:<capacity>]] [--spool=<dir>[:<maxMB>[:<replayPerSec>]]] [--uplinkBudget=<eventId>:<bytesPerSec>[:<msgsPerSec>][,...]] [--frameEvents=<periodMsec>[:<width>[:<quality>]]] [--faceStats=<windowMsec>[:<slideMsec>]] [--statsEvents=<periodSec>] {--quickstart | [--mqtt] iot-device-cfg-file}  # see scripts/wiotp-device.cfg";
   protected static String quickstartDeviceId = "EdgentFaceDetectDemo-device1";
 
   protected boolean useMqttDevice;
@@ -43,6 +64,33 @@ public class EdgentFaceDetectApp extends AbstractFaceDetectApp {
   protected String iotDeviceCfgPath;
   
   protected int publishQoS = QoS.FIRE_AND_FORGET;
+  protected JsonMat.Encoding faceEncoding = JsonMat.Encoding.fromSpec("jpeg", 0);
+  protected String faceFormat = "json";  // json, bin, both or meta. bin requires --mqtt. See BinaryFaceEvent, FaceMetaEvent.
+  protected FaceCropCache faceCropCache;  // with meta
+  protected PublishQueue.Policy publishQueuePolicy;  // null to publish on the detection stream's thread
+  protected int publishQueueCapacity = 64;
+  protected final AtomicLong faceEventSeq = new AtomicLong();
+  protected String faceBatch = "none";  // none, frame or window. See FaceEventBatch.
+  protected long faceBatchMsec;
+  protected int faceBatchMaxBytes;  // 0 for no limit
+  protected File spoolDir;  // null for no store-and-forward. Requires --mqtt. See StoreAndForwardPublisher.
+  protected long spoolMaxBytes = 64 * 1024 * 1024;
+  protected double spoolReplayPerSec = 20;
+  protected StoreAndForwardPublisher storeAndForward;  // created once, shared by the topologies
+  protected final UplinkBudgets uplinkBudgets = new UplinkBudgets();  // runtime changes via UplinkBudgetControl
+  protected FrameEvent.Encoder frameEventEncoder;  // null for no frame events
+  protected long frameEventPeriodMsec;
+  protected long faceStatsWindowMsec;  // 0 for no faceStats events. See FaceStatsEvent.
+  protected long faceStatsSlideMsec;   // 0 for a tumbling window
+  /** startApp config property that overrides the app's --detectChannels */
+  public static final String CONFIG_DETECT_CHANNELS = "detectChannels";
+  protected int detectChannels = 1;  // >1 to detect in parallel topology channels
+  protected final List<FaceDetector> channelDetectors = new CopyOnWriteArrayList<>();  // grown as needed
+  protected int isolateDepth;  // >0 to isolate the detect, render and publish stages. See StageBoundary.
+  protected PipelineStats pipelineStats;  // for the stats events and PipelineStatsControl
+  protected long statsEventPeriodSec;  // 0 for only on demand stats events. See PipelineStats.
+  /** the JMX domain of the Edgent stream metrics */
+  public static final String METRICS_JMX_DOMAIN = "com.ibm.streamsx.edgevideo";
 
   protected WorkaroundEdgent400 edgent400Workaround = new WorkaroundEdgent400();
   
@@ -52,6 +100,7 @@ public class EdgentFaceDetectApp extends AbstractFaceDetectApp {
 	
 	@Override
 	protected void runFaceDetection() throws Exception {
+	  pipelineStats = new PipelineStats(stats);
 	  buildAndStartTopologies();
 	}
 	
@@ -68,18 +117,45 @@ public class EdgentFaceDetectApp extends AbstractFaceDetectApp {
     //    create provider, create topology, create IoT Connector, build topology, submit it
 
     DirectProvider provider = new DirectProvider();
+    setupMetrics(provider.getServices());
     Topology top = provider.newTopology();
 
     IotDevice iotDevice = newIotHubConnector(top);
     
     buildTopology(iotDevice, null);
     
+    if (faceCropCache != null) {
+      buildFaceCropCmdHandler(iotDevice, null);
+    }
+    
     provider.submit(top);   
 	}
   
+  /**
+   * Register a MetricRegistry so the streams' {@link Metrics} are
+   * collected, and report them via JMX in the {@link #METRICS_JMX_DOMAIN}.
+   * @param services the provider's services
+   */
+  protected void setupMetrics(ServiceContainer services) {
+    MetricsSetup.withRegistry(services, new MetricRegistry()).startJMXReporter(METRICS_JMX_DOMAIN);
+  }
+
 	/**
 	 * Build a topology that performs face detection in a single map() transformation.
 	 * 
+	 * <p>When there's a {@link #faceDetectorPool} the polled frames are instead
+	 * submitted to the pool and its in-order results are the source of the
+	 * detection results stream.  With more than one {@link #detectChannels},
+	 * or a {@link #CONFIG_DETECT_CHANNELS} config, the frames are instead
+	 * detected in parallel topology channels.
+	 * 
+	 * <p>With an {@link #isolateDepth}, {@link StageBoundary StageBoundaries} separate
+	 * the poll, detect, render and publish stages.  Detection runs on the
+	 * freshest frames and a slow render or publish sheds frames rather
+	 * than slowing detection.
+	 * 
+	 * <p>Each stage's stream has an Edgent counter and rate meter. See {@link #metered(TStream, String)}.
+	 * 
 	 * @param iotDevice IoT hub connector
 	 * @param config
 	 */
@@ -89,40 +165,836 @@ public class EdgentFaceDetectApp extends AbstractFaceDetectApp {
     
     Topology top = iotDevice.topology();
     
-    // create a stream with one FacesData for each processed frame
-    TStream<FacesData> frameData = 
+    TStream<CapturedFrame> rawRgbFrames =
         
-      top.poll(() -> camera.grabFrame(), sensorPollValue, sensorPollUnit)
+      top.poll(() -> grabFrame(), sensorPollValue, sensorPollUnit)
       
          .alias("sensorPollStream")  // ### enable poll control via PeriodMXBean
          
-         .filter(rawRgbFrame -> !rawRgbFrame.empty())
-         
-         .map(rawRgbFrame -> faceDetector.detectFaces(rawRgbFrame))
+         .filter(rawRgbFrame -> !rawRgbFrame.empty());
+    
+    rawRgbFrames = metered(rawRgbFrames, "poll");
+    
+    if (isolateDepth > 0) {
+      rawRgbFrames = isolateFrames(rawRgbFrames);
+    }
+    
+    int channels = detectChannels;
+    if (config != null && config.has(CONFIG_DETECT_CHANNELS)) {
+      channels = config.get(CONFIG_DETECT_CHANNELS).getAsInt();
+      if (channels > 1 && (faceTracker != null || faceDetectorPool != null)) {
+        System.out.println("Ignoring " + CONFIG_DETECT_CHANNELS + ": not with --track or --detectThreads");
+        channels = 1;
+      }
+    }
+    
+    // create a stream with one FacesData for each processed frame
+    TStream<FacesData> frameData;
+    if (faceDetectorPool != null) {
+      rawRgbFrames.sink(rawRgbFrame -> {
+          faceDetectorPool.submit(rawRgbFrame);
+          if (isolateDepth > 0)
+            NativeMats.release(rawRgbFrame);
+        });
+      
+      frameData = top.events(submitter -> faceDetectorPool.setConsumer(facesData -> submitter.accept(facesData)));
+    }
+    else if (channels > 1) {
+      frameData = detectFacesInChannels(rawRgbFrames, channels);
+    }
+    else {
+      frameData = 
+          
+        rawRgbFrames
          
-         .peek(facesData -> renderImages(facesData));
+         .map(rawRgbFrame -> isolateDepth > 0 ? detectFacesInCopy(rawRgbFrame) : detectFaces(rawRgbFrame));
+    }
     
-    publishEvents(frameData, iotDevice);
+    frameData = frameData.peek(facesData -> {
+        stats.imgProcess.record(facesData.detectNanos);
+        stats.countFrameProcessed();
+      });
+    frameData = metered(frameData, "detect");
+    
+    // With MQTT, publish pre-serialized events directly to the MQTT server
+    MqttEventPublisher mqttPublisher = !useMqttDevice ? null : newMqttEventPublisher(top);
+    if (mqttPublisher != null && mqttPublisher.isStoreAndForward()) {
+      StoreAndForwardPublisher spool = storeAndForward;
+      top.poll(() -> spool.report(), 10, TimeUnit.SECONDS)
+          .sink(report -> System.out.println(report));
+    }
+    
+    if (isolateDepth > 0) {
+      TStream<FacesData> renderData = isolateStage(frameData, "render");
+      renderData = metered(renderData.peek(facesData -> timedRenderImages(facesData)), "render");
+      renderData.sink(facesData -> facesData.close());
+      
+      TStream<FacesData> publishData = metered(isolateStage(frameData, "publish"), "publish");
+      publishEvents(publishData, iotDevice, mqttPublisher);
+      publishData.sink(facesData -> facesData.close());  // after the publish stages
+    }
+    else {
+      frameData = metered(frameData.peek(facesData -> timedRenderImages(facesData)), "render");
+      
+      publishEvents(frameData, iotDevice, mqttPublisher);
+    }
+    
+    publishFaceStatsEvents(frameData, iotDevice, mqttPublisher, config);
+    
+    publishPipelineStatsEvents(top, iotDevice, mqttPublisher, config);
+    
+    if (publishQueuePolicy != null) {
+      top.poll(() -> stats.reportPublishQueues(), 10, TimeUnit.SECONDS)
+          .sink(report -> System.out.println(report));
+    }
+    
+    // budgets may be set at runtime
+    stats.setUplinkBudgets(uplinkBudgets);
+    top.poll(() -> uplinkBudgets.report(), 10, TimeUnit.SECONDS)
+        .filter(report -> !report.isEmpty())
+        .sink(report -> System.out.println(report));
+    
+    // the stages above are done with the frame's Mats
+    frameData.sink(facesData -> facesData.close());
 
     edgent400Workaround.addControlId(top, TStream.TYPE, "sensorPollStream", PeriodMXBean.class);
   }
 
 
-  protected void publishEvents(TStream<FacesData> frameData, IotDevice iotDevice) {
+  /**
+   * Isolate detection from polling.  The frame source reuses its frame
+   * so each frame is copied before the boundary.
+   * @param rawRgbFrames
+   * @return the copied frames. Release them with {@link #detectFacesInCopy(Mat)}
+   *    or {@link NativeMats#release(Mat)}.
+   */
+  protected TStream<CapturedFrame> isolateFrames(TStream<CapturedFrame> rawRgbFrames) {
+    StageBoundary<CapturedFrame> boundary = new StageBoundary<>("detect", isolateDepth,
+        frame -> {
+          NativeMats.release(frame);
+          stats.countDroppedFrames(1);
+        });
+    reportStageBoundary(rawRgbFrames.topology(), boundary);
+    return boundary.connect(rawRgbFrames.map(rawRgbFrame -> rawRgbFrame.copy()));
+  }
+  
+  /**
+   * Isolate a downstream stage from the detection stream.
+   * @param frameData
+   * @param name the stage's name
+   * @return the stage's stream. The stage must close each FacesData.
+   */
+  protected TStream<FacesData> isolateStage(TStream<FacesData> frameData, String name) {
+    StageBoundary<FacesData> boundary = new StageBoundary<>(name, isolateDepth,
+        facesData -> facesData.close());
+    reportStageBoundary(frameData.topology(), boundary);
+    return boundary.connect(frameData.map(facesData -> facesData.retain()));
+  }
+  
+  private void reportStageBoundary(Topology top, StageBoundary<?> boundary) {
+    pipelineStats.addStageBoundary(boundary);
+    top.poll(() -> boundary.report(), 10, TimeUnit.SECONDS)
+        .sink(report -> System.out.println(report));
+  }
+  
+  /**
+   * Render the frame, annotating a copy of it.  The frame is shared with
+   * the publish stages, which may run concurrently with --isolate,
+   * so it's only read after detection.
+   */
+  private void timedRenderImages(FacesData facesData) {
+    stats.render.markStart();
+    Mat rgbFrame = NativeMats.track(facesData.rgbFrame.clone());
+    try {
+      renderImages(rgbFrame, facesData.faceRects, facesData.faces);
+    }
+    finally {
+      NativeMats.release(rgbFrame);
+    }
+    stats.render.markEnd();
+  }
+  
+  /**
+   * Detect faces in a frame from {@link #isolateFrames(TStream)} and release it.
+   * @param frameCopy
+   * @return the FacesData
+   */
+  protected FacesData detectFacesInCopy(Mat frameCopy) {
+    try {
+      return detectFaces(frameCopy);
+    }
+    finally {
+      NativeMats.release(frameCopy);
+    }
+  }
+
+  /**
+   * Detect faces in parallel channels using {@link PlumbingStreams#parallelBalanced(TStream, int, BiFunction) parallelBalanced()}.
+   * 
+   * <p>Each channel has its own thread and {@link FaceDetector}.  A frame goes to
+   * the next idle channel.  An {@link OrderedMerge} restores the frame order
+   * of the channels' results so the render and publish stages see the
+   * same stream as with a single detection map().
+   * 
+   * @param rawRgbFrames
+   * @param channels the number of channels
+   * @return the ordered stream of detection results
+   */
+  protected TStream<FacesData> detectFacesInChannels(TStream<CapturedFrame> rawRgbFrames, int channels) {
+    List<FaceDetector> detectors = getChannelDetectors(channels);
+    FaceDetectorPool.configureThreads(channels);
+    System.out.println("Detection channels: " + channels);
+    
+    OrderedMerge merge = new OrderedMerge(4 * channels);
+    
+    // the frame source reuses its frame so each channel gets a copy, unless they're already copies
+    TStream<OrderedMerge.Item<Mat>> frames = rawRgbFrames.map(rawRgbFrame -> merge.tag(
+        isolateDepth > 0 ? rawRgbFrame : rawRgbFrame.copy()));
+    
+    TStream<OrderedMerge.Item<FacesData>> results = PlumbingStreams.parallelBalanced(frames, channels,
+        (channel, i) -> channel.map(frame -> {
+            try {
+              return new OrderedMerge.Item<>(frame.seq, detectors.get(i).detectFaces(frame.value));
+            }
+            finally {
+              NativeMats.release(frame.value);
+            }
+          }));
+    
+    results.sink(result -> merge.accept(result));
+    
+    return rawRgbFrames.topology().events(
+        submitter -> merge.setConsumer(facesData -> submitter.accept(facesData)));
+  }
+  
+  /**
+   * Get the channels' detectors, creating any that are needed
+   * from the {@link #faceDetector}'s settings.
+   * The detectors are retained for subsequent topologies.
+   * @param channels the number of channels
+   * @return the detectors
+   */
+  protected List<FaceDetector> getChannelDetectors(int channels) {
+    while (channelDetectors.size() < channels) {
+      try {
+        FaceDetector detector = faceDetector.copy();
+        if (useMotionGate) {
+          MotionGate gate = new MotionGate();
+          detector.setMotionGate(gate);
+          stats.addMotionGate(gate);
+        }
+        channelDetectors.add(detector);
+      } catch (IOException e) {
+        throw new RuntimeException("Unable to create a channel's FaceDetector", e);
+      }
+    }
+    return new ArrayList<>(channelDetectors.subList(0, channels));
+  }
+  
+  @Override
+  protected void setDetectionRegions(DetectionRegions regions) {
+    for (FaceDetector detector : channelDetectors) {
+      detector.setDetectionRegions(regions);
+    }
+    super.setDetectionRegions(regions);
+  }
+  
+  @Override
+  protected List<FaceDetector> getFaceDetectors() {
+    List<FaceDetector> detectors = super.getFaceDetectors();
+    detectors.addAll(channelDetectors);
+    return detectors;
+  }
+
+  /**
+   * Add an Edgent counter and rate meter to a stage's stream.
+   * The metrics are collected if the provider has a MetricRegistry,
+   * see {@link #setupMetrics(ServiceContainer)}.
+   * @param stream
+   * @param stage the stage's name, a tag on the stream
+   * @return the metered stream
+   */
+  protected <T> TStream<T> metered(TStream<T> stream, String stage) {
+    return Metrics.rateMeter(Metrics.counter(stream.tag(stage)));
+  }
+
+  /**
+   * Publish {@link PipelineStats} events periodically and on demand.
+   * 
+   * <p>The period is {@link #statsEventPeriodSec} unless the topology's
+   * config has a {@link PipelineStats#CONFIG_PERIOD_SEC}.  With no period
+   * the events are only published on demand, e.g., via the
+   * PipelineStatsControl's publishStats().
+   * 
+   * @param top
+   * @param iotDevice
+   * @param mqttPublisher null if not using MQTT
+   * @param config null if none
+   */
+  protected void publishPipelineStatsEvents(Topology top, IotDevice iotDevice,
+      MqttEventPublisher mqttPublisher, JsonObject config) {
+    long periodSec = statsEventPeriodSec;
+    if (config != null && config.has(PipelineStats.CONFIG_PERIOD_SEC)) {
+      periodSec = config.get(PipelineStats.CONFIG_PERIOD_SEC).getAsLong();
+    }
+    
+    TStream<JsonObject> statsEvents = top.events(
+        submitter -> pipelineStats.setRequestedEventConsumer(event -> submitter.accept(event)));
+    if (periodSec > 0) {
+      System.out.println("Stats events: periodSec:" + periodSec);
+      statsEvents = statsEvents.union(top.poll(() -> pipelineStats.toJsonObject(), periodSec, TimeUnit.SECONDS));
+    }
+    statsEvents = statsEvents.map(event -> toBudgetedEvent(PipelineStats.EVENT_ID,
+        e -> e.toString().length(), () -> event, null, null));
+    statsEvents = toQueuedEvents(PipelineStats.EVENT_ID, statsEvents);
+    
+    publishJsonEvents(statsEvents, PipelineStats.EVENT_ID, iotDevice, mqttPublisher);
+  }
+
+  /**
+   * Publish a {@link FaceStatsEvent} for each window of frames.
+   * 
+   * <p>The window is {@link #faceStatsWindowMsec} unless the topology's
+   * config (e.g., from an "edgentControl" startApp cmd) has a
+   * {@link FaceStatsEvent#CONFIG_WINDOW_MSEC} and optional
+   * {@link FaceStatsEvent#CONFIG_SLIDE_MSEC}.
+   * A tumbling window publishes when each window closes.  A sliding window
+   * publishes the statistics for the last windowMsec every slideMsec.
+   * 
+   * @param frameData
+   * @param iotDevice
+   * @param mqttPublisher null if not using MQTT
+   * @param config null if none
+   */
+  protected void publishFaceStatsEvents(TStream<FacesData> frameData, IotDevice iotDevice,
+      MqttEventPublisher mqttPublisher, JsonObject config) {
+    
+    long windowMsec = faceStatsWindowMsec;
+    long slideMsec = faceStatsSlideMsec;
+    if (config != null && config.has(FaceStatsEvent.CONFIG_WINDOW_MSEC)) {
+      windowMsec = config.get(FaceStatsEvent.CONFIG_WINDOW_MSEC).getAsLong();
+      slideMsec = config.has(FaceStatsEvent.CONFIG_SLIDE_MSEC)
+          ? config.get(FaceStatsEvent.CONFIG_SLIDE_MSEC).getAsLong() : 0;
+    }
+    if (windowMsec <= 0) {
+      return;
+    }
+    System.out.println("Face stats: windowMsec:" + windowMsec + " slideMsec:" + slideMsec);
+    final long fWindowMsec = windowMsec;
+    final long fSlideMsec = slideMsec;
+    
+    // a compact sample of each frame, so the window doesn't hold the frames' Mats
+    TStream<FaceStatsEvent.Sample> samples = frameData.map(facesData -> new FaceStatsEvent.Sample(facesData));
+    
+    TStream<JsonObject> statsEvents;
+    if (slideMsec <= 0) {
+      statsEvents = samples
+          .last(windowMsec, TimeUnit.MILLISECONDS, sample -> 0)
+          .batch((window, key) -> FaceStatsEvent.toJsonObject(window, fWindowMsec, 0));
+    }
+    else {
+      long[] lastEmitMillis = { System.currentTimeMillis() };
+      statsEvents = samples
+          .last(windowMsec, TimeUnit.MILLISECONDS, sample -> 0)
+          .aggregate((window, key) -> {
+              long now = System.currentTimeMillis();
+              if (now - lastEmitMillis[0] < fSlideMsec)
+                return null;  // no tuple
+              lastEmitMillis[0] = now;
+              return FaceStatsEvent.toJsonObject(window, fWindowMsec, fSlideMsec);
+            });
+    }
+    statsEvents = statsEvents.map(event -> toBudgetedEvent(FaceStatsEvent.EVENT_ID,
+        e -> e.toString().length(), () -> event, null, null));
+    statsEvents = toQueuedEvents(FaceStatsEvent.EVENT_ID, statsEvents);
+    
+    publishJsonEvents(statsEvents, FaceStatsEvent.EVENT_ID, iotDevice, mqttPublisher);
+  }
+
+  protected void publishEvents(TStream<FacesData> frameData, IotDevice iotDevice,
+      MqttEventPublisher mqttPublisher) {
+    
+    if (frameEventEncoder != null) {
+      publishFrameEvents(frameData, iotDevice, mqttPublisher);
+    }
+    
+    if (faceFormat.equals("meta")) {
+      publishMetaEvents(frameData, iotDevice, mqttPublisher);
+      return;
+    }
+    
+    if (!faceFormat.equals("json")) {
+      publishBinaryEvents(frameData, mqttPublisher);
+      if (faceFormat.equals("bin")) {
+        return;
+      }
+    }
+    
+    if (!faceBatch.equals("none")) {
+      publishBatchedEvents(frameData, iotDevice, mqttPublisher);
+      return;
+    }
+    
+    if (mqttPublisher != null) {
+      publishStreamedJsonEvents(frameData, mqttPublisher);
+      return;
+    }
     
     // create a stream with one JsonObject for each detected face
     
-    TStream<JsonObject> faceEvents = frameData.flatMap(facesData -> {
-          List<JsonObject> results = new ArrayList<>();
-          for (Mat face : facesData.faces) {
-            results.add(JsonFaceEvent.toJsonObject(facesData.timestamp, face));
+    JsonMat.Encoding reducedEncoding = faceEncoding.reduced();
+    
+    TStream<JsonObject> faceEvents = toFaceEvents("faces", frameData,
+        (facesData, i) -> toBudgetedEvent("faces", event -> event.toString().length(),
+            () -> JsonFaceEvent.toJsonObject(facesData, i, faceEncoding),
+            () -> JsonFaceEvent.toJsonObject(facesData, i, reducedEncoding),
+            () -> JsonFaceEvent.toMetaJsonObject(facesData, i)));
+    
+    publishJsonEvents(faceEvents, "faces", iotDevice, mqttPublisher);
+    
+    //faceEvents.sink(FaceEventRecorder.newConsumer());
+  }
+  
+  /**
+   * Create the MQTT publisher, with a store-and-forward spool if there's a {@link #spoolDir}.
+   * @param top
+   * @return the publisher
+   */
+  protected MqttEventPublisher newMqttEventPublisher(Topology top) {
+    Properties props = loadIotDeviceCfg(iotDeviceCfgPath);
+    if (spoolDir == null) {
+      return new MqttEventPublisher(top, props);
+    }
+    return new MqttEventPublisher(top, props, getStoreAndForwardPublisher(props));
+  }
+  
+  /**
+   * Get the store-and-forward publisher for the {@link #spoolDir},
+   * creating it for the first topology.  The spool and its MQTT connection
+   * are shared by subsequent topologies, e.g., after an IotProvider
+   * stopApp/startApp, and closed when the process exits.
+   * @param props the device config
+   * @return the publisher
+   */
+  protected synchronized StoreAndForwardPublisher getStoreAndForwardPublisher(Properties props) {
+    if (storeAndForward == null) {
+      try {
+        storeAndForward = MqttEventPublisher.newStoreAndForwardPublisher(props,
+            spoolDir, spoolMaxBytes, spoolReplayPerSec);
+      } catch (Exception e) {
+        throw new RuntimeException("Unable to initialize the store-and-forward spool " + spoolDir, e);
+      }
+      StoreAndForwardPublisher publisher = storeAndForward;
+      Runtime.getRuntime().addShutdownHook(new Thread(() -> publisher.close()));
+    }
+    return storeAndForward;
+  }
+  
+  /**
+   * Publish JSON events.
+   * 
+   * <p>When spooling, the events are published via the store-and-forward
+   * mqttPublisher, on the IotDevice's topic for the eventId,
+   * so they aren't lost while the MQTT server is unreachable.
+   * Otherwise via the IotDevice.
+   * 
+   * @param events
+   * @param eventId
+   * @param iotDevice
+   * @param mqttPublisher null if not using MQTT
+   */
+  protected void publishJsonEvents(TStream<JsonObject> events, String eventId, IotDevice iotDevice,
+      MqttEventPublisher mqttPublisher) {
+    if (mqttPublisher != null && mqttPublisher.isStoreAndForward()) {
+      mqttPublisher.publish(events.map(event -> event.toString().getBytes(StandardCharsets.UTF_8)),
+          mqttPublisher.eventTopic(eventId), publishQoS);
+    }
+    else {
+      iotDevice.events(events, eventId, publishQoS);
+    }
+  }
+  
+  /**
+   * Create an event that fits the event's {@link #uplinkBudgets uplink budget}.
+   * 
+   * <p>Each successively lower fidelity event is created, and sized,
+   * until one fits.  Null if none does, or the messages budget is exhausted,
+   * in which case the event isn't published (it's sampled).
+   * Without a budget, the full event.
+   * 
+   * @param eventId
+   * @param size the event's size in bytes
+   * @param full create the full event
+   * @param reduced create a lower image quality event. null if none.
+   * @param meta create a metadata only event. null if none.
+   * @return the event. null if none fits.
+   */
+  protected <T> T toBudgetedEvent(String eventId, ToIntFunction<T> size,
+      Supplier<T> full, Supplier<T> reduced, Supplier<T> meta) {
+    if (!uplinkBudgets.hasBudget(eventId)) {
+      return full.get();
+    }
+    if (uplinkBudgets.canSend(eventId)) {
+      T event = full.get();
+      if (uplinkBudgets.tryAcquire(eventId, size.applyAsInt(event), UplinkBudgets.Level.FULL)) {
+        return event;
+      }
+      if (reduced != null) {
+        event = reduced.get();
+        if (uplinkBudgets.tryAcquire(eventId, size.applyAsInt(event), UplinkBudgets.Level.REDUCED)) {
+          return event;
+        }
+      }
+      if (meta != null) {
+        event = meta.get();
+        if (uplinkBudgets.tryAcquire(eventId, size.applyAsInt(event), UplinkBudgets.Level.META)) {
+          return event;
+        }
+      }
+    }
+    uplinkBudgets.countSampled(eventId);
+    return null;
+  }
+  
+  /**
+   * Create a stream of the events for each detected face.
+   * 
+   * <p>With a {@link #publishQueuePolicy}, the events are created on the
+   * frameData stream's thread but they're published from a {@link PublishQueue}'s
+   * thread so a slow publish doesn't stall the detection stream.
+   * The events are queued with the face's track id, if any.
+   * 
+   * @param eventId for the queue's name
+   * @param frameData
+   * @param toEvent create the event for {@code facesData.faces.get(i)}. null to not publish one.
+   * @return the events stream
+   */
+  protected <T> TStream<T> toFaceEvents(String eventId, TStream<FacesData> frameData,
+      BiFunction<FacesData,Integer,T> toEvent) {
+    if (publishQueuePolicy == null) {
+      return frameData.flatMap(facesData -> {
+            List<T> results = new ArrayList<>();
+            for (int i = 0; i < facesData.faces.size(); i++) {
+              T event = toEvent.apply(facesData, i);
+              if (event != null) {
+                results.add(event);
+              }
+            }
+            return results;
+          });
+    }
+    PublishQueue<T> queue = newPublishQueue(eventId);
+    frameData.sink(facesData -> {
+          for (int i = 0; i < facesData.faces.size(); i++) {
+            T event = toEvent.apply(facesData, i);
+            if (event != null) {
+              queue.offer(event, facesData.trackIds == null ? null : facesData.trackIds.get(i));
+            }
+          }
+        });
+    return drain(frameData.topology(), queue);
+  }
+  
+  /**
+   * Like {@link #toFaceEvents(String, TStream, BiFunction)} but an event
+   * for each frame with faces.
+   * 
+   * @param eventId for the queue's name
+   * @param frameData
+   * @param toEvent create the frame's event. null to not publish one.
+   * @return the events stream
+   */
+  protected <T> TStream<T> toFrameEvents(String eventId, TStream<FacesData> frameData,
+      Function<FacesData,T> toEvent) {
+    TStream<FacesData> withFaces = frameData.filter(facesData -> !facesData.faces.isEmpty());
+    if (publishQueuePolicy == null) {
+      return withFaces.map(facesData -> toEvent.apply(facesData));
+    }
+    PublishQueue<T> queue = newPublishQueue(eventId);
+    withFaces.sink(facesData -> {
+          T event = toEvent.apply(facesData);
+          if (event != null) {
+            queue.offer(event, null);
+          }
+        });
+    return drain(frameData.topology(), queue);
+  }
+  
+  /**
+   * Like {@link #toFrameEvents(String, TStream, Function)} for a stream of
+   * already created events, e.g., periodic statistics.
+   * 
+   * @param eventId for the queue's name
+   * @param events
+   * @return the events stream. {@code events} without a {@link #publishQueuePolicy}.
+   */
+  protected <T> TStream<T> toQueuedEvents(String eventId, TStream<T> events) {
+    if (publishQueuePolicy == null) {
+      return events;
+    }
+    PublishQueue<T> queue = newPublishQueue(eventId);
+    events.sink(event -> queue.offer(event, null));
+    return drain(events.topology(), queue);
+  }
+  
+  protected <T> PublishQueue<T> newPublishQueue(String eventId) {
+    PublishQueue<T> queue = new PublishQueue<>(eventId, publishQueueCapacity, publishQueuePolicy);
+    System.out.println(queue);
+    stats.addPublishQueue(queue);
+    return queue;
+  }
+  
+  /**
+   * Create a stream of the events drained from the queue.
+   * The drain thread is stopped when the topology is closed,
+   * e.g., by an edgentControl stopApp cmd.
+   */
+  private static <T> TStream<T> drain(Topology top, PublishQueue<T> queue) {
+    return top.events(new QueueDrainer<>(queue));
+  }
+  
+  /** Edgent closes an AutoCloseable events() function upon topology shutdown */
+  private static class QueueDrainer<T> implements
+      org.apache.edgent.function.Consumer<org.apache.edgent.function.Consumer<T>>, AutoCloseable {
+    private static final long serialVersionUID = 1L;
+    private final PublishQueue<T> queue;
+    
+    QueueDrainer(PublishQueue<T> queue) {
+      this.queue = queue;
+    }
+
+    @Override
+    public void accept(org.apache.edgent.function.Consumer<T> submitter) {
+      queue.startDraining(event -> submitter.accept(event));
+    }
+
+    @Override
+    public void close() {
+      queue.stopDraining();
+    }
+  }
+  
+  /**
+   * Publish {@link FrameEvent}s: periodic downscaled full frames, as keyframes
+   * and deltas of the changed tiles.
+   * 
+   * <p>The period is controllable via the {@link FrameEvent#STREAM_ALIAS}
+   * stream's PeriodMXBean.
+   * 
+   * @param frameData
+   * @param iotDevice
+   * @param mqttPublisher null if not using MQTT
+   */
+  protected void publishFrameEvents(TStream<FacesData> frameData, IotDevice iotDevice,
+      MqttEventPublisher mqttPublisher) {
+    
+    Topology top = frameData.topology();
+    
+    // keep a downscaled copy of the latest annotated frame
+    frameData.sink(facesData -> frameEventEncoder.update(facesData.timestamp, facesData.rgbFrame,
+        facesData.faceRects.toArray()));
+    
+    TStream<JsonObject> frameEvents = 
+        
+      top.poll(() -> frameEventEncoder.next(), frameEventPeriodMsec, TimeUnit.MILLISECONDS)
+      
+         .alias(FrameEvent.STREAM_ALIAS)
+         
+         .map(event -> toBudgetedEvent(FrameEvent.EVENT_ID, e -> e.toString().length(),
+             () -> event, null, null));
+    
+    publishJsonEvents(frameEvents, FrameEvent.EVENT_ID, iotDevice, mqttPublisher);
+    
+    top.poll(() -> frameEventEncoder.report(), 10, TimeUnit.SECONDS)
+        .sink(report -> System.out.println(report));
+    
+    edgent400Workaround.addControlId(top, TStream.TYPE, FrameEvent.STREAM_ALIAS, PeriodMXBean.class);
+  }
+  
+  /**
+   * Publish a {@link FaceMetaEvent} for each frame with faces.
+   * 
+   * <p>The encoded faces are instead kept in the {@link #faceCropCache}
+   * for retrieval via {@link #buildFaceCropCmdHandler(IotDevice, JsonObject)}.
+   * 
+   * @param frameData
+   * @param iotDevice
+   * @param mqttPublisher null if not using MQTT
+   */
+  protected void publishMetaEvents(TStream<FacesData> frameData, IotDevice iotDevice,
+      MqttEventPublisher mqttPublisher) {
+    
+    // create a stream with one metadata JsonObject for each frame with faces.
+    // Only the faces of a published event are encoded and cached.
+    TStream<JsonObject> metaEvents = toFrameEvents(FaceMetaEvent.EVENT_ID, frameData,
+        facesData -> {
+          JsonObject event = toBudgetedEvent(FaceMetaEvent.EVENT_ID, e -> e.toString().length(),
+              () -> toMetaEvent(facesData), null, null);
+          if (event != null) {
+            cacheFaces(facesData, FaceMetaEvent.getIds(event));
+          }
+          return event;
+        });
+    
+    publishJsonEvents(metaEvents, FaceMetaEvent.EVENT_ID, iotDevice, mqttPublisher);
+  }
+  
+  /** Create a frame's {@link FaceMetaEvent}.  See {@link #cacheFaces(FacesData, long[])}. */
+  protected JsonObject toMetaEvent(FacesData facesData) {
+    Rect[] faceRects = facesData.faceRects.toArray();
+    long[] ids = new long[faceRects.length];
+    for (int i = 0; i < ids.length; i++) {
+      ids[i] = faceEventSeq.incrementAndGet();
+    }
+    return FaceMetaEvent.toJsonObject(facesData.timestamp,
+        facesData.rgbFrame.width(), facesData.rgbFrame.height(),
+        ids, faceRects, facesData.trackIds);
+  }
+  
+  /** Cache the encoded faces of a frame's published {@link FaceMetaEvent} by their ids */
+  protected void cacheFaces(FacesData facesData, long[] ids) {
+    for (int i = 0; i < ids.length; i++) {
+      faceCropCache.put(ids[i], facesData.timestamp,
+          JsonMat.encode(facesData.faces.get(i), faceEncoding));
+    }
+  }
+  
+  /**
+   * Service {@link FaceCropCache#CMD_ID} device commands by publishing
+   * a {@link FaceCropCache#CROP_EVENT_ID} event for each requested face.
+   * 
+   * @param iotDevice
+   * @param config
+   */
+  protected void buildFaceCropCmdHandler(IotDevice iotDevice, JsonObject config) {
+    
+    TStream<JsonObject> faceCropCmds = iotDevice.commands(FaceCropCache.CMD_ID);
+    
+    TStream<JsonObject> faceCrops = faceCropCmds.flatMap(cmd -> {
+          try {
+            return faceCropCache.toCropEvents(cmd.get(IotDevice.CMD_PAYLOAD).getAsString());
+          } catch (RuntimeException e) {
+            System.out.println("Ignoring malformed " + FaceCropCache.CMD_ID + " cmd: " + cmd + " " + e);
+            return new ArrayList<>();
           }
-          return results;
         });
+    faceCrops = toQueuedEvents(FaceCropCache.CROP_EVENT_ID, faceCrops);
     
-    iotDevice.events(faceEvents, "faces", publishQoS);
+    MqttEventPublisher mqttPublisher = !useMqttDevice ? null
+        : newMqttEventPublisher(iotDevice.topology());
+    publishJsonEvents(faceCrops, FaceCropCache.CROP_EVENT_ID, iotDevice, mqttPublisher);
+  }
+  
+  /**
+   * Publish {@link FaceEventBatch} events instead of a "faces" event per face.
+   * 
+   * <p>With {@code --faceBatch=frame} a frame's faces are a batch.
+   * With {@code --faceBatch=window:<msec>[:<maxBytes>]} the faces detected
+   * in each msec window are a batch, split into more than one if
+   * their JSON exceeds maxBytes.  With MQTT the window's batches are gzip
+   * compressed.
+   * 
+   * @param frameData
+   * @param iotDevice
+   * @param mqttPublisher null if not using MQTT
+   */
+  protected void publishBatchedEvents(TStream<FacesData> frameData, IotDevice iotDevice,
+      MqttEventPublisher mqttPublisher) {
     
-    //faceEvents.sink(FaceEventRecorder.newConsumer());
+    if (faceBatch.equals("frame")) {
+      // create a stream with one batch for each frame with faces
+      TStream<JsonObject> batches = toFrameEvents(FaceEventBatch.EVENT_ID, frameData,
+          facesData -> toBudgetedEvent(FaceEventBatch.EVENT_ID, batch -> batch.toString().length(),
+              () -> {
+                List<JsonObject> faceEvents = new ArrayList<>();
+                for (int i = 0; i < facesData.faces.size(); i++) {
+                  faceEvents.add(JsonFaceEvent.toJsonObject(facesData, i, faceEncoding));
+                }
+                return FaceEventBatch.toJsonObject(faceEvents);
+              }, null, null));
+      
+      publishJsonEvents(batches, FaceEventBatch.EVENT_ID, iotDevice, mqttPublisher);
+      return;
+    }
+    
+    // create a stream with one JsonObject for each detected face
+    TStream<JsonObject> faceEvents = toFaceEvents(FaceEventBatch.EVENT_ID, frameData,
+        (facesData, i) -> JsonFaceEvent.toJsonObject(facesData, i, faceEncoding));
+    
+    // batch each window's faces
+    TStream<JsonObject> batches = faceEvents
+        .last(faceBatchMsec, TimeUnit.MILLISECONDS, faceEvent -> 0)
+        .batch((events, key) -> FaceEventBatch.toBatches(events, faceBatchMaxBytes))
+        .flatMap(windowBatches -> windowBatches);
+    
+    if (mqttPublisher != null) {
+      String topic = FaceEventBatch.toGzipTopic(mqttPublisher.eventTopic(FaceEventBatch.EVENT_ID));
+      TStream<byte[]> gzipBatches = batches.map(batch ->
+          toBudgetedEvent(FaceEventBatch.EVENT_ID, bytes -> bytes.length,
+              () -> FaceEventBatch.toGzipBytes(batch), null, null));
+      mqttPublisher.publish(gzipBatches, topic, publishQoS);
+    }
+    else {
+      // IotpDevice events are JSON
+      batches = batches.map(batch ->
+          toBudgetedEvent(FaceEventBatch.EVENT_ID, b -> b.toString().length(), () -> batch, null, null));
+      iotDevice.events(batches, FaceEventBatch.EVENT_ID, publishQoS);
+    }
+  }
+  
+  /**
+   * Like the JsonObject "faces" events but written directly to bytes,
+   * by a {@link JsonFaceEventWriter}, without the intermediate JsonObject
+   * and Strings.
+   * 
+   * @param frameData
+   * @param mqttPublisher
+   */
+  protected void publishStreamedJsonEvents(TStream<FacesData> frameData, MqttEventPublisher mqttPublisher) {
+    
+    // create a stream with one serialized FaceEvent for each detected face
+    
+    JsonFaceEventWriter writer = new JsonFaceEventWriter(faceEncoding);
+    JsonFaceEventWriter reducedWriter = new JsonFaceEventWriter(faceEncoding.reduced());
+    
+    TStream<byte[]> faceEvents = toFaceEvents("faces", frameData,
+        (facesData, i) -> toBudgetedEvent("faces", bytes -> bytes.length,
+            () -> writer.toBytes(facesData, i),
+            () -> reducedWriter.toBytes(facesData, i),
+            () -> JsonFaceEvent.toMetaJsonObject(facesData, i)
+                      .toString().getBytes(StandardCharsets.UTF_8)));
+    
+    mqttPublisher.publish(faceEvents, mqttPublisher.eventTopic("faces"), publishQoS);
+  }
+  
+  /**
+   * Publish a {@link BinaryFaceEvent} for each detected face.
+   * 
+   * <p>IotDevice events are JSON so the binary events are published directly
+   * to the MQTT server, on the device's event topic for {@link BinaryFaceEvent#EVENT_ID}
+   * but with a "bin" rather than "json" format.
+   * 
+   * @param frameData
+   * @param mqttPublisher
+   */
+  protected void publishBinaryEvents(TStream<FacesData> frameData, MqttEventPublisher mqttPublisher) {
+    
+    // create a stream with one byte[] for each detected face
+    
+    JsonMat.Encoding reducedEncoding = faceEncoding.reduced();
+    
+    // one seq per event, whichever fidelity fits, so a gap is a dropped event
+    TStream<byte[]> faceEvents = toFaceEvents(BinaryFaceEvent.EVENT_ID, frameData,
+        (facesData, i) -> {
+          long seq = faceEventSeq.incrementAndGet();
+          return toBudgetedEvent(BinaryFaceEvent.EVENT_ID, bytes -> bytes.length,
+              () -> BinaryFaceEvent.encode(facesData, i, seq, faceEncoding),
+              () -> BinaryFaceEvent.encode(facesData, i, seq, reducedEncoding),
+              null);
+        });
+    
+    String topic = BinaryFaceEvent.toBinaryTopic(mqttPublisher.eventTopic(BinaryFaceEvent.EVENT_ID));
+    mqttPublisher.publish(faceEvents, topic, publishQoS);
   }
   
   protected IotDevice newIotHubConnector(Topology top) {
@@ -148,12 +1020,14 @@ public class EdgentFaceDetectApp extends AbstractFaceDetectApp {
   }
 
   protected IotDevice newMqttDevice(Topology top, String iotDeviceCfgPath) {
+    return new MqttDevice(top, loadIotDeviceCfg(iotDeviceCfgPath));
+  }
+  
+  protected Properties loadIotDeviceCfg(String iotDeviceCfgPath) {
     try {
       Properties props = new Properties();
       props.load(new FileInputStream(new File(iotDeviceCfgPath)));
-      
-      return new MqttDevice(top, props);
-      
+      return props;
     } catch (IOException e) {
       throw new RuntimeException("Unable to initialize load MqttDevice config", e);
     }
@@ -170,6 +1044,148 @@ public class EdgentFaceDetectApp extends AbstractFaceDetectApp {
     useIotpQuickstart = argList.contains("--quickstart");
     iotDeviceCfgPath = argList.get(argList.size() - 1);
     
+    String faceCodec = "jpeg";
+    int faceBytes = 0;
+    for (String s : argList) {
+      if (s.startsWith("--faceCodec=")) {
+        faceCodec = s.split("=")[1];
+      }
+    }
+    for (String s : argList) {
+      if (s.startsWith("--faceBytes=")) {
+        faceBytes = Integer.valueOf(s.split("=")[1]);
+      }
+    }
+    faceEncoding = JsonMat.Encoding.fromSpec(faceCodec, faceBytes);
+    System.out.println("Face encoding: " + faceEncoding);
+    for (String s : argList) {
+      if (s.startsWith("--faceFormat=")) {
+        faceFormat = s.split("=")[1];
+      }
+    }
+    if (!Arrays.asList("json", "bin", "both", "meta").contains(faceFormat)) {
+      throw new Exception("Unsupported --faceFormat: " + faceFormat);
+    }
+    if ((faceFormat.equals("bin") || faceFormat.equals("both")) && !useMqttDevice) {
+      // IotpDevice events are JSON
+      throw new Exception("--faceFormat=" + faceFormat + " requires --mqtt");
+    }
+    
+    for (String s : argList) {
+      if (s.startsWith("--faceBatch=")) {
+        String[] batchSpec = s.split("=")[1].split(":");
+        faceBatch = batchSpec[0];
+        if (faceBatch.equals("window")) {
+          if (batchSpec.length < 2)
+            throw new Exception("--faceBatch=window requires <msec>");
+          faceBatchMsec = Long.valueOf(batchSpec[1]);
+          faceBatchMaxBytes = batchSpec.length > 2 ? Integer.valueOf(batchSpec[2]) : 0;
+        }
+      }
+    }
+    if (!Arrays.asList("none", "frame", "window").contains(faceBatch)) {
+      throw new Exception("Unsupported --faceBatch: " + faceBatch);
+    }
+    if (!faceBatch.equals("none") && (faceFormat.equals("bin") || faceFormat.equals("meta"))) {
+      throw new Exception("--faceBatch batches JSON face events. It can't be used with --faceFormat=" + faceFormat);
+    }
+    if (faceFormat.equals("meta")) {
+      long cropCacheBytes = 16 * 1024 * 1024;
+      for (String s : argList) {
+        if (s.startsWith("--cropCacheBytes=")) {
+          cropCacheBytes = Long.valueOf(s.split("=")[1]);
+        }
+      }
+      faceCropCache = new FaceCropCache(cropCacheBytes);
+      System.out.println("Face crop cache: maxBytes=" + cropCacheBytes);
+    }
+    if (!faceBatch.equals("none")) {
+      System.out.println("Face batching: " + faceBatch
+          + (faceBatch.equals("window") ? " msec:" + faceBatchMsec + " maxBytes:" + faceBatchMaxBytes : ""));
+    }
+    
+    for (String s : argList) {
+      if (s.startsWith("--publishQueue=")) {
+        String[] queueSpec = s.split("=")[1].split(":");
+        publishQueuePolicy = PublishQueue.Policy.valueOf(queueSpec[0].toUpperCase());
+        if (queueSpec.length > 1) {
+          publishQueueCapacity = Integer.valueOf(queueSpec[1]);
+        }
+      }
+    }
+    
+    for (String s : argList) {
+      if (s.startsWith("--spool=")) {
+        String[] spoolSpec = s.split("=")[1].split(":");
+        spoolDir = new File(spoolSpec[0]);
+        if (spoolSpec.length > 1) {
+          spoolMaxBytes = Long.valueOf(spoolSpec[1]) * 1024 * 1024;
+        }
+        if (spoolSpec.length > 2) {
+          spoolReplayPerSec = Double.valueOf(spoolSpec[2]);
+          if (spoolReplayPerSec <= 0) {
+            throw new Exception("--spool replayPerSec must be > 0: " + s);
+          }
+        }
+      }
+    }
+    if (spoolDir != null) {
+      if (!useMqttDevice) {
+        // the IotpDevice manages its own connection
+        throw new Exception("--spool requires --mqtt");
+      }
+      System.out.println("Store-and-forward spool: " + spoolDir
+          + " maxBytes:" + spoolMaxBytes + " replayPerSec:" + spoolReplayPerSec);
+    }
+    
+    for (String s : argList) {
+      if (s.startsWith("--frameEvents=")) {
+        String[] frameSpec = s.split("=")[1].split(":");
+        frameEventPeriodMsec = Long.valueOf(frameSpec[0]);
+        int width = frameSpec.length > 1 ? Integer.valueOf(frameSpec[1]) : 320;
+        int quality = frameSpec.length > 2 ? Integer.valueOf(frameSpec[2]) : 60;
+        frameEventEncoder = new FrameEvent.Encoder(width, 32, 12, 0.4, 30,
+            new JsonMat.Encoding(JsonMat.Codec.JPEG, quality, 0));
+        System.out.println("Frame events: periodMsec:" + frameEventPeriodMsec + " " + frameEventEncoder);
+      }
+    }
+    
+    for (String s : argList) {
+      if (s.startsWith("--detectChannels=")) {
+        detectChannels = Integer.valueOf(s.split("=")[1]);
+      }
+    }
+    if (detectChannels > 1 && (trackDetectInterval > 0 || detectThreads > 1)) {
+      throw new Exception("--detectChannels can't be combined with --track or --detectThreads");
+    }
+    
+    for (String s : argList) {
+      if (s.startsWith("--isolate=")) {
+        isolateDepth = Integer.valueOf(s.split("=")[1]);
+      }
+    }
+    
+    for (String s : argList) {
+      if (s.startsWith("--faceStats=")) {
+        String[] statsSpec = s.split("=")[1].split(":");
+        faceStatsWindowMsec = Long.valueOf(statsSpec[0]);
+        faceStatsSlideMsec = statsSpec.length > 1 ? Long.valueOf(statsSpec[1]) : 0;
+      }
+    }
+    
+    for (String s : argList) {
+      if (s.startsWith("--statsEvents=")) {
+        statsEventPeriodSec = Long.valueOf(s.split("=")[1]);
+      }
+    }
+    
+    for (String s : argList) {
+      if (s.startsWith("--uplinkBudget=")) {
+        uplinkBudgets.setBudgets(s.split("=")[1]);
+        System.out.println("Uplink budgets: " + uplinkBudgets.getBudgets());
+      }
+    }
+    
     if (useIotpQuickstart) {
       sensorPollValue = 1;
       sensorPollUnit = TimeUnit.SECONDS;
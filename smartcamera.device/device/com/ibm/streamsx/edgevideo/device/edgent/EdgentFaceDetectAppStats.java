@@ -4,15 +4,12 @@
  */
 package com.ibm.streamsx.edgevideo.device.edgent;
 
-import java.util.ArrayList;
-import java.util.List;
-
 import org.apache.edgent.connectors.iot.IotDevice;
 import org.apache.edgent.topology.TStream;
 import org.apache.edgent.topology.Topology;
-import org.opencv.core.Mat;
 
 import com.google.gson.JsonObject;
+import com.ibm.streamsx.edgevideo.device.CapturedFrame;
 import com.ibm.streamsx.edgevideo.device.FacesData;
 
 /**
@@ -27,6 +24,9 @@ public class EdgentFaceDetectAppStats extends EdgentFaceDetectApp {
 	/**
 	 * Build a topology that performs face detection in a single map() transformation.
 	 * 
+	 * <p>With an {@link #isolateDepth} the poll, detect and render
+	 * stages are separated by {@link StageBoundary StageBoundaries}.
+	 * 
 	 * <p>Override to use alternate approaches.
 	 * 
 	 * @param iotDevice IoT hub connector
@@ -38,51 +38,54 @@ public class EdgentFaceDetectAppStats extends EdgentFaceDetectApp {
 	  
 	  Topology top = iotDevice.topology();
     
-	  // create a stream with one FacesData for each processed frame
-    @SuppressWarnings("unused")
-    TStream<FacesData> frameData = 
-      top.poll(() -> { stats.getFrame.markStart(); 
-                       Mat frame = camera.grabFrame();
-                       stats.getFrame.markEnd();
-                       return frame;
-               },
-               sensorPollValue, sensorPollUnit)
+    TStream<CapturedFrame> rawRgbFrames = 
+      top.poll(() -> grabFrame(), sensorPollValue, sensorPollUnit)
            //.peek(t -> stats.getFrame.markEnd())
       
-         .filter(rawRgbFrame -> !rawRgbFrame.empty())
-           
+         .filter(rawRgbFrame -> !rawRgbFrame.empty());
+    
+    if (isolateDepth > 0) {
+      rawRgbFrames = isolateFrames(rawRgbFrames);
+    }
+    
+	  // create a stream with one FacesData for each processed frame
+    TStream<FacesData> frameData = 
+      rawRgbFrames
            .peek(t -> stats.imgProcess.markStart())
-         .map(rawRgbFrame -> faceDetector.detectFaces(rawRgbFrame))
-           .peek(t -> stats.imgProcess.markEnd())
-           
-           //.peek(t -> stats.render.markStart())
+         .map(rawRgbFrame -> isolateDepth > 0 ? detectFacesInCopy(rawRgbFrame) : detectFaces(rawRgbFrame))
+           .peek(t -> stats.imgProcess.markEnd());
+    
+    TStream<FacesData> renderData = isolateDepth > 0 ? isolateStage(frameData, "render") : frameData;
+    
+    renderData
+           .peek(t -> stats.render.markStart())
          .peek(facesData -> renderImages(facesData.rgbFrame, facesData.faceRects, facesData.faces))
-           //.peek(t -> stats.render.markEnd())
+           .peek(t -> stats.render.markEnd())
          
            .peek(t -> stats.reportFrameProcessed())
            ;
     
     //publish(frameData, iotDevice);
+    
+    if (isolateDepth > 0) {
+      renderData.sink(facesData -> facesData.close());
+    }
+    frameData.sink(facesData -> facesData.close());
   }
 
-  protected void publishEvents(TStream<FacesData> frameData, IotDevice iotDevice) {
+  @Override
+  protected void publishEvents(TStream<FacesData> frameData, IotDevice iotDevice,
+      MqttEventPublisher mqttPublisher) {
     
-    frameData = frameData.peek(t -> stats.publish.markStart());
+    // The publish Timer can't tell when iotDevice.events() is done with a tuple.
+    // With --publishQueue the queue's report includes the actual publish
+    // latency, depth and drops.  See toFaceEvents() and Stats.addPublishQueue().
     
     // create a stream with one JsonObject for each detected face    
-    TStream<JsonObject> faceEvents = 
-        frameData.flatMap(data -> {
-                  List<JsonObject> faces = new ArrayList<>();
-                  for (Mat face : data.faces) {
-                    faces.add(JsonFaceEvent.toJsonObject(data.timestamp, face));
-                  }
-                  return faces;
-                });
+    TStream<JsonObject> faceEvents = toFaceEvents("faces", frameData,
+        (data, i) -> JsonFaceEvent.toJsonObject(data, i, faceEncoding));
     
-    iotDevice.events(faceEvents, "faces", publishQoS)
-      .getFeed()
-        .peek(t -> stats.publish.markEnd()) // is this called after tuple is handled by events?
-      ;
+    iotDevice.events(faceEvents, "faces", publishQoS);
     
     //faceEvents.sink(FaceEventRecorder.newConsumer());
   }
@@ -3,8 +3,12 @@
 # Copyright IBM Corp. 2017
  */
 package com.ibm.streamsx.edgevideo.device.edgent;
+import java.io.File;
+import java.io.IOException;
 import java.util.Arrays;
 import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
 import org.apache.edgent.connectors.iot.IotDevice;
 import org.apache.edgent.execution.services.ControlService;
@@ -12,13 +16,16 @@ import org.apache.edgent.providers.iot.IotProvider;
 import org.apache.edgent.topology.TStream;
 
 import com.google.gson.JsonObject;
+import com.ibm.streamsx.edgevideo.device.DetectionRegions;
+import com.ibm.streamsx.edgevideo.device.FaceDetector;
+import com.ibm.streamsx.edgevideo.device.UplinkBudgets;
 
 /**
  * A version of the Edgent code that uses an IotProvider in order to 
  * benefit from the features it provides.
  */
 public class EdgentFaceDetectIotProviderApp extends EdgentFaceDetectApp {
-  protected static String usage = "[-h] [--fps=N | --pollMsec=N] [--resize=N] [--noautostart] {--quickstart | iot-device-cfg-file}  # see scripts/wiotp-device.cfg";
+  protected static String usage = "[-h] [--fps=N | --pollMsec=N] [--resize=N] [--tiles=<R>x<C>] [--motionGate] [--track=N] [--captureThread] [--detectThreads=N] [--detectChannels=N] [--isolate=N] [--regions=<file>] [--source={camera | video:<file> | images:<dir> | synthetic[:<W>x<H>]} [--replay={asap | recorded}] [--loop]] [--faceCodec={jpeg | png | webp | raw}[:<quality>]] [--faceBytes=N] [--faceFormat={json | bin | both | meta}] [--faceBatch={frame | window:<msec>[:<maxBytes>]}] [--cropCacheBytes=N] [--publishQueue={block | drop_oldest | drop_newest | coalesce_per_track}[:<capacity>]] [--spool=<dir>[:<maxMB>[:<replayPerSec>]]] [--uplinkBudget=<eventId>:<bytesPerSec>[:<msgsPerSec>][,...]] [--frameEvents=<periodMsec>[:<width>[:<quality>]]] [--faceStats=<windowMsec>[:<slideMsec>]] [--statsEvents=<periodSec>] [--noautostart] {--quickstart | iot-device-cfg-file}  # see scripts/wiotp-device.cfg";
 
   protected boolean autoSubmit = true;
 
@@ -28,17 +35,38 @@ public class EdgentFaceDetectIotProviderApp extends EdgentFaceDetectApp {
 	
   @Override
 	protected void buildAndStartTopologies() throws Exception {
-    camera.setAdjustFps(false);
+    if (camera != null) {
+      camera.setAdjustFps(false);
+    }
 
     // The standard Edgent IotProvider pattern of:
     //    create provider, register topology builder(s), start provider
     
     IotProvider provider = new IotProvider(topology -> newIotHubConnector(topology));
+    setupMetrics(provider.getServices());
     
     // uses edgent-1.1.0 auto-submit feature
     provider.registerTopology("face-detect", 
         (iotDevice, config) -> buildTopology(iotDevice, config), autoSubmit, null);
     
+    // enable runtime changes to the detection ROIs and exclusions
+    registerDetectionRegionsControl(provider.getServices().getService(ControlService.class));
+    
+    // enable runtime tuning of the face detector's accuracy vs throughput
+    registerFaceDetectorControl(provider.getServices().getService(ControlService.class));
+    
+    // enable runtime changes to the per event uplink budgets
+    registerUplinkBudgetControl(provider.getServices().getService(ControlService.class));
+    
+    // enable remote queries of the pipeline's health
+    registerPipelineStatsControl(provider.getServices().getService(ControlService.class));
+    
+    // retrieve cached face images for metadata events
+    if (faceCropCache != null) {
+      provider.registerTopology("faceCropCmdHandler", 
+          (iotDevice, config) -> buildFaceCropCmdHandler(iotDevice, config), true, null);
+    }
+    
     // come back to talk about this if their's time
     registerExtraFeatureDemoStuff(provider);
     
@@ -98,6 +126,271 @@ public class EdgentFaceDetectIotProviderApp extends EdgentFaceDetectApp {
     }
   }
   
+  protected void registerDetectionRegionsControl(ControlService controlSvc) {
+    
+    // e.g., setRegions("roi=rect:0.3,0.1,0.4,0.8;exclude=rect:0.8,0,0.2,0.3")
+    // via an "edgentControl" device cmd.  See the cmd app clients.
+    
+    String controlInstanceAlias = DetectionRegionsControl.ALIAS;
+    
+    controlSvc.registerControl(DetectionRegionsControl.CONTROL_TYPE, 
+        "DetectionRegionsControl-"+System.currentTimeMillis(), controlInstanceAlias, 
+        DetectionRegionsMXBean.class, 
+        new DetectionRegionsControl(faceDetector.getDetectionRegions(), regions -> setDetectionRegions(regions)));
+  }
+  
+  public interface DetectionRegionsMXBean {
+    /** @return the current regions spec, "" if none */
+    public String getRegions();
+    /** @param spec a {@link DetectionRegions} spec */
+    public void setRegions(String spec);
+    public void clearRegions();
+  }
+  
+  public static class DetectionRegionsControl implements DetectionRegionsMXBean {
+    public static String CONTROL_TYPE = "DetectionRegions";
+    public static String ALIAS = "detectionRegions";
+    private final Consumer<DetectionRegions> applier;
+    private volatile DetectionRegions regions;
+    
+    public DetectionRegionsControl(DetectionRegions initialRegions, Consumer<DetectionRegions> applier) {
+      this.regions = initialRegions;
+      this.applier = applier;
+    }
+
+    @Override
+    public String getRegions() {
+      DetectionRegions regions = this.regions;
+      return regions == null ? "" : regions.toString();
+    }
+
+    @Override
+    public void setRegions(String spec) {
+      DetectionRegions regions = DetectionRegions.fromSpec(spec);
+      applier.accept(regions);
+      this.regions = regions;
+    }
+
+    @Override
+    public void clearRegions() {
+      applier.accept(null);
+      this.regions = null;
+    }
+  }
+  
+  protected void registerFaceDetectorControl(ControlService controlSvc) {
+    
+    // e.g., setScaleFactor(1.2) via an "edgentControl" device cmd.
+    // See the cmd app clients.
+    
+    String controlInstanceAlias = FaceDetectorControl.ALIAS;
+    
+    controlSvc.registerControl(FaceDetectorControl.CONTROL_TYPE, 
+        "FaceDetectorControl-"+System.currentTimeMillis(), controlInstanceAlias, 
+        FaceDetectorMXBean.class, new FaceDetectorControl(() -> getFaceDetectors()));
+  }
+  
+  public interface FaceDetectorMXBean {
+    /** @return the current settings */
+    public String getSettings();
+    public void setResizeFactor(int resizeFactor);
+    public void setScaleFactor(double scaleFactor);
+    public void setMinNeighbors(int minNeighbors);
+    /** @param minFaceSize in resized frame pixels. 0 for no limit. */
+    public void setMinFaceSize(int minFaceSize);
+    /** @param maxFaceSize in resized frame pixels. 0 for no limit. */
+    public void setMaxFaceSize(int maxFaceSize);
+    /** @param path path to the classifier on the device */
+    public void setClassifier(String path);
+  }
+  
+  /**
+   * Applies changes to all of the app's FaceDetectors.
+   */
+  public static class FaceDetectorControl implements FaceDetectorMXBean {
+    public static String CONTROL_TYPE = "FaceDetector";
+    public static String ALIAS = "faceDetector";
+    private final Supplier<List<FaceDetector>> detectors;
+    
+    public FaceDetectorControl(Supplier<List<FaceDetector>> detectors) {
+      this.detectors = detectors;
+    }
+
+    @Override
+    public String getSettings() {
+      FaceDetector fd = detectors.get().get(0);
+      return String.format("resizeFactor=%d scaleFactor=%.2f minNeighbors=%d minFaceSize=%d maxFaceSize=%d classifier=%s",
+          fd.getResizeFactor(), fd.getScaleFactor(), fd.getMinNeighbors(),
+          fd.getMinFaceSize(), fd.getMaxFaceSize(), fd.getClassifierPath());
+    }
+
+    @Override
+    public void setResizeFactor(int resizeFactor) {
+      detectors.get().forEach(fd -> fd.setResizeFactor(resizeFactor));
+      System.out.println("FaceDetectorControl: " + getSettings());
+    }
+
+    @Override
+    public void setScaleFactor(double scaleFactor) {
+      detectors.get().forEach(fd -> fd.setScaleFactor(scaleFactor));
+      System.out.println("FaceDetectorControl: " + getSettings());
+    }
+
+    @Override
+    public void setMinNeighbors(int minNeighbors) {
+      detectors.get().forEach(fd -> fd.setMinNeighbors(minNeighbors));
+      System.out.println("FaceDetectorControl: " + getSettings());
+    }
+
+    @Override
+    public void setMinFaceSize(int minFaceSize) {
+      detectors.get().forEach(fd -> fd.setMinFaceSize(minFaceSize));
+      System.out.println("FaceDetectorControl: " + getSettings());
+    }
+
+    @Override
+    public void setMaxFaceSize(int maxFaceSize) {
+      detectors.get().forEach(fd -> fd.setMaxFaceSize(maxFaceSize));
+      System.out.println("FaceDetectorControl: " + getSettings());
+    }
+
+    @Override
+    public void setClassifier(String path) {
+      try {
+        for (FaceDetector fd : detectors.get()) {
+          fd.setClassifier(new File(path));
+        }
+      } catch (IOException e) {
+        throw new IllegalArgumentException(e.getMessage(), e);
+      }
+      System.out.println("FaceDetectorControl: " + getSettings());
+    }
+  }
+  
+  protected void registerUplinkBudgetControl(ControlService controlSvc) {
+    
+    // e.g., setBudget("faces:20000:5") via an "edgentControl" device cmd.
+    // See the cmd app clients.
+    
+    String controlInstanceAlias = UplinkBudgetControl.ALIAS;
+    
+    controlSvc.registerControl(UplinkBudgetControl.CONTROL_TYPE, 
+        "UplinkBudgetControl-"+System.currentTimeMillis(), controlInstanceAlias, 
+        UplinkBudgetMXBean.class, new UplinkBudgetControl(uplinkBudgets));
+  }
+  
+  public interface UplinkBudgetMXBean {
+    /** @return the current budget specs, "" if none */
+    public String getBudgets();
+    /** @param spec one or more comma separated {@link UplinkBudgets} specs */
+    public void setBudget(String spec);
+    public void clearBudget(String eventId);
+  }
+  
+  public static class UplinkBudgetControl implements UplinkBudgetMXBean {
+    public static String CONTROL_TYPE = "UplinkBudget";
+    public static String ALIAS = "uplinkBudget";
+    private final UplinkBudgets budgets;
+    
+    public UplinkBudgetControl(UplinkBudgets budgets) {
+      this.budgets = budgets;
+    }
+
+    @Override
+    public String getBudgets() {
+      return budgets.getBudgets();
+    }
+
+    @Override
+    public void setBudget(String spec) {
+      budgets.setBudgets(spec);
+      System.out.println("UplinkBudgetControl: " + getBudgets());
+    }
+
+    @Override
+    public void clearBudget(String eventId) {
+      budgets.clearBudget(eventId);
+      System.out.println("UplinkBudgetControl: " + getBudgets());
+    }
+  }
+  
+  protected void registerPipelineStatsControl(ControlService controlSvc) {
+    
+    // e.g., publishStats() via an "edgentControl" device cmd.
+    // See the cmd app clients.
+    
+    String controlInstanceAlias = PipelineStatsControl.ALIAS;
+    
+    controlSvc.registerControl(PipelineStatsControl.CONTROL_TYPE, 
+        "PipelineStatsControl-"+System.currentTimeMillis(), controlInstanceAlias, 
+        PipelineStatsMXBean.class, new PipelineStatsControl(pipelineStats));
+  }
+  
+  /**
+   * Read-only pipeline health.
+   * 
+   * <p>The "edgentControl" device cmds don't return a value so
+   * remotely use publishStats() and watch for the {@link PipelineStats#EVENT_ID} event.
+   */
+  public interface PipelineStatsMXBean {
+    public long getFrameProcessedCnt();
+    public long getDroppedFrameCnt();
+    /** @return the processed frames per second since the app started */
+    public double getFps();
+    /** @return the events waiting in the publish queues */
+    public int getPublishQueueDepth();
+    public long getPublishQueueDroppedCnt();
+    /** @return the frames dropped by the --isolate stage boundaries */
+    public long getStageBoundaryDroppedCnt();
+    /** Publish a {@link PipelineStats#EVENT_ID} event now */
+    public void publishStats();
+  }
+  
+  public static class PipelineStatsControl implements PipelineStatsMXBean {
+    public static String CONTROL_TYPE = "PipelineStats";
+    public static String ALIAS = "pipelineStats";
+    private final PipelineStats pipelineStats;
+    
+    public PipelineStatsControl(PipelineStats pipelineStats) {
+      this.pipelineStats = pipelineStats;
+    }
+
+    @Override
+    public long getFrameProcessedCnt() {
+      return pipelineStats.getSnapshot().frameProcessedCnt;
+    }
+
+    @Override
+    public long getDroppedFrameCnt() {
+      return pipelineStats.getSnapshot().droppedFrameCnt;
+    }
+
+    @Override
+    public double getFps() {
+      return pipelineStats.getSnapshot().getFps();
+    }
+
+    @Override
+    public int getPublishQueueDepth() {
+      return pipelineStats.getPublishQueueDepth();
+    }
+
+    @Override
+    public long getPublishQueueDroppedCnt() {
+      return pipelineStats.getPublishQueueDroppedCnt();
+    }
+
+    @Override
+    public long getStageBoundaryDroppedCnt() {
+      return pipelineStats.getStageBoundaryDroppedCnt();
+    }
+
+    @Override
+    public void publishStats() {
+      pipelineStats.publishStats();
+    }
+  }
+  
   protected void processArgs(String[] args) throws Exception {
     List<String> argList = Arrays.asList(args);
     if (argList.size() == 0 || argList.contains("-h") || argList.contains("--help"))
@@ -0,0 +1,123 @@
+/*
+# Licensed Materials - Property of IBM
+# Copyright IBM Corp. 2017
+ */
+package com.ibm.streamsx.edgevideo.device.edgent;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import com.ibm.streamsx.edgevideo.device.edgent.JsonMat.EncodedImage;
+
+/**
+ * A bounded, least recently used, cache of encoded face crops.
+ *
+ * <p>With {@link FaceMetaEvent metadata} events only the face ids and
+ * rectangles are published.  The encoded crops are kept here until
+ * a {@link #CMD_ID} device command requests them or they're evicted
+ * to keep the cache within its byte limit.
+ *
+ * <p>The command's payload is {@code {"ids":[<id>, ...]}}.
+ * Each requested crop is returned in a {@link #CROP_EVENT_ID} event:
+ * <pre>
+ * {"id":N, "timestamp":"...", "face":&lt;{@link JsonMat}&gt;}
+ * {"id":N, "missing":true}   // unknown or evicted
+ * </pre>
+ */
+@SuppressWarnings("javadoc")
+public class FaceCropCache {
+  public static final String CMD_ID = "getFaceCrops";
+  public static final String CROP_EVENT_ID = "faceCrop";
+
+  private static class Crop {
+    final long timestamp;
+    final EncodedImage image;
+    Crop(long timestamp, EncodedImage image) {
+      this.timestamp = timestamp;
+      this.image = image;
+    }
+  }
+
+  private final long maxBytes;
+  private final Map<Long, Crop> crops = new LinkedHashMap<>(16, 0.75f, true);  // access order
+  private long bytes;
+  private long evictedCnt;
+
+  /**
+   * @param maxBytes the maximum total encoded image bytes
+   */
+  public FaceCropCache(long maxBytes) {
+    this.maxBytes = maxBytes;
+  }
+
+  /** Add a crop, evicting the least recently used ones to make room */
+  public synchronized void put(long id, long timestamp, EncodedImage image) {
+    Crop prev = crops.put(id, new Crop(timestamp, image));
+    if (prev != null)
+      bytes -= prev.image.bytes.length;
+    bytes += image.bytes.length;
+    for (Iterator<Crop> it = crops.values().iterator(); bytes > maxBytes && it.hasNext(); ) {
+      bytes -= it.next().image.bytes.length;
+      it.remove();
+      evictedCnt++;
+    }
+  }
+
+  /** @return the crop event for the id */
+  public JsonObject toCropEvent(long id) {
+    Crop crop;
+    synchronized(this) {
+      crop = crops.get(id);
+    }
+    JsonObject event = new JsonObject();
+    event.addProperty("id", id);
+    if (crop == null) {
+      event.addProperty("missing", true);
+    }
+    else {
+      event.addProperty("timestamp", JsonFaceEvent.encodeTimestamp(crop.timestamp));
+      event.add("face", JsonMat.toJsonObject(crop.image));
+    }
+    return event;
+  }
+
+  /**
+   * Get the crop events for a {@link #CMD_ID} command's payload.
+   * @param cmdPayload {@code {"ids":[<id>, ...]}}
+   * @return the crop events
+   */
+  public List<JsonObject> toCropEvents(String cmdPayload) {
+    List<JsonObject> events = new ArrayList<>();
+    JsonObject payload = new JsonParser().parse(cmdPayload).getAsJsonObject();
+    for (JsonElement id : payload.getAsJsonArray("ids")) {
+      events.add(toCropEvent(id.getAsLong()));
+    }
+    return events;
+  }
+
+  /** Make a {@link #CMD_ID} command's payload */
+  public static JsonObject mkCmdPayload(long... ids) {
+    JsonArray jaIds = new JsonArray();
+    for (long id : ids) {
+      jaIds.add(new JsonPrimitive(id));
+    }
+    JsonObject payload = new JsonObject();
+    payload.add("ids", jaIds);
+    return payload;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return String.format("FaceCropCache crops=%d bytes=%d maxBytes=%d evicted=%d",
+        crops.size(), bytes, maxBytes, evictedCnt);
+  }
+
+}
@@ -0,0 +1,121 @@
+/*
+# Licensed Materials - Property of IBM
+# Copyright IBM Corp. 2017
+ */
+package com.ibm.streamsx.edgevideo.device.edgent;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+/**
+ * A batch of FaceEvents in a single event.
+ *
+ * <pre>
+ * {"count":N, "events":[ &lt;{@link JsonFaceEvent}&gt;, ... ]}
+ * </pre>
+ *
+ * <p>The event id is {@link #EVENT_ID}.  With MQTT a batch may
+ * instead be published gzip compressed with a {@link #GZIP_TOPIC_FORMAT}
+ * rather than "json" topic format.
+ */
+@SuppressWarnings("javadoc")
+public class FaceEventBatch {
+  public static final String EVENT_ID = "facesBatch";
+  public static final String GZIP_TOPIC_FORMAT = "gzip";
+
+  /** Create a batch of FaceEvents */
+  public static JsonObject toJsonObject(List<JsonObject> faceEvents) {
+    JsonArray events = new JsonArray();
+    for (JsonObject faceEvent : faceEvents) {
+      events.add(faceEvent);
+    }
+    JsonObject batch = new JsonObject();
+    batch.addProperty("count", faceEvents.size());
+    batch.add("events", events);
+    return batch;
+  }
+
+  /**
+   * Split FaceEvents into batches of at most {@code maxBytes} of JSON.
+   * @param faceEvents
+   * @param maxBytes 0 for no limit. A single event larger than this is a batch of its own.
+   * @return the batches. Empty if there are no faceEvents.
+   */
+  public static List<JsonObject> toBatches(List<JsonObject> faceEvents, int maxBytes) {
+    List<JsonObject> batches = new ArrayList<>();
+    List<JsonObject> batch = new ArrayList<>();
+    int batchBytes = 0;
+    for (JsonObject faceEvent : faceEvents) {
+      // an ascii estimate is good enough. Events are ascii but for the separator.
+      int eventBytes = maxBytes > 0 ? faceEvent.toString().length() + 1 : 0;
+      if (!batch.isEmpty() && maxBytes > 0 && batchBytes + eventBytes > maxBytes) {
+        batches.add(toJsonObject(batch));
+        batch = new ArrayList<>();
+        batchBytes = 0;
+      }
+      batch.add(faceEvent);
+      batchBytes += eventBytes;
+    }
+    if (!batch.isEmpty()) {
+      batches.add(toJsonObject(batch));
+    }
+    return batches;
+  }
+
+  /** Get the FaceEvents from a batch */
+  public static List<JsonObject> getFaceEvents(JsonObject batch) {
+    List<JsonObject> faceEvents = new ArrayList<>();
+    for (JsonElement faceEvent : batch.getAsJsonArray("events")) {
+      faceEvents.add(faceEvent.getAsJsonObject());
+    }
+    return faceEvents;
+  }
+
+  /** gzip a batch */
+  public static byte[] toGzipBytes(JsonObject batch) {
+    try {
+      ByteArrayOutputStream baos = new ByteArrayOutputStream();
+      try (OutputStream gzos = new GZIPOutputStream(baos)) {
+        gzos.write(batch.toString().getBytes(StandardCharsets.UTF_8));
+      }
+      return baos.toByteArray();
+    } catch (IOException e) {
+      throw new RuntimeException(e);  // not expected
+    }
+  }
+
+  /** gunzip a batch */
+  public static JsonObject fromGzipBytes(byte[] payload) {
+    try (InputStreamReader reader = new InputStreamReader(
+        new GZIPInputStream(new ByteArrayInputStream(payload)), StandardCharsets.UTF_8)) {
+      return new JsonParser().parse(reader).getAsJsonObject();
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Not a gzip face event batch", e);
+    }
+  }
+
+  /**
+   * Convert a device's JSON event topic to the gzip format topic.
+   * @param jsonTopic e.g., "id/device-1/evt/facesBatch/fmt/json"
+   * @return the topic - e.g., "id/device-1/evt/facesBatch/fmt/gzip"
+   */
+  public static String toGzipTopic(String jsonTopic) {
+    if (!jsonTopic.endsWith("/fmt/json"))
+      throw new IllegalArgumentException("Event topic doesn't end with /fmt/json: " + jsonTopic);
+    return jsonTopic.substring(0, jsonTopic.length() - "json".length()) + GZIP_TOPIC_FORMAT;
+  }
+
+}
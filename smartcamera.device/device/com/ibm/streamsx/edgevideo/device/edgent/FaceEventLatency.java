@@ -0,0 +1,147 @@
+/*
+# Licensed Materials - Property of IBM
+# Copyright IBM Corp. 2017
+ */
+package com.ibm.streamsx.edgevideo.device.edgent;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.google.gson.JsonObject;
+import com.ibm.streamsx.edgevideo.device.LatencyHistogram;
+
+/**
+ * An app client's end-to-end latency distributions for traced face events.
+ *
+ * <p>A traced face event carries its frame's sequence number and capture time,
+ * the detection time and the publish time.  On receipt the client records the
+ * capture-to-detect, detect-to-publish, publish-to-receive and capture-to-receive
+ * latencies and, once the face is rendered, the receive-to-render latency.
+ * A report of the distributions since the previous report is printed
+ * every {@value #REPORT_INTERVAL_SEC} seconds.
+ *
+ * <p>Per device, a gap in the frame sequence numbers is counted as missed frames.
+ * Those are frames dropped on the device or in transit, but also frames in which
+ * no face was detected, so the count is an upper bound on the dropped frames.
+ * A lower sequence number than the last is counted as a device restart.
+ *
+ * <p>The device-to-client latencies compare the device's and the client's clocks.
+ * They're only as good as the clocks' synchronization.
+ */
+public class FaceEventLatency {
+  public static final int REPORT_INTERVAL_SEC = 10;
+
+  private final LatencyHistogram captureToDetect = new LatencyHistogram();
+  private final LatencyHistogram detectToPublish = new LatencyHistogram();
+  private final LatencyHistogram publishToReceive = new LatencyHistogram();
+  private final LatencyHistogram captureToReceive = new LatencyHistogram();
+  private final LatencyHistogram receiveToRender = new LatencyHistogram();
+  // guarded by this
+  private final Map<String,Long> lastFrameSeq = new HashMap<>();
+  private long eventCnt;
+  private long untracedCnt;
+  private long missedFrameCnt;
+  private long restartCnt;
+  private long lastReportMillis = System.currentTimeMillis();
+  private Snapshot lastReport = new Snapshot();
+
+  private class Snapshot {
+    final LatencyHistogram.Snapshot captureToDetect = FaceEventLatency.this.captureToDetect.snapshot();
+    final LatencyHistogram.Snapshot detectToPublish = FaceEventLatency.this.detectToPublish.snapshot();
+    final LatencyHistogram.Snapshot publishToReceive = FaceEventLatency.this.publishToReceive.snapshot();
+    final LatencyHistogram.Snapshot captureToReceive = FaceEventLatency.this.captureToReceive.snapshot();
+    final LatencyHistogram.Snapshot receiveToRender = FaceEventLatency.this.receiveToRender.snapshot();
+  }
+
+  /**
+   * Record a received JSON face event.
+   * @param deviceId the sending device
+   * @param faceEvent the face event. Ignored if it isn't traced.
+   * @param receiveMillis the time it was received
+   * @return true if the event was traced
+   */
+  public boolean record(String deviceId, JsonObject faceEvent, long receiveMillis) {
+    if (!JsonFaceEvent.hasTrace(faceEvent)) {
+      synchronized(this) {
+        untracedCnt++;
+      }
+      return false;
+    }
+    record(deviceId, JsonFaceEvent.getFrameSeq(faceEvent),
+        JsonFaceEvent.getCaptureTimestampMillis(faceEvent),
+        JsonFaceEvent.getTimestampMillis(faceEvent),
+        JsonFaceEvent.getPublishTimestampMillis(faceEvent),
+        receiveMillis);
+    return true;
+  }
+
+  /**
+   * Record a received binary face event.
+   * @param deviceId the sending device
+   * @param faceEvent the face event. Ignored if it isn't traced (version 1).
+   * @param receiveMillis the time it was received
+   * @return true if the event was traced
+   */
+  public boolean record(String deviceId, BinaryFaceEvent faceEvent, long receiveMillis) {
+    if (faceEvent.frameSeq == 0) {
+      synchronized(this) {
+        untracedCnt++;
+      }
+      return false;
+    }
+    record(deviceId, faceEvent.frameSeq, faceEvent.captureTimestamp,
+        faceEvent.timestamp, faceEvent.publishTimestamp, receiveMillis);
+    return true;
+  }
+
+  /**
+   * Record that a traced face event's face was rendered.
+   * @param receiveMillis the time the event was received
+   */
+  public void recordRendered(long receiveMillis) {
+    receiveToRender.record(toNanos(System.currentTimeMillis() - receiveMillis));
+  }
+
+  private void record(String deviceId, long frameSeq, long captureMillis,
+      long detectMillis, long publishMillis, long receiveMillis) {
+    captureToDetect.record(toNanos(detectMillis - captureMillis));
+    detectToPublish.record(toNanos(publishMillis - detectMillis));
+    publishToReceive.record(toNanos(receiveMillis - publishMillis));
+    captureToReceive.record(toNanos(receiveMillis - captureMillis));
+
+    synchronized(this) {
+      eventCnt++;
+      Long last = lastFrameSeq.put(deviceId, frameSeq);
+      if (last != null) {
+        if (frameSeq < last)
+          restartCnt++;
+        else if (frameSeq > last + 1)
+          missedFrameCnt += frameSeq - last - 1;
+        // else another face from the same frame or the next frame
+      }
+      if (receiveMillis - lastReportMillis >= TimeUnit.SECONDS.toMillis(REPORT_INTERVAL_SEC)) {
+        report(receiveMillis);
+      }
+    }
+  }
+
+  private void report(long nowMillis) {
+    Snapshot now = new Snapshot();
+    System.out.println(String.format("%s Face event latency msec over %.1f sec: events: %d untraced: %d missedFrames: %d restarts: %d",
+        getClass().getSimpleName(), (nowMillis - lastReportMillis) / 1000.0,
+        eventCnt, untracedCnt, missedFrameCnt, restartCnt));
+    System.out.println("  captureToDetect:  " + now.captureToDetect.minus(lastReport.captureToDetect));
+    System.out.println("  detectToPublish:  " + now.detectToPublish.minus(lastReport.detectToPublish));
+    System.out.println("  publishToReceive: " + now.publishToReceive.minus(lastReport.publishToReceive));
+    System.out.println("  captureToReceive: " + now.captureToReceive.minus(lastReport.captureToReceive));
+    System.out.println("  receiveToRender:  " + now.receiveToRender.minus(lastReport.receiveToRender));
+    lastReport = now;
+    lastReportMillis = nowMillis;
+  }
+
+  private static long toNanos(long millis) {
+    return TimeUnit.MILLISECONDS.toNanos(millis);
+  }
+
+}
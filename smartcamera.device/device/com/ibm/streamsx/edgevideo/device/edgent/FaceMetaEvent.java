@@ -0,0 +1,64 @@
+/*
+# Licensed Materials - Property of IBM
+# Copyright IBM Corp. 2017
+ */
+package com.ibm.streamsx.edgevideo.device.edgent;
+
+import java.util.List;
+
+import org.opencv.core.Rect;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+/**
+ * Face detection metadata, without the face images, to/from a JsonObject.
+ *
+ * <p>One event per frame with faces:
+ * <pre>
+ * {"timestamp":"...", "frameWidth":W, "frameHeight":H, "count":N,
+ *  "faces":[ {"id":N, "x":X, "y":Y, "width":W, "height":H[, "trackId":N]}, ... ]}
+ * </pre>
+ * The rectangles are in the (resized) frame's coordinates.
+ * A face's image can be retrieved by its id from the device's {@link FaceCropCache}.
+ */
+@SuppressWarnings("javadoc")
+public class FaceMetaEvent {
+  public static final String EVENT_ID = "faceMeta";
+
+  /** Create a metadata event */
+  public static JsonObject toJsonObject(long timestamp, int frameWidth, int frameHeight,
+      long[] ids, Rect[] rects, List<Long> trackIds) {
+    JsonArray faces = new JsonArray();
+    for (int i = 0; i < ids.length; i++) {
+      JsonObject face = new JsonObject();
+      face.addProperty("id", ids[i]);
+      face.addProperty("x", rects[i].x);
+      face.addProperty("y", rects[i].y);
+      face.addProperty("width", rects[i].width);
+      face.addProperty("height", rects[i].height);
+      if (trackIds != null) {
+        face.addProperty("trackId", trackIds.get(i));
+      }
+      faces.add(face);
+    }
+    JsonObject event = new JsonObject();
+    event.addProperty("timestamp", JsonFaceEvent.encodeTimestamp(timestamp));
+    event.addProperty("frameWidth", frameWidth);
+    event.addProperty("frameHeight", frameHeight);
+    event.addProperty("count", ids.length);
+    event.add("faces", faces);
+    return event;
+  }
+
+  /** Get the face ids from a metadata event */
+  public static long[] getIds(JsonObject event) {
+    JsonArray faces = event.getAsJsonArray("faces");
+    long[] ids = new long[faces.size()];
+    for (int i = 0; i < ids.length; i++) {
+      ids[i] = faces.get(i).getAsJsonObject().get("id").getAsLong();
+    }
+    return ids;
+  }
+
+}
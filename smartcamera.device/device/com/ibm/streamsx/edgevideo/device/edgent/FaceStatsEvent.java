@@ -0,0 +1,88 @@
+/*
+# Licensed Materials - Property of IBM
+# Copyright IBM Corp. 2017
+ */
+package com.ibm.streamsx.edgevideo.device.edgent;
+
+import java.util.List;
+
+import org.opencv.core.Rect;
+
+import com.google.gson.JsonObject;
+import com.ibm.streamsx.edgevideo.device.FacesData;
+
+/**
+ * Windowed face detection statistics, to a JsonObject.
+ *
+ * <p>One compact event per window instead of the face images:
+ * <pre>
+ * {"timestamp":"...", "windowMsec":N, "slideMsec":N, "frames":N, "faces":N,
+ *  "facesPerSec":F, "peakFacesPerFrame":N, "avgFaceWidth":N, "avgFaceHeight":N,
+ *  "avgDetectMsec":F, "maxDetectMsec":F}
+ * </pre>
+ * slideMsec is 0 for a tumbling window.  The timestamp is the end of the window.
+ */
+@SuppressWarnings("javadoc")
+public class FaceStatsEvent {
+  public static final String EVENT_ID = "faceStats";
+  /** startApp config properties that override the app's --faceStats window */
+  public static final String CONFIG_WINDOW_MSEC = "faceStatsWindowMsec";
+  public static final String CONFIG_SLIDE_MSEC = "faceStatsSlideMsec";
+
+  /** A frame's contribution to the statistics. Doesn't retain the FacesData. */
+  public static class Sample {
+    public final long timestamp;
+    public final int faceCnt;
+    public final long faceWidthSum;
+    public final long faceHeightSum;
+    public final long detectNanos;
+
+    public Sample(FacesData facesData) {
+      timestamp = facesData.timestamp;
+      Rect[] rects = facesData.faceRects.toArray();
+      long widthSum = 0, heightSum = 0;
+      for (Rect r : rects) {
+        widthSum += r.width;
+        heightSum += r.height;
+      }
+      faceCnt = rects.length;
+      faceWidthSum = widthSum;
+      faceHeightSum = heightSum;
+      detectNanos = facesData.detectNanos;
+    }
+  }
+
+  /** Create a statistics event for a window's samples */
+  public static JsonObject toJsonObject(List<Sample> samples, long windowMsec, long slideMsec) {
+    long faceCnt = 0, widthSum = 0, heightSum = 0, detectNanosSum = 0, maxDetectNanos = 0;
+    int peakFaces = 0;
+    for (Sample s : samples) {
+      faceCnt += s.faceCnt;
+      widthSum += s.faceWidthSum;
+      heightSum += s.faceHeightSum;
+      detectNanosSum += s.detectNanos;
+      maxDetectNanos = Math.max(maxDetectNanos, s.detectNanos);
+      peakFaces = Math.max(peakFaces, s.faceCnt);
+    }
+    int frameCnt = samples.size();
+
+    JsonObject event = new JsonObject();
+    event.addProperty("timestamp", JsonFaceEvent.encodeTimestamp(System.currentTimeMillis()));
+    event.addProperty("windowMsec", windowMsec);
+    event.addProperty("slideMsec", slideMsec);
+    event.addProperty("frames", frameCnt);
+    event.addProperty("faces", faceCnt);
+    event.addProperty("facesPerSec", round2(faceCnt * 1000.0 / windowMsec));
+    event.addProperty("peakFacesPerFrame", peakFaces);
+    event.addProperty("avgFaceWidth", faceCnt == 0 ? 0 : widthSum / faceCnt);
+    event.addProperty("avgFaceHeight", faceCnt == 0 ? 0 : heightSum / faceCnt);
+    event.addProperty("avgDetectMsec", frameCnt == 0 ? 0 : round2(detectNanosSum / 1e6 / frameCnt));
+    event.addProperty("maxDetectMsec", round2(maxDetectNanos / 1e6));
+    return event;
+  }
+
+  private static double round2(double d) {
+    return Math.round(d * 100) / 100.0;
+  }
+
+}
@@ -0,0 +1,264 @@
+/*
+# Licensed Materials - Property of IBM
+# Copyright IBM Corp. 2017
+ */
+package com.ibm.streamsx.edgevideo.device.edgent;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.opencv.core.Core;
+import org.opencv.core.Mat;
+import org.opencv.core.Point;
+import org.opencv.core.Rect;
+import org.opencv.core.Scalar;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+/**
+ * Downscaled, compressed, full (annotated) frame events: keyframes and
+ * the tiles that changed since the keyframe.
+ *
+ * <p>A keyframe:
+ * <pre>
+ * {"timestamp":"...", "seq":N, "keySeq":N, "width":W, "height":H, "frame":{JsonMat}}
+ * </pre>
+ * A delta, relative to the keyframe whose seq is keySeq:
+ * <pre>
+ * {"timestamp":"...", "seq":N, "keySeq":K, "width":W, "height":H, "tileSize":T,
+ *  "tiles":[ {"x":X, "y":Y, "tile":{JsonMat}}, ... ]}
+ * </pre>
+ * A delta includes every tile that differs from the keyframe, not just those
+ * that changed since the previous delta, so a lost delta doesn't matter.
+ * Use a {@link Decoder} to rebuild the frames.
+ */
+public class FrameEvent {
+  public static final String EVENT_ID = "frame";
+  /** the alias of the periodic stream. It's controllable via its PeriodMXBean. */
+  public static final String STREAM_ALIAS = "frameEventStream";
+
+  /**
+   * Creates the events, on a period, from the latest frame.
+   *
+   * <p>{@link #update(long, Mat)} from the frame stream keeps a downscaled copy
+   * of the latest frame.  {@link #next()} from the periodic stream compares it
+   * to the keyframe.  The fraction of the tiles whose mean absolute difference
+   * exceeds {@code tileThreshold} is the scene change score.  A score of at least
+   * {@code sceneChangeThreshold}, or {@code maxDeltas} deltas, yields
+   * a new keyframe.  Otherwise a delta of the changed tiles, or nothing
+   * if none changed.
+   */
+  public static class Encoder {
+    private final int width;
+    private final int tileSize;
+    private final double tileThreshold;
+    private final double sceneChangeThreshold;
+    private final int maxDeltas;
+    private final JsonMat.Encoding encoding;
+    // guarded by this
+    private Mat latest = new Mat();
+    private long latestTimestamp;
+    private boolean hasLatest;
+    // only used by next()
+    private Mat current = new Mat();
+    private final Mat keyframe = new Mat();
+    private final Mat diff = new Mat();
+    private final Mat tileDiffs = new Mat();
+    private long seq;
+    private long keySeq;
+    private int deltasSinceKey;
+    private long keyCnt;
+    private long deltaCnt;
+    private long unchangedCnt;
+    private long tileCnt;
+
+    /**
+     * @param width downscale frames to this width
+     * @param tileSize delta tile width and height
+     * @param tileThreshold mean absolute pixel difference for a tile to have changed
+     * @param sceneChangeThreshold fraction of changed tiles for a new keyframe
+     * @param maxDeltas max deltas before a new keyframe, so new clients can sync up
+     * @param encoding how to compress the keyframe and tiles
+     */
+    public Encoder(int width, int tileSize, double tileThreshold,
+        double sceneChangeThreshold, int maxDeltas, JsonMat.Encoding encoding) {
+      this.width = width;
+      this.tileSize = tileSize;
+      this.tileThreshold = tileThreshold;
+      this.sceneChangeThreshold = sceneChangeThreshold;
+      this.maxDeltas = maxDeltas;
+      this.encoding = encoding;
+    }
+
+    /**
+     * Note the latest frame.
+     *
+     * <p>The faces are annotated on the downscaled copy so the frame
+     * itself is only read.
+     * @param timestamp
+     * @param rgbFrame the frame. Not retained.
+     * @param faceRects the faces to annotate
+     */
+    public void update(long timestamp, Mat rgbFrame, Rect[] faceRects) {
+      double scale = (double) Math.min(width, rgbFrame.width()) / rgbFrame.width();
+      Size size = new Size(Math.round(rgbFrame.width() * scale), Math.round(rgbFrame.height() * scale));
+      synchronized(this) {
+        Imgproc.resize(rgbFrame, latest, size, 0, 0, Imgproc.INTER_AREA);
+        for (Rect r : faceRects) {
+          Imgproc.rectangle(latest, new Point(r.x * scale, r.y * scale),
+              new Point((r.x + r.width) * scale, (r.y + r.height) * scale), new Scalar(0, 255, 0));
+        }
+        latestTimestamp = timestamp;
+        hasLatest = true;
+      }
+    }
+
+    /**
+     * Create an event for the latest frame.
+     * @return the event. null if there's no new frame or it's unchanged.
+     */
+    public JsonObject next() {
+      long timestamp;
+      synchronized(this) {
+        if (!hasLatest)
+          return null;
+        Mat t = current;
+        current = latest;
+        latest = t;
+        timestamp = latestTimestamp;
+        hasLatest = false;
+      }
+
+      if (keyframe.empty() || keyframe.width() != current.width() || keyframe.height() != current.height()
+          || deltasSinceKey >= maxDeltas) {
+        return toKeyframe(timestamp);
+      }
+
+      int tilesX = (current.width() + tileSize - 1) / tileSize;
+      int tilesY = (current.height() + tileSize - 1) / tileSize;
+      Core.absdiff(current, keyframe, diff);
+      // each tile's mean difference, per channel
+      Imgproc.resize(diff, tileDiffs, new Size(tilesX, tilesY), 0, 0, Imgproc.INTER_AREA);
+      byte[] means = new byte[(int) (tileDiffs.total() * tileDiffs.channels())];
+      tileDiffs.get(0, 0, means);
+
+      int channels = tileDiffs.channels();
+      List<Integer> changed = new ArrayList<>();
+      for (int t = 0; t < tilesX * tilesY; t++) {
+        int sum = 0;
+        for (int c = 0; c < channels; c++) {
+          sum += means[t * channels + c] & 0xff;
+        }
+        if ((double) sum / channels > tileThreshold) {
+          changed.add(t);
+        }
+      }
+
+      if ((double) changed.size() / (tilesX * tilesY) >= sceneChangeThreshold) {
+        return toKeyframe(timestamp);
+      }
+      if (changed.isEmpty()) {
+        unchangedCnt++;
+        return null;
+      }
+
+      JsonArray tiles = new JsonArray();
+      for (int t : changed) {
+        int x = (t % tilesX) * tileSize;
+        int y = (t / tilesX) * tileSize;
+        Mat tileMat = current.submat(new Rect(x, y,
+            Math.min(tileSize, current.width() - x), Math.min(tileSize, current.height() - y)));
+        JsonObject tile = new JsonObject();
+        tile.addProperty("x", x);
+        tile.addProperty("y", y);
+        tile.add("tile", JsonMat.toJsonObject(tileMat, encoding));
+        tileMat.release();
+        tiles.add(tile);
+      }
+      deltasSinceKey++;
+      deltaCnt++;
+      tileCnt += changed.size();
+      JsonObject event = newEvent(timestamp);
+      event.addProperty("tileSize", tileSize);
+      event.add("tiles", tiles);
+      return event;
+    }
+
+    private JsonObject toKeyframe(long timestamp) {
+      current.copyTo(keyframe);
+      deltasSinceKey = 0;
+      keyCnt++;
+      keySeq = seq + 1;
+      JsonObject event = newEvent(timestamp);
+      event.add("frame", JsonMat.toJsonObject(keyframe, encoding));
+      return event;
+    }
+
+    private JsonObject newEvent(long timestamp) {
+      JsonObject event = new JsonObject();
+      event.addProperty("timestamp", JsonFaceEvent.encodeTimestamp(timestamp));
+      event.addProperty("seq", ++seq);
+      event.addProperty("keySeq", keySeq);
+      event.addProperty("width", current.width());
+      event.addProperty("height", current.height());
+      return event;
+    }
+
+    /** @return a report of the counters */
+    public String report() {
+      return String.format("  (frameEvents keyframes: %d deltas: %d tiles: %d unchanged: %d)",
+          keyCnt, deltaCnt, tileCnt, unchangedCnt);
+    }
+
+    @Override
+    public String toString() {
+      return String.format("FrameEvent.Encoder width=%d tileSize=%d tileThreshold=%.0f sceneChangeThreshold=%.2f maxDeltas=%d encoding=%s",
+          width, tileSize, tileThreshold, sceneChangeThreshold, maxDeltas, encoding);
+    }
+  }
+
+  /**
+   * Rebuilds the frames from the events.
+   *
+   * <p>Not thread safe.
+   */
+  public static class Decoder {
+    private Mat keyframe;
+    private long keySeq = -1;
+
+    /**
+     * Rebuild an event's frame.
+     * @param event
+     * @return the frame. null if the event's keyframe hasn't been received.
+     */
+    public Mat decode(JsonObject event) {
+      if (event.has("frame")) {
+        if (keyframe != null) {
+          keyframe.release();  // the client's own Mat, not tracked
+        }
+        keyframe = JsonMat.fromJsonObject(event.getAsJsonObject("frame"));
+        keySeq = event.get("seq").getAsLong();
+        return keyframe.clone();
+      }
+      if (keyframe == null || event.get("keySeq").getAsLong() != keySeq) {
+        return null;
+      }
+      Mat frame = keyframe.clone();
+      for (JsonElement je : event.getAsJsonArray("tiles")) {
+        JsonObject tile = je.getAsJsonObject();
+        Mat tileMat = JsonMat.fromJsonObject(tile.getAsJsonObject("tile"));
+        Mat dst = frame.submat(new Rect(tile.get("x").getAsInt(), tile.get("y").getAsInt(),
+            tileMat.width(), tileMat.height()));
+        tileMat.copyTo(dst);
+        dst.release();
+        tileMat.release();
+      }
+      return frame;
+    }
+  }
+
+}
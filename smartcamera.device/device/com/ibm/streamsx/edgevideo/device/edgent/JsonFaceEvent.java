@@ -4,51 +4,131 @@
  */
 package com.ibm.streamsx.edgevideo.device.edgent;
 
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
-import java.util.TimeZone;
-
 import org.opencv.core.Mat;
+import org.opencv.core.Rect;
 
 import com.google.gson.JsonObject;
+import com.ibm.streamsx.edgevideo.device.FacesData;
+import com.ibm.streamsx.edgevideo.device.TimestampFormat;
 
 /**
  * Face detection event info to/from a JsonObject
+ *
+ * <p>Events created from a {@link FacesData} also trace the frame:
+ * <pre>
+ * {"timestamp":"...", "frameSeq":N, "captureTimestamp":"...", "publishTimestamp":"...", "face":{JsonMat}}
+ * </pre>
+ * timestamp is when detection completed and publishTimestamp is when the
+ * event was created for publishing.  See {@link FaceEventLatency}.
  */
 @SuppressWarnings("javadoc")
 public class JsonFaceEvent {
-  private static DateFormat timestampFormatter = newIso8601Formatter();
-  
-  /** Create a JsonObject FaceEvent */
+  /** Create a JsonObject FaceEvent with a raw pixels face */
   public static JsonObject toJsonObject(long timestamp, Mat face) {
+    return toJsonObject(timestamp, face, JsonMat.Encoding.RAW);
+  }
+  
+  /** Create a JsonObject FaceEvent with an encoded face */
+  public static JsonObject toJsonObject(long timestamp, Mat face, JsonMat.Encoding faceEncoding) {
     
     JsonObject payload = new JsonObject();
     payload.addProperty("timestamp", encodeTimestamp(timestamp));
-    payload.add("face", JsonMat.toJsonObject(face));
+    payload.add("face", JsonMat.toJsonObject(face, faceEncoding));
     
     return payload;
   }
   
+  /** Create a JsonObject FaceEvent, with the frame's trace, for a frame's i'th face */
+  public static JsonObject toJsonObject(FacesData facesData, int i, JsonMat.Encoding faceEncoding) {
+    
+    JsonObject payload = newTracedEvent(facesData);
+    payload.add("face", JsonMat.toJsonObject(facesData.faces.get(i), faceEncoding));
+    
+    return payload;
+  }
+  
+  /** Create a metadata only JsonObject FaceEvent, with the frame's trace, for a frame's i'th face */
+  public static JsonObject toMetaJsonObject(FacesData facesData, int i) {
+    
+    JsonObject payload = newTracedEvent(facesData);
+    payload.add("rect", toJsonObject(facesData.faceRects.toArray()[i]));
+    
+    return payload;
+  }
+  
+  private static JsonObject newTracedEvent(FacesData facesData) {
+    JsonObject payload = new JsonObject();
+    payload.addProperty("timestamp", encodeTimestamp(facesData.timestamp));
+    payload.addProperty("frameSeq", facesData.frameSeq);
+    payload.addProperty("captureTimestamp", encodeTimestamp(facesData.captureTimestamp));
+    payload.addProperty("publishTimestamp", encodeTimestamp(System.currentTimeMillis()));
+    return payload;
+  }
+  
+  private static JsonObject toJsonObject(Rect faceRect) {
+    JsonObject rect = new JsonObject();
+    rect.addProperty("x", faceRect.x);
+    rect.addProperty("y", faceRect.y);
+    rect.addProperty("width", faceRect.width);
+    rect.addProperty("height", faceRect.height);
+    return rect;
+  }
+  
+  /**
+   * Create a metadata only JsonObject FaceEvent, without the face image.
+   * e.g., when the image doesn't fit the uplink budget.
+   */
+  public static JsonObject toMetaJsonObject(long timestamp, Rect faceRect) {
+    
+    JsonObject payload = new JsonObject();
+    payload.addProperty("timestamp", encodeTimestamp(timestamp));
+    payload.add("rect", toJsonObject(faceRect));
+    
+    return payload;
+  }
+  
+  /** Does the FaceEvent have a face image (vs metadata only) */
+  public static boolean hasFace(JsonObject faceEvent) {
+    return faceEvent.has("face");
+  }
+  
   /** Get the timestamp from a FaceEvent */
   public static String getTimestamp(JsonObject faceEvent) {
     return faceEvent.get("timestamp").getAsString();
   }
   
+  /** Get the timestamp from a FaceEvent as msec since the epoch */
+  public static long getTimestampMillis(JsonObject faceEvent) {
+    return TimestampFormat.ISO8601_UTC.parse(getTimestamp(faceEvent));
+  }
+  
+  /** Does the FaceEvent have the frame's trace */
+  public static boolean hasTrace(JsonObject faceEvent) {
+    return faceEvent.has("frameSeq");
+  }
+  
+  /** Get the frame's sequence number from a traced FaceEvent */
+  public static long getFrameSeq(JsonObject faceEvent) {
+    return faceEvent.get("frameSeq").getAsLong();
+  }
+  
+  /** Get the frame's capture time from a traced FaceEvent as msec since the epoch */
+  public static long getCaptureTimestampMillis(JsonObject faceEvent) {
+    return TimestampFormat.ISO8601_UTC.parse(faceEvent.get("captureTimestamp").getAsString());
+  }
+  
+  /** Get the publish time from a traced FaceEvent as msec since the epoch */
+  public static long getPublishTimestampMillis(JsonObject faceEvent) {
+    return TimestampFormat.ISO8601_UTC.parse(faceEvent.get("publishTimestamp").getAsString());
+  }
+  
   /** Get the face from a FaceEvent */
   public static Mat getFace(JsonObject faceEvent) {
     return JsonMat.fromJsonObject(faceEvent.getAsJsonObject("face"));
   }
   
-  private static String encodeTimestamp(long timestamp) {
-    synchronized(timestampFormatter) {
-      return timestampFormatter.format(timestamp);
-    }
-  }
-  
-  private static DateFormat newIso8601Formatter() {
-    DateFormat df = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSXXX");
-    df.setTimeZone(TimeZone.getTimeZone("UTC"));
-    return df;
+  static String encodeTimestamp(long timestamp) {
+    return TimestampFormat.ISO8601_UTC.format(timestamp);
   }
 
 }
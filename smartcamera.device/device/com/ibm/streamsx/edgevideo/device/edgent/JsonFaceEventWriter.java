@@ -0,0 +1,202 @@
+/*
+# Licensed Materials - Property of IBM
+# Copyright IBM Corp. 2017
+ */
+package com.ibm.streamsx.edgevideo.device.edgent;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+
+import com.ibm.streamsx.edgevideo.device.FacesData;
+import com.ibm.streamsx.edgevideo.device.TimestampFormat;
+import com.ibm.streamsx.edgevideo.device.edgent.JsonMat.Codec;
+import com.ibm.streamsx.edgevideo.device.edgent.JsonMat.EncodedImage;
+
+/**
+ * Write a FaceEvent's JSON directly to bytes.
+ *
+ * <p>The output is byte-for-byte what {@link JsonFaceEvent#toJsonObject(long, Mat, JsonMat.Encoding)}
+ * or {@link JsonFaceEvent#toJsonObject(FacesData, int, JsonMat.Encoding)} {@code .toString()} yields, but without the intermediate JsonObjects,
+ * base64 String and JSON String.  The event is written into a reusable buffer
+ * and the image bytes are base64 encoded directly into it.
+ *
+ * <p>Not thread safe.  Use one per publishing stream.
+ */
+public class JsonFaceEventWriter {
+  private static final byte[] BASE64 =
+      "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/"
+      .getBytes(StandardCharsets.US_ASCII);
+  private static final int MIME_LINE_LENGTH = 76;
+  // a MIME line separator "\r\n" in a JSON string
+  private static final byte[] JSON_MIME_LINE_SEPARATOR = { '\\', 'r', '\\', 'n' };
+
+  private final JsonMat.Encoding faceEncoding;
+  private byte[] buf = new byte[16 * 1024];
+  private int len;
+  private byte[] pixels = new byte[0];  // RAW scratch
+
+  public JsonFaceEventWriter(JsonMat.Encoding faceEncoding) {
+    this.faceEncoding = faceEncoding;
+  }
+
+  /**
+   * Write the FaceEvent.
+   * @param timestamp
+   * @param face
+   * @return the UTF-8 JSON payload
+   */
+  public byte[] toBytes(long timestamp, Mat face) {
+    len = 0;
+    writeAscii("{\"timestamp\":\"");
+    writeTimestamp(timestamp);
+    writeAscii("\",\"face\":");
+    writeMat(face);
+    writeByte('}');
+    // the copy is needed: the payload is held by the MQTT client after publish returns
+    return Arrays.copyOf(buf, len);
+  }
+
+  /**
+   * Write the FaceEvent, with the frame's trace, for a frame's i'th face.
+   * @param facesData
+   * @param i
+   * @return the UTF-8 JSON payload
+   */
+  public byte[] toBytes(FacesData facesData, int i) {
+    len = 0;
+    writeAscii("{\"timestamp\":\"");
+    writeTimestamp(facesData.timestamp);
+    writeAscii("\",\"frameSeq\":");
+    writeLong(facesData.frameSeq);
+    writeAscii(",\"captureTimestamp\":\"");
+    writeTimestamp(facesData.captureTimestamp);
+    writeAscii("\",\"publishTimestamp\":\"");
+    writeTimestamp(System.currentTimeMillis());
+    writeAscii("\",\"face\":");
+    writeMat(facesData.faces.get(i));
+    writeByte('}');
+    return Arrays.copyOf(buf, len);
+  }
+
+  private void writeTimestamp(long timestamp) {
+    ensureCapacity(TimestampFormat.ISO8601_UTC.length());
+    len = TimestampFormat.ISO8601_UTC.format(timestamp, buf, len);
+  }
+
+  private void writeMat(Mat mat) {
+    if (faceEncoding.codec == Codec.RAW) {
+      writeRawMat(mat);
+      return;
+    }
+    EncodedImage encoded = JsonMat.encode(mat, faceEncoding);
+    writeAscii("{\"width\":");
+    writeInt(encoded.width);
+    writeAscii(",\"height\":");
+    writeInt(encoded.height);
+    writeAscii(",\"type\":");
+    writeInt(mat.type());
+    writeAscii(",\"channels\":");
+    writeInt(mat.channels());
+    writeAscii(",\"depth\":");
+    writeInt(mat.depth());
+    writeAscii(",\"codec\":\"");
+    writeAscii(encoded.codec.name().toLowerCase());
+    writeByte('"');
+    if (encoded.quality != -1) {
+      writeAscii(",\"quality\":");
+      writeInt(encoded.quality);
+    }
+    writeAscii(",\"mat\":\"");
+    writeBase64(encoded.bytes, encoded.bytes.length, false);
+    writeAscii("\"}");
+  }
+
+  private void writeRawMat(Mat mat) {
+    // same as JsonMat's legacy raw encoding, including reporting
+    // the original width and height of a halved large face
+    writeAscii("{\"width\":");
+    writeInt(mat.width());
+    writeAscii(",\"height\":");
+    writeInt(mat.height());
+    writeAscii(",\"type\":");
+    writeInt(mat.type());
+    writeAscii(",\"channels\":");
+    writeInt(mat.channels());
+    writeAscii(",\"depth\":");
+    writeInt(mat.depth());
+    writeAscii(",\"mat\":\"");
+
+    Mat pixelsMat = mat;
+    if (mat.width()*mat.height()*mat.channels() > 50*1024) {
+      pixelsMat = new Mat();
+      Imgproc.resize(mat, pixelsMat, new Size(mat.width()/2, mat.height()/2));
+    }
+    int n = pixelsMat.width() * pixelsMat.height() * pixelsMat.channels();
+    if (pixels.length < n) {
+      // Mat.get() requires a multiple of the channels.  12 suits 1-4 channels.
+      pixels = new byte[(n + 11) / 12 * 12];
+    }
+    pixelsMat.get(0, 0, pixels);
+    if (pixelsMat != mat) {
+      pixelsMat.release();
+    }
+    writeBase64(pixels, n, true);
+    writeAscii("\"}");
+  }
+
+  /** java.util.Base64 basic or MIME encoding, with JSON escaped line separators */
+  private void writeBase64(byte[] src, int n, boolean mime) {
+    int encodedLen = 4 * ((n + 2) / 3);
+    int lines = mime ? (encodedLen - 1) / MIME_LINE_LENGTH : 0;
+    ensureCapacity(encodedLen + lines * JSON_MIME_LINE_SEPARATOR.length);
+    int lineLen = 0;
+    for (int i = 0; i < n; i += 3) {
+      if (mime && lineLen == MIME_LINE_LENGTH) {
+        System.arraycopy(JSON_MIME_LINE_SEPARATOR, 0, buf, len, JSON_MIME_LINE_SEPARATOR.length);
+        len += JSON_MIME_LINE_SEPARATOR.length;
+        lineLen = 0;
+      }
+      int remaining = n - i;
+      int b = (src[i] & 0xff) << 16
+          | (remaining > 1 ? (src[i+1] & 0xff) << 8 : 0)
+          | (remaining > 2 ? (src[i+2] & 0xff) : 0);
+      buf[len++] = BASE64[(b >>> 18) & 0x3f];
+      buf[len++] = BASE64[(b >>> 12) & 0x3f];
+      buf[len++] = remaining > 1 ? BASE64[(b >>> 6) & 0x3f] : (byte) '=';
+      buf[len++] = remaining > 2 ? BASE64[b & 0x3f] : (byte) '=';
+      lineLen += 4;
+    }
+  }
+
+  private void writeInt(int i) {
+    writeAscii(Integer.toString(i));
+  }
+
+  private void writeLong(long l) {
+    writeAscii(Long.toString(l));
+  }
+
+  private void writeAscii(String s) {
+    int n = s.length();
+    ensureCapacity(n);
+    for (int i = 0; i < n; i++) {
+      buf[len++] = (byte) s.charAt(i);
+    }
+  }
+
+  private void writeByte(char c) {
+    ensureCapacity(1);
+    buf[len++] = (byte) c;
+  }
+
+  private void ensureCapacity(int n) {
+    if (len + n > buf.length) {
+      buf = Arrays.copyOf(buf, Math.max(2 * buf.length, len + n));
+    }
+  }
+
+}
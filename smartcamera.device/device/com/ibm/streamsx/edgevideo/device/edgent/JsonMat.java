@@ -8,20 +8,174 @@ import java.util.Base64;
 import java.util.Base64.Decoder;
 import java.util.Base64.Encoder;
 
+import org.opencv.core.CvType;
 import org.opencv.core.Mat;
+import org.opencv.core.MatOfByte;
+import org.opencv.core.MatOfInt;
 import org.opencv.core.Size;
+import org.opencv.imgcodecs.Imgcodecs;
 import org.opencv.imgproc.Imgproc;
 
 import com.google.gson.JsonObject;
 
 /**
  * OpenCV Mat to/from JsonObject
- * 
- * TODO semi-lame, presumably base64 of jpg or png would be better.
+ *
+ * <p>The Mat is encoded as base64 of a JPEG, PNG or WebP image
+ * (see {@link Encoding}) or of its raw pixels.
+ * The codec and quality are recorded in the JsonObject so
+ * {@link #fromJsonObject(JsonObject)} can decode any of them.
+ * A JsonObject without a codec is raw pixels.
  */
 public class JsonMat {
 
+  public enum Codec {
+    RAW(null, -1),
+    JPEG(".jpg", Imgcodecs.IMWRITE_JPEG_QUALITY),
+    PNG(".png", -1),  // lossless. no quality.
+    WEBP(".webp", Imgcodecs.IMWRITE_WEBP_QUALITY);
+
+    private final String ext;
+    private final int qualityParam;
+
+    private Codec(String ext, int qualityParam) {
+      this.ext = ext;
+      this.qualityParam = qualityParam;
+    }
+
+    public boolean hasQuality() {
+      return qualityParam != -1;
+    }
+  }
+
+  /**
+   * How to encode a Mat.
+   *
+   * <p>With a byte budget, the highest quality (up to {@code quality})
+   * whose encoded image fits the budget is used.  If the image doesn't fit
+   * even at {@link #MIN_QUALITY}, or the codec has no quality, it is
+   * downscaled until it fits.
+   */
+  public static class Encoding {
+    public static int DEFAULT_JPEG_QUALITY = 80;
+    public static int MIN_QUALITY = 10;
+    /** the original raw pixels with the legacy halving of large images */
+    public static Encoding RAW = new Encoding(Codec.RAW, -1, 0);
+
+    public final Codec codec;
+    public final int quality;     // 0-100. -1 if not applicable.
+    public final int byteBudget;  // max encoded image bytes. 0 for no limit.
+
+    public Encoding(Codec codec, int quality, int byteBudget) {
+      if (codec.hasQuality() && (quality < 0 || quality > 100))
+        throw new IllegalArgumentException("quality " + quality);
+      this.codec = codec;
+      this.quality = codec.hasQuality() ? quality : -1;
+      this.byteBudget = byteBudget;
+    }
+
+    /**
+     * Create from a spec.
+     * @param spec {@code <codec>[:<quality>]} - e.g., "jpeg:80", "png", "raw"
+     * @param byteBudget max encoded image bytes. 0 for no limit.
+     * @return the Encoding
+     */
+    public static Encoding fromSpec(String spec, int byteBudget) {
+      String[] codecQuality = spec.split(":");
+      Codec codec = Codec.valueOf(codecQuality[0].toUpperCase());
+      int quality = codecQuality.length > 1
+          ? Integer.valueOf(codecQuality[1]) : DEFAULT_JPEG_QUALITY;
+      return new Encoding(codec, quality, byteBudget);
+    }
+
+    /**
+     * A lower quality, and smaller, encoding.
+     * Half the quality and byte budget. A lossy codec if this has no quality.
+     * @return the Encoding
+     */
+    public Encoding reduced() {
+      if (!codec.hasQuality())
+        return new Encoding(Codec.JPEG, DEFAULT_JPEG_QUALITY / 2, byteBudget / 2);
+      return new Encoding(codec, Math.max(MIN_QUALITY, quality / 2), byteBudget / 2);
+    }
+
+    @Override
+    public String toString() {
+      return codec.name().toLowerCase()
+          + (codec.hasQuality() ? ":" + quality : "")
+          + (byteBudget > 0 ? " byteBudget:" + byteBudget : "");
+    }
+  }
+
+  /** the encoded image bytes and what produced them */
+  public static class EncodedImage {
+    public Codec codec;
+    public byte[] bytes;
+    public int width;
+    public int height;
+    public int type;
+    public int quality;  // -1 if not applicable
+  }
+
+  /**
+   * Create a JsonObject of the Mat's raw pixels.
+   * @param mat
+   * @return the JsonObject
+   */
   public static JsonObject toJsonObject(Mat mat) {
+    return toJsonObject(mat, Encoding.RAW);
+  }
+
+  /**
+   * Create a JsonObject of the encoded Mat.
+   * @param mat
+   * @param encoding
+   * @return the JsonObject
+   */
+  public static JsonObject toJsonObject(Mat mat, Encoding encoding) {
+    if (encoding.codec == Codec.RAW) {
+      return toRawJsonObject(mat);
+    }
+    EncodedImage encoded = encode(mat, encoding);
+    JsonObject jo = new JsonObject();
+    jo.addProperty("width", encoded.width);
+    jo.addProperty("height", encoded.height);
+    jo.addProperty("type", mat.type());
+    jo.addProperty("channels", mat.channels());
+    jo.addProperty("depth", mat.depth());
+    jo.addProperty("codec", encoding.codec.name().toLowerCase());
+    if (encoded.quality != -1) {
+      jo.addProperty("quality", encoded.quality);
+    }
+    jo.addProperty("mat", Base64.getEncoder().encodeToString(encoded.bytes));
+    return jo;
+  }
+
+  /**
+   * Create a JsonObject of an already encoded image.
+   * @param encoded e.g., from {@link #encode(Mat, Encoding)}
+   * @return the JsonObject
+   */
+  public static JsonObject toJsonObject(EncodedImage encoded) {
+    JsonObject jo = new JsonObject();
+    jo.addProperty("width", encoded.width);
+    jo.addProperty("height", encoded.height);
+    jo.addProperty("type", encoded.type);
+    jo.addProperty("channels", CvType.channels(encoded.type));
+    jo.addProperty("depth", CvType.depth(encoded.type));
+    if (encoded.codec == Codec.RAW) {
+      jo.addProperty("mat", Base64.getMimeEncoder().encodeToString(encoded.bytes));
+      return jo;
+    }
+    jo.addProperty("codec", encoded.codec.name().toLowerCase());
+    if (encoded.quality != -1) {
+      jo.addProperty("quality", encoded.quality);
+    }
+    jo.addProperty("mat", Base64.getEncoder().encodeToString(encoded.bytes));
+    return jo;
+  }
+
+  private static JsonObject toRawJsonObject(Mat mat) {
     JsonObject jo = new JsonObject();
     jo.addProperty("width", mat.width());
     jo.addProperty("height", mat.height());
@@ -33,6 +187,11 @@ public class JsonMat {
   }
 
   public static Mat fromJsonObject(JsonObject joMat) {
+    String codec = joMat.has("codec") ? joMat.get("codec").getAsString() : "raw";
+    if (!codec.equals("raw")) {
+      byte[] bytes = Base64.getMimeDecoder().decode(joMat.get("mat").getAsString());
+      return decode(bytes);
+    }
     int width = joMat.getAsJsonPrimitive("width").getAsInt();
     int height = joMat.getAsJsonPrimitive("height").getAsInt();
     int type = joMat.getAsJsonPrimitive("type").getAsInt();
@@ -40,6 +199,127 @@ public class JsonMat {
     return face;
   }
 
+  /**
+   * Decode an encoded (JPEG, PNG or WebP) image.
+   * @param bytes
+   * @return the Mat
+   */
+  public static Mat decode(byte[] bytes) {
+    MatOfByte buf = new MatOfByte(bytes);
+    Mat mat = Imgcodecs.imdecode(buf, Imgcodecs.IMREAD_UNCHANGED);
+    buf.release();
+    return mat;
+  }
+
+  /**
+   * Decode an image.
+   * @param codec
+   * @param bytes the encoded image or, for {@link Codec#RAW}, the pixels
+   * @param width for RAW
+   * @param height for RAW
+   * @param type for RAW
+   * @return the Mat
+   */
+  public static Mat decode(Codec codec, byte[] bytes, int width, int height, int type) {
+    if (codec != Codec.RAW) {
+      return decode(bytes);
+    }
+    Mat mat = new Mat(height, width, type);
+    mat.put(0,  0, bytes);
+    return mat;
+  }
+
+  /**
+   * Encode a Mat per {@code encoding}, fitting it to the byte budget if any.
+   * <p>{@link Codec#RAW} yields the Mat's pixels, unscaled.
+   * @param mat
+   * @param encoding
+   * @return the encoded image
+   */
+  public static EncodedImage encode(Mat mat, Encoding encoding) {
+    if (encoding.codec == Codec.RAW) {
+      EncodedImage encoded = new EncodedImage();
+      encoded.codec = Codec.RAW;
+      encoded.bytes = new byte[(int) (mat.total() * mat.channels())];
+      mat.get(0, 0, encoded.bytes);
+      encoded.width = mat.width();
+      encoded.height = mat.height();
+      encoded.type = mat.type();
+      encoded.quality = -1;
+      return encoded;
+    }
+    Mat scaled = mat;
+    try {
+      while (true) {
+        EncodedImage encoded = encodeWithinBudget(scaled, encoding);
+        if (encoded != null) {
+          return encoded;
+        }
+        // doesn't fit at any quality - downscale and try again
+        Mat smaller = new Mat();
+        Imgproc.resize(scaled, smaller, new Size(scaled.width()/2, scaled.height()/2));
+        if (scaled != mat) {
+          scaled.release();
+        }
+        scaled = smaller;
+      }
+    }
+    finally {
+      if (scaled != mat) {
+        scaled.release();
+      }
+    }
+  }
+
+  /**
+   * @return the encoding, or null if it doesn't fit the budget at any quality
+   */
+  private static EncodedImage encodeWithinBudget(Mat mat, Encoding encoding) {
+    EncodedImage encoded = encode(mat, encoding.codec, encoding.quality);
+    if (encoding.byteBudget <= 0 || encoded.bytes.length <= encoding.byteBudget
+        || mat.width() <= 8 || mat.height() <= 8) {
+      return encoded;
+    }
+    if (!encoding.codec.hasQuality()) {
+      return null;
+    }
+    // binary search for the highest quality that fits
+    EncodedImage best = null;
+    int lo = Encoding.MIN_QUALITY, hi = encoding.quality - 1;
+    while (lo <= hi) {
+      int quality = (lo + hi) / 2;
+      EncodedImage e = encode(mat, encoding.codec, quality);
+      if (e.bytes.length <= encoding.byteBudget) {
+        best = e;
+        lo = quality + 1;
+      }
+      else {
+        hi = quality - 1;
+      }
+    }
+    return best;
+  }
+
+  private static EncodedImage encode(Mat mat, Codec codec, int quality) {
+    MatOfByte buf = new MatOfByte();
+    MatOfInt params = codec.hasQuality() ? new MatOfInt(codec.qualityParam, quality) : new MatOfInt();
+    if (!Imgcodecs.imencode(codec.ext, mat, buf, params)) {
+      buf.release();
+      params.release();
+      throw new IllegalStateException("imencode failed for " + codec);
+    }
+    EncodedImage encoded = new EncodedImage();
+    encoded.codec = codec;
+    encoded.bytes = buf.toArray();
+    encoded.width = mat.width();
+    encoded.height = mat.height();
+    encoded.type = mat.type();
+    encoded.quality = codec.hasQuality() ? quality : -1;
+    buf.release();
+    params.release();
+    return encoded;
+  }
+
   private static String base64MimeEncodeMat(Mat mat) {
     int width = mat.width(), height = mat.height(), channels = mat.channels();
     
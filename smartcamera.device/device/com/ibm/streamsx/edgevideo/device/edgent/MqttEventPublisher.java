@@ -0,0 +1,133 @@
+/*
+# Licensed Materials - Property of IBM
+# Copyright IBM Corp. 2017
+ */
+package com.ibm.streamsx.edgevideo.device.edgent;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Properties;
+
+import org.apache.edgent.connectors.mqtt.MqttConfig;
+import org.apache.edgent.connectors.mqtt.MqttStreams;
+import org.apache.edgent.connectors.mqtt.iot.MqttDevice;
+import org.apache.edgent.providers.direct.DirectProvider;
+import org.apache.edgent.topology.TSink;
+import org.apache.edgent.topology.TStream;
+import org.apache.edgent.topology.Topology;
+
+/**
+ * Publishes pre-serialized device events directly to the MQTT server.
+ *
+ * <p>An {@code IotDevice} only publishes JsonObject events, which it then
+ * serializes.  This publishes event payloads that are already bytes,
+ * on the same topics as the MqttDevice defined by the device config.
+ *
+ * <p>It uses its own MQTT connection as the device's clientId can't be shared.
+ *
+ * <p>Optionally, events are published via a {@link StoreAndForwardPublisher}
+ * so they're spooled to disk, rather than lost or blocking the topology,
+ * while the MQTT server is unreachable.  The StoreAndForwardPublisher
+ * outlives the topologies, e.g., those restarted by an IotProvider.
+ */
+public class MqttEventPublisher {
+  private static final int SPOOL_SEGMENT_BYTES = 4 * 1024 * 1024;
+  private static final int SPOOL_SYNC_EVERY = 100;
+  private final MqttDevice mqttDevice;  // just for its topics and config
+  private final MqttStreams connector;
+  private final StoreAndForwardPublisher storeAndForward;
+
+  /**
+   * Create a new publisher.
+   * @param top the topology to publish from
+   * @param mqttDeviceProps the MqttDevice configuration - e.g., from scripts/mqtt-device.cfg
+   */
+  public MqttEventPublisher(Topology top, Properties mqttDeviceProps) {
+    mqttDevice = newMqttDevice(mqttDeviceProps);
+    MqttConfig mqttConfig = newMqttConfig(mqttDevice, mqttDeviceProps);
+    connector = new MqttStreams(top, () -> mqttConfig);
+    storeAndForward = null;
+  }
+
+  /**
+   * Create a new publisher that publishes via a store-and-forward publisher.
+   * @param top the topology to publish from
+   * @param mqttDeviceProps the MqttDevice configuration - e.g., from scripts/mqtt-device.cfg
+   * @param storeAndForward from {@link #newStoreAndForwardPublisher(Properties, File, long, double)}
+   */
+  public MqttEventPublisher(Topology top, Properties mqttDeviceProps,
+      StoreAndForwardPublisher storeAndForward) {
+    mqttDevice = newMqttDevice(mqttDeviceProps);
+    connector = null;
+    this.storeAndForward = storeAndForward;
+  }
+
+  /**
+   * Create and start a store-and-forward publisher.
+   *
+   * <p>Create only one per process and share it with each topology's
+   * MqttEventPublisher: the spool dir is locked while it's open and
+   * the publisher's MQTT clientId can't be shared.
+   * @param mqttDeviceProps the MqttDevice configuration - e.g., from scripts/mqtt-device.cfg
+   * @param spoolDir the {@link SegmentSpool} directory
+   * @param spoolMaxBytes the spool's size cap
+   * @param replayPerSec max spooled events to replay per second
+   * @return the started publisher
+   * @throws Exception
+   */
+  public static StoreAndForwardPublisher newStoreAndForwardPublisher(Properties mqttDeviceProps,
+      File spoolDir, long spoolMaxBytes, double replayPerSec) throws Exception {
+    MqttConfig mqttConfig = newMqttConfig(newMqttDevice(mqttDeviceProps), mqttDeviceProps);
+    SegmentSpool spool = newSpool(spoolDir, spoolMaxBytes);
+    System.out.println("Spooling events to " + spoolDir + " " + spool);
+    return new StoreAndForwardPublisher(new MqttSender(mqttConfig), spool, replayPerSec).start();
+  }
+
+  private static MqttDevice newMqttDevice(Properties mqttDeviceProps) {
+    // Use an Edgent MqttDevice to learn the device's event topics and MQTT clientId (from its cfg).
+    return new MqttDevice(new DirectProvider().newTopology(), mqttDeviceProps);
+  }
+
+  private static MqttConfig newMqttConfig(MqttDevice mqttDevice, Properties mqttDeviceProps) {
+    MqttConfig mqttConfig = MqttConfig.fromProperties(mqttDeviceProps);
+    mqttConfig.setClientId(mqttDevice.getMqttConfig().getClientId() + "-pub");
+    return mqttConfig;
+  }
+
+  private static SegmentSpool newSpool(File spoolDir, long spoolMaxBytes) throws IOException {
+    int segmentBytes = (int) Math.min(SPOOL_SEGMENT_BYTES, spoolMaxBytes / 2);
+    return new SegmentSpool(spoolDir, spoolMaxBytes, segmentBytes, SPOOL_SYNC_EVERY);
+  }
+
+  /**
+   * @return true if events are published via a store-and-forward spool
+   */
+  public boolean isStoreAndForward() {
+    return storeAndForward != null;
+  }
+
+  /**
+   * Get the device's (JSON) event topic.
+   * @param eventId
+   * @return the topic
+   */
+  public String eventTopic(String eventId) {
+    return mqttDevice.eventTopic(eventId);
+  }
+
+  /**
+   * Publish the event payloads.
+   * @param events the payloads
+   * @param topic the topic - e.g., from {@link #eventTopic(String)}
+   * @param qos
+   * @return the sink
+   */
+  public TSink<byte[]> publish(TStream<byte[]> events, String topic, int qos) {
+    System.out.println("Publishing events to topic: " + topic);
+    if (storeAndForward != null) {
+      return events.sink(payload -> storeAndForward.publish(topic, payload, qos));
+    }
+    return connector.publish(events, t -> topic, t -> t, t -> qos, t -> false);
+  }
+
+}
@@ -0,0 +1,70 @@
+/*
+# Licensed Materials - Property of IBM
+# Copyright IBM Corp. 2017
+ */
+package com.ibm.streamsx.edgevideo.device.edgent;
+
+import org.apache.edgent.connectors.mqtt.MqttConfig;
+import org.eclipse.paho.client.mqttv3.MqttClient;
+import org.eclipse.paho.client.mqttv3.MqttConnectOptions;
+import org.eclipse.paho.client.mqttv3.MqttException;
+import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
+
+/**
+ * A {@link StoreAndForwardPublisher.Sender} for an MQTT server.
+ *
+ * <p>Unlike the Edgent MQTT connector, a publish fails, rather than
+ * blocks, while disconnected, and (re)connecting is left to the caller.
+ */
+public class MqttSender implements StoreAndForwardPublisher.Sender {
+  private static final long DISCONNECT_TIMEOUT_MSEC = 1000;
+  private final MqttClient client;
+  private final MqttConnectOptions options = new MqttConnectOptions();
+
+  /**
+   * @param mqttConfig the server and clientId to use
+   * @throws MqttException
+   */
+  public MqttSender(MqttConfig mqttConfig) throws MqttException {
+    String[] serverURLs = mqttConfig.getServerURLs();
+    client = new MqttClient(serverURLs[0], mqttConfig.getClientId(), new MemoryPersistence());
+    options.setServerURIs(serverURLs);
+    if (mqttConfig.getUserName() != null) {
+      options.setUserName(mqttConfig.getUserName());
+    }
+    if (mqttConfig.getPassword() != null) {
+      options.setPassword(mqttConfig.getPassword());
+    }
+    options.setCleanSession(mqttConfig.getCleanSession());
+    options.setKeepAliveInterval(mqttConfig.getKeepAliveInterval());
+    options.setConnectionTimeout(mqttConfig.getConnectionTimeout());
+  }
+
+  @Override
+  public boolean isConnected() {
+    return client.isConnected();
+  }
+
+  @Override
+  public void connect() throws MqttException {
+    client.connect(options);
+  }
+
+  @Override
+  public void send(String topic, byte[] payload, int qos) throws MqttException {
+    client.publish(topic, payload, qos, false);
+  }
+
+  @Override
+  public void disconnect() throws MqttException {
+    try {
+      if (client.isConnected()) {
+        client.disconnectForcibly(DISCONNECT_TIMEOUT_MSEC);
+      }
+    }
+    finally {
+      client.close();
+    }
+  }
+
+}
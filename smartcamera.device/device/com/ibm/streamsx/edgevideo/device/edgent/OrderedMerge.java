@@ -0,0 +1,105 @@
+/*
+# Licensed Materials - Property of IBM
+# Copyright IBM Corp. 2017
+ */
+package com.ibm.streamsx.edgevideo.device.edgent;
+
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+import com.ibm.streamsx.edgevideo.device.FacesData;
+
+/**
+ * Restores the frame order of the results of parallel detection channels.
+ *
+ * <p>Frames are {@link #tag(Object) tagged} with a sequence number, in frame order,
+ * before being split across the channels.  The channels' merged results are
+ * {@link #accept(Item) accepted} in whatever order the channels finish and are
+ * delivered to the {@link #setConsumer(Consumer) consumer} in frame order.
+ * Delivery is on the accepting channel's thread, one result at a time,
+ * so the consumer sees a single ordered stream.
+ *
+ * <p>If more than {@code maxPending} results are waiting for an earlier one,
+ * the earlier one is presumed lost and skipped rather than stalling the stream.
+ */
+public class OrderedMerge {
+  private final int maxPending;
+  private long nextTagSeq;  // only used by the tagging stream
+  // guarded by this
+  private final TreeMap<Long,FacesData> pending = new TreeMap<>();
+  private long nextSeq;
+  private long skippedCnt;
+  private volatile Consumer<FacesData> consumer;
+
+  /** A value and its sequence number. */
+  public static class Item<T> {
+    public final long seq;
+    public final T value;
+
+    public Item(long seq, T value) {
+      this.seq = seq;
+      this.value = value;
+    }
+  }
+
+  /**
+   * @param maxPending max out of order results to hold - e.g., a few times the channel count
+   */
+  public OrderedMerge(int maxPending) {
+    this.maxPending = maxPending;
+  }
+
+  /**
+   * Tag the next value, in frame order.
+   * @param value
+   * @return the tagged value
+   */
+  public <T> Item<T> tag(T value) {
+    return new Item<>(nextTagSeq++, value);
+  }
+
+  /**
+   * Set the consumer of the ordered results.
+   *
+   * <p>Results that are ready before a consumer is set are discarded.
+   * @param consumer the consumer. It owns the delivered FacesData.
+   */
+  public void setConsumer(Consumer<FacesData> consumer) {
+    this.consumer = consumer;
+  }
+
+  /**
+   * Accept a channel's result and deliver all of the results that are now in order.
+   * @param result the result, with its frame's sequence number
+   */
+  public synchronized void accept(Item<FacesData> result) {
+    if (result.seq < nextSeq) {
+      // arrived after it was presumed lost
+      result.value.close();
+      return;
+    }
+    pending.put(result.seq, result.value);
+    if (pending.size() > maxPending) {
+      long firstSeq = pending.firstKey();
+      skippedCnt += firstSeq - nextSeq;
+      nextSeq = firstSeq;
+    }
+    FacesData facesData;
+    while ((facesData = pending.remove(nextSeq)) != null) {
+      nextSeq++;
+      Consumer<FacesData> consumer = this.consumer;
+      if (consumer != null) {
+        consumer.accept(facesData);
+      }
+      else {
+        facesData.close();
+      }
+    }
+  }
+
+  /** @return the number of results presumed lost */
+  public synchronized long getSkippedCnt() {
+    return skippedCnt;
+  }
+
+}
@@ -0,0 +1,173 @@
+/*
+# Licensed Materials - Property of IBM
+# Copyright IBM Corp. 2017
+ */
+package com.ibm.streamsx.edgevideo.device.edgent;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import com.google.gson.JsonObject;
+import com.ibm.streamsx.edgevideo.device.LatencyHistogram;
+import com.ibm.streamsx.edgevideo.device.NativeMats;
+import com.ibm.streamsx.edgevideo.device.PublishQueue;
+import com.ibm.streamsx.edgevideo.device.Stats;
+
+/**
+ * The pipeline's health, for remote monitoring, as a compact JsonObject.
+ *
+ * <p>A "stats" event:
+ * <pre>
+ * {"timestamp":"...", "elapsedSec":N, "intervalSec":F,
+ *  "frames":N, "fps":F, "intervalFps":F, "droppedFrames":N, "intervalDroppedFrames":N,
+ *  "stages":{"imgProc":{"rate":F, "p50Msec":F, "p95Msec":F, "maxMsec":F}, ...},
+ *  "queues":{"faces":{"depth":N, "maxDepth":N, "dropped":N}, ...},
+ *  "boundaries":{"render":{"inFlight":N, "dropped":N}, ...},
+ *  "nativeMatsLive":N}
+ * </pre>
+ * The interval values and the stages' latencies are for the interval since
+ * the previous event.  "queues" is present with a --publishQueue and
+ * "boundaries" with --isolate.
+ *
+ * <p>The events are periodic and also {@link #publishStats() on demand}.
+ */
+@SuppressWarnings("javadoc")
+public class PipelineStats {
+  public static final String EVENT_ID = "stats";
+  /** startApp config property that overrides the app's --statsEvents period */
+  public static final String CONFIG_PERIOD_SEC = "statsPeriodSec";
+
+  private final Stats stats;
+  private final Map<String,StageBoundary<?>> boundaries = new ConcurrentHashMap<>();
+  private volatile Consumer<JsonObject> requestedEvents;
+  // guarded by this
+  private Stats.Snapshot lastEvent;
+
+  public PipelineStats(Stats stats) {
+    this.stats = stats;
+    this.lastEvent = stats.snapshot();
+  }
+
+  /**
+   * Include a StageBoundary's in-flight and dropped counts.
+   * It replaces the boundary of the same name from an earlier topology.
+   * @param boundary
+   */
+  public void addStageBoundary(StageBoundary<?> boundary) {
+    boundaries.put(boundary.getName(), boundary);
+  }
+
+  /**
+   * Set the consumer of the {@link #publishStats() on demand} events.
+   * @param consumer
+   */
+  public void setRequestedEventConsumer(Consumer<JsonObject> consumer) {
+    requestedEvents = consumer;
+  }
+
+  /**
+   * Create an event now and pass it to the requested event consumer, if any.
+   */
+  public void publishStats() {
+    JsonObject event = toJsonObject();
+    Consumer<JsonObject> consumer = requestedEvents;
+    if (consumer != null) {
+      consumer.accept(event);
+    }
+    else {
+      System.out.println("PipelineStats: " + event);
+    }
+  }
+
+  public Stats.Snapshot getSnapshot() {
+    return stats.snapshot();
+  }
+
+  public int getPublishQueueDepth() {
+    int depth = 0;
+    for (PublishQueue<?> queue : stats.getPublishQueues()) {
+      depth += queue.getDepth();
+    }
+    return depth;
+  }
+
+  public long getPublishQueueDroppedCnt() {
+    long dropped = 0;
+    for (PublishQueue<?> queue : stats.getPublishQueues()) {
+      dropped += queue.getDroppedCnt();
+    }
+    return dropped;
+  }
+
+  public long getStageBoundaryDroppedCnt() {
+    long dropped = 0;
+    for (StageBoundary<?> boundary : boundaries.values()) {
+      dropped += boundary.getDroppedCnt();
+    }
+    return dropped;
+  }
+
+  /** Create a statistics event for the interval since the previous one */
+  public JsonObject toJsonObject() {
+    Stats.Snapshot total = stats.snapshot();
+    Stats.Snapshot interval;
+    synchronized(this) {
+      interval = total.minus(lastEvent);
+      lastEvent = total;
+    }
+
+    JsonObject event = new JsonObject();
+    event.addProperty("timestamp", JsonFaceEvent.encodeTimestamp(System.currentTimeMillis()));
+    event.addProperty("elapsedSec", total.elapsedNanos / 1_000_000_000L);
+    event.addProperty("intervalSec", round2(interval.elapsedNanos / 1e9));
+    event.addProperty("frames", total.frameProcessedCnt);
+    event.addProperty("fps", round2(total.getFps()));
+    event.addProperty("intervalFps", round2(interval.getFps()));
+    event.addProperty("droppedFrames", total.droppedFrameCnt);
+    event.addProperty("intervalDroppedFrames", interval.droppedFrameCnt);
+
+    JsonObject stages = new JsonObject();
+    for (Map.Entry<String,LatencyHistogram.Snapshot> e : interval.stages.entrySet()) {
+      LatencyHistogram.Snapshot latencies = e.getValue();
+      JsonObject stage = new JsonObject();
+      stage.addProperty("rate", round2(interval.getRate(e.getKey())));
+      stage.addProperty("p50Msec", round2(latencies.getPercentileNanos(50) / 1e6));
+      stage.addProperty("p95Msec", round2(latencies.getPercentileNanos(95) / 1e6));
+      stage.addProperty("maxMsec", round2(latencies.getMaxNanos() / 1e6));
+      stages.add(e.getKey(), stage);
+    }
+    event.add("stages", stages);
+
+    if (!stats.getPublishQueues().isEmpty()) {
+      JsonObject queues = new JsonObject();
+      for (PublishQueue<?> queue : stats.getPublishQueues()) {
+        JsonObject q = new JsonObject();
+        q.addProperty("depth", queue.getDepth());
+        q.addProperty("maxDepth", queue.getMaxDepth());
+        q.addProperty("dropped", queue.getDroppedCnt());
+        queues.add(queue.getName(), q);
+      }
+      event.add("queues", queues);
+    }
+
+    if (!boundaries.isEmpty()) {
+      JsonObject stageBoundaries = new JsonObject();
+      for (StageBoundary<?> boundary : boundaries.values()) {
+        JsonObject b = new JsonObject();
+        b.addProperty("inFlight", boundary.getInFlightCnt());
+        b.addProperty("dropped", boundary.getDroppedCnt());
+        stageBoundaries.add(boundary.getName(), b);
+      }
+      event.add("boundaries", stageBoundaries);
+    }
+
+    event.addProperty("nativeMatsLive", NativeMats.getLiveCnt());
+    return event;
+  }
+
+  private static double round2(double d) {
+    return Math.round(d * 100) / 100.0;
+  }
+
+}
@@ -0,0 +1,390 @@
+/*
+# Licensed Materials - Property of IBM
+# Copyright IBM Corp. 2017
+ */
+package com.ibm.streamsx.edgevideo.device.edgent;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only, size capped, ring of memory-mapped segment files
+ * of published events.
+ *
+ * <p>Events are {@link #append(String, byte[], int) appended} at the tail
+ * and {@link #peek() read} and {@link #commit(Record) committed} from the head.
+ * When the spool would exceed its size the oldest segment is deleted,
+ * even if it has uncommitted events.
+ *
+ * <p>The spool is crash safe.  A record is:
+ * <pre>
+ * length  4 bytes  of the body. Written last. 0 marks the end of the segment's records.
+ * crc     4 bytes  CRC32 of the body
+ * body    qos (1 byte), topic length (2 bytes), topic (UTF-8), payload
+ * </pre>
+ * On restart, each segment's records are scanned up to the first end marker
+ * or record whose CRC doesn't match (a torn write).
+ * The head's position is kept in a small index file with two alternating
+ * checksummed slots, so the last completely written slot is always valid.
+ *
+ * <p>The memory-mapped pages survive a process crash.  They're forced to
+ * the device every {@code syncEvery} appends, when a segment fills and on
+ * {@link #close()}, so a power loss can lose at most the unforced events.
+ *
+ * <p>A spool directory can only be open once at a time.  It's locked
+ * until {@link #close()}.
+ */
+public class SegmentSpool implements Closeable {
+  private static final String SEGMENT_PREFIX = "spool-";
+  private static final String SEGMENT_SUFFIX = ".seg";
+  private static final String INDEX_NAME = "spool.idx";
+  private static final String LOCK_NAME = "spool.lock";
+  private static final int RECORD_HEADER_SIZE = 4 + 4;
+  private static final int END_MARKER_SIZE = 4;
+  private static final int INDEX_SLOT_SIZE = 8 + 8 + 4 + 4;  // generation, seq, pos, crc
+
+  /** A spooled event */
+  public static class Record {
+    public final String topic;
+    public final byte[] payload;
+    public final int qos;
+    private final long seq;
+    private final int nextPos;
+    private Record(String topic, byte[] payload, int qos, long seq, int nextPos) {
+      this.topic = topic;
+      this.payload = payload;
+      this.qos = qos;
+      this.seq = seq;
+      this.nextPos = nextPos;
+    }
+  }
+
+  private final File dir;
+  private final int segmentBytes;
+  private final int maxSegments;
+  private final int syncEvery;
+  private final TreeMap<Long, MappedByteBuffer> segments = new TreeMap<>();
+  private final MappedByteBuffer index;
+  private final FileChannel lockChannel;
+  private final FileLock lock;
+  private long indexGeneration;
+  private long writeSeq;
+  private int writePos;
+  private long readSeq;
+  private int readPos;
+  private int unsyncedCnt;
+  private long pendingCnt;
+  private long appendedCnt;
+  private long committedCnt;
+  private long evictedCnt;
+  private long oversizeCnt;
+
+  /**
+   * Open, or create, a spool.
+   * @param dir the spool's directory. Created if needed.
+   * @param maxBytes the spool's size cap
+   * @param segmentBytes the size of each segment. There are at least 2 segments.
+   * @param syncEvery force appended events to the device every N appends
+   * @throws IOException including if the spool is already open
+   */
+  public SegmentSpool(File dir, long maxBytes, int segmentBytes, int syncEvery) throws IOException {
+    if (!dir.isDirectory() && !dir.mkdirs())
+      throw new IOException("Unable to create spool dir " + dir);
+    this.dir = dir;
+    this.segmentBytes = segmentBytes;
+    this.maxSegments = (int) Math.max(2, maxBytes / segmentBytes);
+    this.syncEvery = Math.max(1, syncEvery);
+
+    lockChannel = new RandomAccessFile(new File(dir, LOCK_NAME), "rw").getChannel();
+    FileLock lock;
+    try {
+      lock = lockChannel.tryLock();
+    } catch (OverlappingFileLockException e) {
+      lock = null;  // already open in this process
+    }
+    if (lock == null) {
+      lockChannel.close();
+      throw new IOException("Spool dir " + dir + " is already in use");
+    }
+    this.lock = lock;
+
+    index = map(new File(dir, INDEX_NAME), 2 * INDEX_SLOT_SIZE);
+    recover();
+  }
+
+  private void recover() throws IOException {
+    File[] files = dir.listFiles((d, name) -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX));
+    for (File file : files) {
+      String name = file.getName();
+      long seq = Long.valueOf(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+      segments.put(seq, map(file, segmentBytes));
+    }
+    if (segments.isEmpty()) {
+      segments.put(0L, map(segmentFile(0), segmentBytes));
+    }
+    writeSeq = segments.lastKey();
+    writePos = scan(segments.lastEntry().getValue(), 0, null);
+
+    // the head, from the index
+    readSeq = segments.firstKey();
+    readPos = 0;
+    long[] slot = readIndex();
+    if (slot != null && segments.containsKey(slot[0])) {
+      readSeq = slot[0];
+      readPos = (int) Math.min(slot[1], readSeq == writeSeq ? writePos : segmentBytes);
+    }
+    // drop any segments older than the head
+    while (segments.firstKey() < readSeq) {
+      deleteSegment(segments.firstKey());
+    }
+
+    long[] cnt = new long[1];
+    for (Map.Entry<Long, MappedByteBuffer> e : segments.entrySet()) {
+      scan(e.getValue(), e.getKey() == readSeq ? readPos : 0, cnt);
+    }
+    pendingCnt = cnt[0];
+  }
+
+  /**
+   * Append an event.
+   * @param topic
+   * @param payload
+   * @param qos
+   * @return false if the event can't fit in a segment
+   * @throws IOException if closed
+   */
+  public synchronized boolean append(String topic, byte[] payload, int qos) throws IOException {
+    if (!lockChannel.isOpen())
+      throw new IOException("SegmentSpool " + dir + " is closed");
+    byte[] topicBytes = topic.getBytes(StandardCharsets.UTF_8);
+    int bodyLen = 1 + 2 + topicBytes.length + payload.length;
+    int recordLen = RECORD_HEADER_SIZE + bodyLen;
+    if (recordLen + END_MARKER_SIZE > segmentBytes) {
+      oversizeCnt++;
+      return false;
+    }
+    if (writePos + recordLen + END_MARKER_SIZE > segmentBytes) {
+      roll();
+    }
+    MappedByteBuffer segment = segments.get(writeSeq);
+
+    // end marker, body and crc, then make the record visible with its length
+    segment.putInt(writePos + recordLen, 0);
+    ByteBuffer body = segment.duplicate();
+    body.position(writePos + RECORD_HEADER_SIZE);
+    body.put((byte) qos);
+    body.putShort((short) topicBytes.length);
+    body.put(topicBytes);
+    body.put(payload);
+    segment.putInt(writePos + 4, crc(segment, writePos + RECORD_HEADER_SIZE, bodyLen));
+    segment.putInt(writePos, bodyLen);
+    writePos += recordLen;
+
+    appendedCnt++;
+    pendingCnt++;
+    if (++unsyncedCnt >= syncEvery) {
+      sync();
+    }
+    notifyAll();
+    return true;
+  }
+
+  /**
+   * Get the oldest uncommitted event.
+   * @return the event. null if none.
+   */
+  public synchronized Record peek() {
+    if (!lockChannel.isOpen())
+      return null;  // closed
+    while (true) {
+      MappedByteBuffer segment = segments.get(readSeq);
+      int end = scan(segment, readPos, null, 1);
+      if (end > readPos) {
+        ByteBuffer body = segment.duplicate();
+        body.position(readPos + RECORD_HEADER_SIZE);
+        int qos = body.get();
+        byte[] topicBytes = new byte[body.getShort()];
+        body.get(topicBytes);
+        byte[] payload = new byte[end - body.position()];
+        body.get(payload);
+        return new Record(new String(topicBytes, StandardCharsets.UTF_8), payload, qos, readSeq, end);
+      }
+      if (readSeq == writeSeq) {
+        return null;
+      }
+      // the rest of the segment is empty or torn. On to the next.
+      readSeq = segments.higherKey(readSeq);
+      readPos = 0;
+      writeIndex();
+    }
+  }
+
+  /**
+   * Wait for an event to be appended.
+   * @param msec max time to wait
+   * @throws InterruptedException
+   */
+  public synchronized void awaitAppend(long msec) throws InterruptedException {
+    if (pendingCnt == 0) {
+      wait(msec);
+    }
+  }
+
+  /**
+   * Remove a {@link #peek() peeked} event from the spool.
+   * @param record
+   */
+  public synchronized void commit(Record record) {
+    if (!lockChannel.isOpen())
+      return;  // closed. It's replayed next time.
+    if (record.seq != readSeq || record.nextPos <= readPos) {
+      return;  // evicted meanwhile
+    }
+    readPos = record.nextPos;
+    pendingCnt--;
+    committedCnt++;
+    writeIndex();
+  }
+
+  /** force appended events and the index to the device */
+  public synchronized void sync() {
+    segments.get(writeSeq).force();
+    index.force();
+    unsyncedCnt = 0;
+  }
+
+  @Override
+  public synchronized void close() {
+    if (!lockChannel.isOpen())
+      return;
+    sync();
+    try {
+      lock.release();
+      lockChannel.close();
+    } catch (IOException e) {
+      System.out.println("SegmentSpool unlock failed: " + e);
+    }
+  }
+
+  /** @return the number of uncommitted events */
+  public synchronized long getPendingCnt() {
+    return pendingCnt;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return String.format("pending: %d appended: %d committed: %d evicted: %d oversize: %d segments: %d/%d",
+        pendingCnt, appendedCnt, committedCnt, evictedCnt, oversizeCnt, segments.size(), maxSegments);
+  }
+
+  private void roll() throws IOException {
+    segments.get(writeSeq).force();
+    writeSeq++;
+    MappedByteBuffer segment = map(segmentFile(writeSeq), segmentBytes);
+    segment.putInt(0, 0);
+    segments.put(writeSeq, segment);
+    writePos = 0;
+    while (segments.size() > maxSegments) {
+      evictOldest();
+    }
+  }
+
+  private void evictOldest() {
+    long oldest = segments.firstKey();
+    long[] cnt = new long[1];
+    if (oldest >= readSeq) {
+      scan(segments.get(oldest), oldest == readSeq ? readPos : 0, cnt);
+    }
+    evictedCnt += cnt[0];
+    pendingCnt -= cnt[0];
+    deleteSegment(oldest);
+    if (readSeq <= oldest) {
+      readSeq = segments.firstKey();
+      readPos = 0;
+      writeIndex();
+    }
+  }
+
+  private void deleteSegment(long seq) {
+    segments.remove(seq);
+    // the mapping lingers until it's GC'd. The file can go now.
+    segmentFile(seq).delete();
+  }
+
+  private int scan(MappedByteBuffer segment, int pos, long[] cnt) {
+    return scan(segment, pos, cnt, Integer.MAX_VALUE);
+  }
+
+  /**
+   * @return the position following the last valid record, up to maxRecords
+   */
+  private int scan(MappedByteBuffer segment, int pos, long[] cnt, int maxRecords) {
+    for (int n = 0; n < maxRecords; n++) {
+      if (pos + RECORD_HEADER_SIZE > segmentBytes)
+        break;
+      int bodyLen = segment.getInt(pos);
+      if (bodyLen <= 0 || pos + RECORD_HEADER_SIZE + bodyLen > segmentBytes)
+        break;
+      if (segment.getInt(pos + 4) != crc(segment, pos + RECORD_HEADER_SIZE, bodyLen))
+        break;
+      pos += RECORD_HEADER_SIZE + bodyLen;
+      if (cnt != null)
+        cnt[0]++;
+    }
+    return pos;
+  }
+
+  private static int crc(MappedByteBuffer segment, int pos, int len) {
+    ByteBuffer bb = segment.duplicate();
+    bb.position(pos);
+    bb.limit(pos + len);
+    CRC32 crc = new CRC32();
+    crc.update(bb);
+    return (int) crc.getValue();
+  }
+
+  private void writeIndex() {
+    indexGeneration++;
+    int slot = (int) (indexGeneration % 2) * INDEX_SLOT_SIZE;
+    index.putLong(slot, indexGeneration);
+    index.putLong(slot + 8, readSeq);
+    index.putInt(slot + 16, readPos);
+    index.putInt(slot + 20, crc(index, slot, 20));
+  }
+
+  /** @return {seq, pos} from the newest valid slot. null if none. */
+  private long[] readIndex() {
+    long[] best = null;
+    for (int slot = 0; slot < 2 * INDEX_SLOT_SIZE; slot += INDEX_SLOT_SIZE) {
+      long generation = index.getLong(slot);
+      if (generation > 0 && index.getInt(slot + 20) == crc(index, slot, 20)
+          && generation >= indexGeneration) {
+        indexGeneration = generation;
+        best = new long[] { index.getLong(slot + 8), index.getInt(slot + 16) };
+      }
+    }
+    return best;
+  }
+
+  private File segmentFile(long seq) {
+    return new File(dir, String.format("%s%016d%s", SEGMENT_PREFIX, seq, SEGMENT_SUFFIX));
+  }
+
+  private static MappedByteBuffer map(File file, int size) throws IOException {
+    try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+      return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+    }
+  }
+
+}
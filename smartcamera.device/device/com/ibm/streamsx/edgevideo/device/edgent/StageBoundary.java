@@ -0,0 +1,123 @@
+/*
+# Licensed Materials - Property of IBM
+# Copyright IBM Corp. 2017
+ */
+package com.ibm.streamsx.edgevideo.device.edgent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import org.apache.edgent.topology.TStream;
+import org.apache.edgent.topology.plumbing.PlumbingStreams;
+
+/**
+ * An isolating, pressure relieving boundary between topology stages
+ * whose tuples hold native memory.
+ *
+ * <p>Downstream of the boundary runs on its own thread.
+ * {@link PlumbingStreams#pressureReliever(TStream, org.apache.edgent.function.Function, int) pressureReliever()}
+ * holds the newest {@code depth} tuples and silently discards older ones when the
+ * downstream stage falls behind, so a slow stage sheds load instead of
+ * stalling upstream.  Only a sequence number crosses the boundary.
+ * The tuples wait in an in-flight map, and when a tuple is delivered
+ * the older ones that were discarded are released.
+ *
+ * @param <T> tuple type
+ */
+public class StageBoundary<T> {
+  private final String name;
+  private final int depth;
+  private final Consumer<T> releaser;
+  private final AtomicLong seq = new AtomicLong();
+  // guarded by inFlight
+  private final TreeMap<Long,T> inFlight = new TreeMap<>();
+  private long deliveredCnt;
+  private long droppedCnt;
+
+  /**
+   * @param name the downstream stage's name, for the report
+   * @param depth the number of tuples held for the downstream stage
+   * @param releaser releases a discarded tuple
+   */
+  public StageBoundary(String name, int depth, Consumer<T> releaser) {
+    if (depth < 1)
+      throw new IllegalArgumentException("depth " + depth);
+    this.name = name;
+    this.depth = depth;
+    this.releaser = releaser;
+  }
+
+  /**
+   * Connect the boundary.
+   * @param stream the upstream stream.  The boundary owns its tuples.
+   * @return the downstream stream.  The downstream stage owns its tuples.
+   */
+  public TStream<T> connect(TStream<T> stream) {
+    TStream<Long> seqs = stream.map(tuple -> {
+        long s = seq.incrementAndGet();
+        synchronized(inFlight) {
+          inFlight.put(s, tuple);
+        }
+        return s;
+      });
+
+    return PlumbingStreams.pressureReliever(seqs, s -> 0, depth)
+        .map(s -> deliver(s));
+  }
+
+  private T deliver(long s) {
+    T tuple;
+    List<T> dropped;
+    synchronized(inFlight) {
+      SortedMap<Long,T> older = inFlight.headMap(s);
+      dropped = new ArrayList<>(older.values());
+      older.clear();
+      tuple = inFlight.remove(s);
+      deliveredCnt++;
+      droppedCnt += dropped.size();
+    }
+    for (T t : dropped) {
+      releaser.accept(t);
+    }
+    return tuple;
+  }
+
+  /** @return the downstream stage's name */
+  public String getName() {
+    return name;
+  }
+
+  /** @return the number of tuples delivered to the downstream stage */
+  public long getDeliveredCnt() {
+    synchronized(inFlight) {
+      return deliveredCnt;
+    }
+  }
+
+  /** @return the number of tuples discarded */
+  public long getDroppedCnt() {
+    synchronized(inFlight) {
+      return droppedCnt;
+    }
+  }
+
+  /** @return the number of tuples waiting for the downstream stage */
+  public int getInFlightCnt() {
+    synchronized(inFlight) {
+      return inFlight.size();
+    }
+  }
+
+  /** @return a report of the counters */
+  public String report() {
+    synchronized(inFlight) {
+      return String.format("  (stageBoundary %s depth: %d delivered: %d dropped: %d inFlight: %d)",
+          name, depth, deliveredCnt, droppedCnt, inFlight.size());
+    }
+  }
+
+}
@@ -0,0 +1,184 @@
+/*
+# Licensed Materials - Property of IBM
+# Copyright IBM Corp. 2017
+ */
+package com.ibm.streamsx.edgevideo.device.edgent;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Publish events, spooling them to a {@link SegmentSpool} while
+ * they can't be sent and forwarding them once they can.
+ *
+ * <p>Live events are sent directly while connected.  Spooled events
+ * are replayed, oldest first, by a separate thread at no more than
+ * {@code replayPerSec} so the live events aren't starved after an outage.
+ * The replay thread also reconnects, with backoff, after a lost connection.
+ *
+ * <p>Events are delivered at least once: an event whose send fails
+ * after the broker received it is replayed.  Use QoS 1 for
+ * delivery to the broker to be confirmed.
+ */
+public class StoreAndForwardPublisher {
+  private static final long MIN_BACKOFF_MSEC = 1000;
+  private static final long MAX_BACKOFF_MSEC = 30_000;
+  private static final long CLOSE_WAIT_MSEC = 2000;
+
+  /** Sends events.  e.g., to an MQTT server. */
+  public interface Sender {
+    boolean isConnected();
+    /** (Re)connect */
+    void connect() throws Exception;
+    /** Send an event. Returns once the event is sent per the qos. */
+    void send(String topic, byte[] payload, int qos) throws Exception;
+    /** Disconnect, failing a connect() or send() in progress */
+    void disconnect() throws Exception;
+  }
+
+  private final Sender sender;
+  private final SegmentSpool spool;
+  private final long replayIntervalNanos;
+  private final AtomicLong liveCnt = new AtomicLong();
+  private final AtomicLong spooledCnt = new AtomicLong();
+  private final AtomicLong replayedCnt = new AtomicLong();
+  private final AtomicLong droppedCnt = new AtomicLong();
+  private final AtomicLong reconnectCnt = new AtomicLong();
+  private Thread thread;
+  private volatile boolean closed;
+
+  /**
+   * @param sender
+   * @param spool
+   * @param replayPerSec max spooled events to replay per second
+   */
+  public StoreAndForwardPublisher(Sender sender, SegmentSpool spool, double replayPerSec) {
+    if (replayPerSec <= 0)
+      throw new IllegalArgumentException("replayPerSec " + replayPerSec);
+    this.sender = sender;
+    this.spool = spool;
+    this.replayIntervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / replayPerSec);
+  }
+
+  /**
+   * Start the replay thread.
+   * @return this
+   */
+  public synchronized StoreAndForwardPublisher start() {
+    thread = new Thread(() -> replay(), "StoreAndForwardPublisher");
+    thread.setDaemon(true);
+    thread.start();
+    return this;
+  }
+
+  /**
+   * Stop the replay thread, disconnect the sender and close the spool.
+   * Events published after this are dropped.
+   * 
+   * <p>It doesn't wait out a reconnect backoff, e.g., when called
+   * from a shutdown hook.  Unsent events remain spooled for the next run.
+   */
+  public synchronized void close() {
+    if (closed)
+      return;
+    closed = true;
+    if (thread != null) {
+      thread.interrupt();  // ends a backoff or replay pacing sleep
+    }
+    try {
+      sender.disconnect();  // ends a connect or send
+    } catch (Exception e) {
+      System.out.println("StoreAndForwardPublisher disconnect failed: " + e);
+    }
+    if (thread != null) {
+      try {
+        thread.join(CLOSE_WAIT_MSEC);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      thread = null;
+    }
+    spool.close();
+  }
+
+  /**
+   * Publish an event.  It's spooled if it can't be sent now.
+   * @param topic
+   * @param payload
+   * @param qos
+   */
+  public void publish(String topic, byte[] payload, int qos) {
+    if (closed) {
+      droppedCnt.incrementAndGet();
+      return;
+    }
+    if (sender.isConnected()) {
+      try {
+        sender.send(topic, payload, qos);
+        liveCnt.incrementAndGet();
+        return;
+      } catch (Exception e) {
+        // spool it
+      }
+    }
+    try {
+      if (spool.append(topic, payload, qos))
+        spooledCnt.incrementAndGet();
+      else
+        droppedCnt.incrementAndGet();  // too big for the spool
+    } catch (IOException e) {
+      droppedCnt.incrementAndGet();
+      System.out.println("StoreAndForwardPublisher spool append failed: " + e);
+    }
+  }
+
+  private void replay() {
+    long backoffMsec = MIN_BACKOFF_MSEC;
+    long nextReplayNanos = System.nanoTime();
+    while (!Thread.currentThread().isInterrupted()) {
+      try {
+        if (!sender.isConnected()) {
+          try {
+            sender.connect();
+            reconnectCnt.incrementAndGet();
+            backoffMsec = MIN_BACKOFF_MSEC;
+            System.out.println("StoreAndForwardPublisher connected. spool " + spool);
+          } catch (Exception e) {
+            Thread.sleep(backoffMsec);
+            backoffMsec = Math.min(2 * backoffMsec, MAX_BACKOFF_MSEC);
+          }
+          continue;
+        }
+        SegmentSpool.Record record = spool.peek();
+        if (record == null) {
+          spool.awaitAppend(MIN_BACKOFF_MSEC);
+          continue;
+        }
+        long now = System.nanoTime();
+        if (now < nextReplayNanos) {
+          TimeUnit.NANOSECONDS.sleep(nextReplayNanos - now);
+        }
+        nextReplayNanos = Math.max(now, nextReplayNanos) + replayIntervalNanos;
+        try {
+          sender.send(record.topic, record.payload, record.qos);
+        } catch (Exception e) {
+          Thread.sleep(backoffMsec);  // then retry, reconnecting if needed
+          continue;
+        }
+        spool.commit(record);
+        replayedCnt.incrementAndGet();
+      } catch (InterruptedException e) {
+        break;
+      }
+    }
+  }
+
+  /** @return a report of the counters */
+  public String report() {
+    return String.format("  (storeAndForward connected: %s live: %d spooled: %d replayed: %d dropped: %d reconnects: %d spool %s)",
+        sender.isConnected(), liveCnt.get(), spooledCnt.get(), replayedCnt.get(), droppedCnt.get(),
+        reconnectCnt.get(), spool);
+  }
+
+}
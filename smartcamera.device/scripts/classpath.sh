@@ -12,4 +12,6 @@ echo ${OPENCV_HOME}/java/${OPENCV_JAR_NAME}\
 :${EDGENT_HOME}/lib/edgent.providers.iot.jar\
 :${EDGENT_HOME}/connectors/iotp/lib/edgent.connectors.iotp.jar\
 :${EDGENT_HOME}/connectors/mqtt/lib/edgent.connectors.mqtt.jar\
+:${EDGENT_HOME}/utils/metrics/lib/edgent.utils.metrics.jar\
+:${EDGENT_HOME}/ext/metrics-core-3.1.2.jar\
 :${EDGENT_HOME}/ext/slf4j-jdk14-1.7.12.jar
\ No newline at end of file
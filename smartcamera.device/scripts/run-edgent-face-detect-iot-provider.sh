@@ -6,7 +6,7 @@
 
 # Runs EdgentFaceDetectIotProviderApp.
 #
-# ./run-edgent-face-detect-iotp-provider.sh [-h] [--fps=N | --pollMsec=N] [--resize=N] [--noautostart] {--quickstart | iot-device-cfg-file}  # see scripts/wiotp-device.cfg
+# ./run-edgent-face-detect-iotp-provider.sh [-h] [--fps=N | --pollMsec=N] [--resize=N] [--tiles=<R>x<C>] [--motionGate] [--track=N] [--captureThread] [--detectThreads=N] [--detectChannels=N] [--isolate=N] [--regions=FILE] [--source=SPEC [--replay={asap | recorded}] [--loop]] [--faceCodec=CODEC[:Q]] [--faceBytes=N] [--faceFormat={json | bin | both | meta}] [--faceBatch={frame | window:MSEC[:MAXBYTES]}] [--cropCacheBytes=N] [--publishQueue=POLICY[:CAPACITY]] [--spool=DIR[:MAXMB[:REPLAYPERSEC]]] [--uplinkBudget=EVENTID:BYTESPERSEC[:MSGSPERSEC][,...]] [--frameEvents=PERIODMSEC[:WIDTH[:QUALITY]]] [--faceStats=WINDOWMSEC[:SLIDEMSEC]] [--statsEvents=PERIODSEC] [--noautostart] {--quickstart | iot-device-cfg-file}  # see scripts/wiotp-device.cfg
 #
 # Note, the config file also contains some additional information for this application.
 # A sample wiotp-device.cfg is in the scripts/connectors/iotp directory.
@@ -6,7 +6,7 @@
 
 # Runs the MqttFaceDetectCmdAppClient app.
 #
-# ./run-mqtt-cmd-app-client.sh {stopApp | startApp | setPollMsec=msec | demoControlEcho=str | demoCmdEcho=str} mqtt-device.cfg
+# ./run-mqtt-cmd-app-client.sh {stopApp | startApp [faceStats=windowMsec[:slideMsec]] [detectChannels=N] [stats=periodSec] | setPollMsec=msec | setFramePeriodMsec=msec | setRegions=spec | clearRegions | setResize=N | setScaleFactor=F | setMinNeighbors=N | setMinFaceSize=N | setMaxFaceSize=N | setClassifier=path | setUplinkBudget=eventId:bytesPerSec[:msgsPerSec] | clearUplinkBudget=eventId | publishStats | getFaceCrops=id[,id...] | demoControlEcho=str | demoCmdEcho=str} mqtt-device.cfg
 #
 
 if [ "$EDGENT_HOME" = "" ]; then
@@ -6,7 +6,7 @@
 
 # Runs NonEdgentFaceDetectApp.
 #
-# ./run-non-edgent-face-detect.sh [--fps=N | --pollMsec=N] [--resize=N]
+# ./run-non-edgent-face-detect.sh [--fps=N | --pollMsec=N] [--resize=N] [--tiles=<R>x<C>] [--motionGate] [--track=N] [--captureThread] [--detectThreads=N] [--regions=FILE] [--source=SPEC [--replay={asap | recorded}] [--loop]]
 #
 # Note, the config file also contains some additional information for this application.
 # A sample wiotp-device.cfg is in the scripts/connectors/iotp directory.
@@ -6,7 +6,7 @@
 
 # Runs the WiotpFaceDetectCmdAppClient app.
 #
-# ./run-wiotp-cmd-app-client.sh {stopApp | startApp | setPollMsec=msec | demoControlEcho=str | demoCmdEcho=str} <app-cfg-file-path> # see scripts/wiotp-app-client.cfg
+# ./run-wiotp-cmd-app-client.sh {stopApp | startApp [faceStats=windowMsec[:slideMsec]] [detectChannels=N] [stats=periodSec] | setPollMsec=msec | setFramePeriodMsec=msec | setRegions=spec | clearRegions | setResize=N | setScaleFactor=F | setMinNeighbors=N | setMinFaceSize=N | setMaxFaceSize=N | setClassifier=path | setUplinkBudget=eventId:bytesPerSec[:msgsPerSec] | clearUplinkBudget=eventId | publishStats | getFaceCrops=id[,id...] | demoControlEcho=str | demoCmdEcho=str} <app-cfg-file-path> # see scripts/wiotp-app-client.cfg
 #
 # Note, the config file also contains some additional information for this application.
 # A sample wiotp-app-client.cfg is in the scripts/connectors/iotp directory.